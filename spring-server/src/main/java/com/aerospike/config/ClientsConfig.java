@@ -4,6 +4,15 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import com.aerospike.client.policy.CommitLevel;
+import com.aerospike.service.BulkLoadBehavior;
+import com.aerospike.service.CartCache;
+import com.aerospike.service.HedgedReads;
+import com.aerospike.service.LoadThrottle;
+import com.aerospike.service.PartitionScanner;
+import com.aerospike.service.ProductCountCache;
+import com.aerospike.service.QueryResultCache;
+
 /**
  * Configuration class for setting up Aerospike client configuration
  * Provides connection details rather than the client instance itself
@@ -29,6 +38,57 @@ public class ClientsConfig {
     @Value("${aerospike.tls-cafile:#{null}}")
     private String tlsCaFile;
 
+    @Value("${aerospike.cart-cache.max-entries:10000}")
+    private int cartCacheMaxEntries;
+
+    @Value("${aerospike.query-cache.max-entries:1000}")
+    private int queryCacheMaxEntries;
+
+    @Value("${aerospike.query-cache.expire-after-ms:60000}")
+    private long queryCacheExpireAfterMs;
+
+    @Value("${aerospike.product-count.exact:false}")
+    private boolean exactProductCount;
+
+    @Value("${aerospike.product-count.expire-after-ms:5000}")
+    private long productCountExpireAfterMs;
+
+    @Value("${aerospike.hedged-reads.enabled:false}")
+    private boolean hedgedReadsEnabled;
+
+    @Value("${aerospike.hedged-reads.percentile:95}")
+    private double hedgedReadsPercentile;
+
+    @Value("${aerospike.hedged-reads.min-delay-ms:2}")
+    private long hedgedReadsMinDelayMs;
+
+    @Value("${aerospike.load-throttle.records-per-second:0}")
+    private long loadRecordsPerSecond;
+
+    @Value("${aerospike.load-throttle.bytes-per-second:0}")
+    private long loadBytesPerSecond;
+
+    @Value("${aerospike.load-throttle.adaptive:true}")
+    private boolean loadThrottleAdaptive;
+
+    @Value("${aerospike.load-throttle.max-write-latency-ms:20}")
+    private long loadMaxWriteLatencyMs;
+
+    @Value("${aerospike.load-throttle.max-overload-errors:0}")
+    private int loadMaxOverloadErrors;
+
+    @Value("${aerospike.partition-scan.parallelism:0}")
+    private int partitionScanParallelism;
+
+    @Value("${aerospike.bulk-load.behavior-name:bulk-load}")
+    private String bulkLoadBehaviorName;
+
+    @Value("${aerospike.bulk-load.commit-level:COMMIT_MASTER}")
+    private CommitLevel bulkLoadCommitLevel;
+
+    @Value("${aerospike.bulk-load.behaviors-file:}")
+    private String bulkLoadBehaviorsFile;
+
 
 //    -U paradmin -P paradmin1234567890 -h 10.132.1.117 -p 4000 
 //    --tls-enable 
@@ -44,4 +104,68 @@ public class ClientsConfig {
                 aerospikeUserName, aerospikePassword,
                 tlsName, tlsCaFile);
     }
-} 
\ No newline at end of file
+
+    /**
+     * Per-instance cache of deserialized carts, validated against the record generation
+     * on every read. Set aerospike.cart-cache.max-entries to 0 to disable it.
+     */
+    @Bean
+    public CartCache cartCache() {
+        return new CartCache(cartCacheMaxEntries);
+    }
+
+    /**
+     * Per-instance cache of secondary index query results, invalidated when products are
+     * stored, cleared or loaded. Set aerospike.query-cache.max-entries to 0 to disable it.
+     */
+    @Bean
+    public QueryResultCache queryResultCache() {
+        return new QueryResultCache(queryCacheMaxEntries, queryCacheExpireAfterMs);
+    }
+
+    /**
+     * Short-lived cache of the product count. Set aerospike.product-count.exact to count with
+     * a full scan rather than from the set statistics.
+     */
+    @Bean
+    public ProductCountCache productCountCache() {
+        return new ProductCountCache(exactProductCount, productCountExpireAfterMs);
+    }
+
+    /**
+     * Hedging of product lookups to a replica when the first read is slow. Off unless
+     * aerospike.hedged-reads.enabled is set.
+     */
+    @Bean
+    public HedgedReads hedgedReads() {
+        return new HedgedReads(hedgedReadsEnabled, hedgedReadsPercentile, hedgedReadsMinDelayMs);
+    }
+
+    /**
+     * Pacing of catalogue loads, so they can run alongside shopper traffic. By default there
+     * is no cap, but loads back off when writes get slow or the cluster reports overload.
+     */
+    @Bean
+    public LoadThrottle loadThrottle() {
+        return new LoadThrottle(loadRecordsPerSecond, loadBytesPerSecond, loadThrottleAdaptive,
+                loadMaxWriteLatencyMs, loadMaxOverloadErrors);
+    }
+
+    /**
+     * Write settings for catalogue loads. Set aerospike.bulk-load.behaviors-file to a fluent
+     * client behaviors YAML file to tune them while the server is running.
+     */
+    @Bean
+    public BulkLoadBehavior bulkLoadBehavior() {
+        return new BulkLoadBehavior(bulkLoadBehaviorName, bulkLoadCommitLevel, bulkLoadBehaviorsFile);
+    }
+
+    /**
+     * Threads for scans split into partition ranges, such as exports and exact counts. Set
+     * aerospike.partition-scan.parallelism to 0 for one per core.
+     */
+    @Bean
+    public PartitionScanner partitionScanner() {
+        return new PartitionScanner(partitionScanParallelism);
+    }
+}
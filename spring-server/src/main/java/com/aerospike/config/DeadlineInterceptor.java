@@ -0,0 +1,45 @@
+package com.aerospike.config;
+
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import com.aerospike.service.RequestDeadline;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Starts the request deadline from the budget of the endpoint being called, and clears it
+ * once the request completes so the thread does not carry it to the next request. For the
+ * streaming endpoints the request completes on another thread, so it is also cleared when the
+ * handler returns and the response goes on asynchronously.
+ */
+public class DeadlineInterceptor implements AsyncHandlerInterceptor {
+
+    private final DeadlineProperties properties;
+
+    public DeadlineInterceptor(DeadlineProperties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (handler instanceof HandlerMethod handlerMethod) {
+            long budgetMs = properties.budgetFor(handlerMethod.getMethod().getName());
+            if (budgetMs > 0) {
+                RequestDeadline.start(budgetMs);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestDeadline.clear();
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        RequestDeadline.clear();
+    }
+}
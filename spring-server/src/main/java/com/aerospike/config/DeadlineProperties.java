@@ -0,0 +1,41 @@
+package com.aerospike.config;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Latency budgets of the REST endpoints, from aerospike.deadlines in application.yml.
+ * Endpoints are named by their controller method, for example getProduct or addToCart.
+ * A budget of 0 means the endpoint has no deadline.
+ */
+@ConfigurationProperties(prefix = "aerospike.deadlines")
+public class DeadlineProperties {
+
+    private long defaultMs = 0;
+    private Map<String, Long> endpoints = new HashMap<>();
+
+    public long getDefaultMs() {
+        return defaultMs;
+    }
+
+    public void setDefaultMs(long defaultMs) {
+        this.defaultMs = defaultMs;
+    }
+
+    public Map<String, Long> getEndpoints() {
+        return endpoints;
+    }
+
+    public void setEndpoints(Map<String, Long> endpoints) {
+        this.endpoints = endpoints;
+    }
+
+    /**
+     * The budget of the endpoint, or the default if it has none of its own
+     */
+    public long budgetFor(String endpoint) {
+        return endpoints.getOrDefault(endpoint, defaultMs);
+    }
+}
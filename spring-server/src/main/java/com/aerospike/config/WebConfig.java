@@ -1,8 +1,10 @@
 package com.aerospike.config;
 
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ResourceHandlerRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.springframework.web.servlet.resource.PathResourceResolver;
@@ -10,8 +12,23 @@ import org.springframework.web.servlet.resource.PathResourceResolver;
 import java.io.IOException;
 
 @Configuration
+@EnableConfigurationProperties(DeadlineProperties.class)
 public class WebConfig implements WebMvcConfigurer {
 
+    private final DeadlineProperties deadlineProperties;
+
+    public WebConfig(DeadlineProperties deadlineProperties) {
+        this.deadlineProperties = deadlineProperties;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // Streaming exports and data loading run for as long as they need
+        registry.addInterceptor(new DeadlineInterceptor(deadlineProperties))
+                .addPathPatterns("/rest/**")
+                .excludePathPatterns("/rest/v1/stream/**", "/rest/v1/data/**");
+    }
+
     @Override
     public void addResourceHandlers(ResourceHandlerRegistry registry) {
         // Serve static files from /static/** paths
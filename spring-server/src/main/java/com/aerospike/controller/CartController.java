@@ -9,12 +9,15 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.aerospike.client.AerospikeException;
 import com.aerospike.model.Cart;
 import com.aerospike.service.KeyValueServiceInterface;
+import com.aerospike.service.RequestDeadline;
 
 @RestController
 @RequestMapping("/rest/v1/cart")
@@ -39,10 +42,7 @@ public class CartController {
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("error", e.getMessage());
-            return ResponseEntity.internalServerError().body(errorResponse);
+            return errorResponse(e, 500);
         }
     }
 
@@ -63,10 +63,35 @@ public class CartController {
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("error", e.getMessage());
-            return ResponseEntity.badRequest().body(errorResponse);
+            return errorResponse(e, 400);
+        }
+    }
+
+    @PostMapping("/{userId}/add-batch")
+    public ResponseEntity<Map<String, Object>> addItemsToCart(
+            @PathVariable String userId,
+            @RequestBody Map<String, Integer> items) {
+        for (Map.Entry<String, Integer> item : items.entrySet()) {
+            if (item.getValue() == null || item.getValue() <= 0) {
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("success", false);
+                errorResponse.put("error", "Quantity for " + item.getKey() + " must be a positive number");
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
+        }
+        try {
+            Cart cart = keyValueService.addItemsToCart(userId, items);
+            
+            Map<String, Object> response = new HashMap<>();
+            response.put("items", cart.getItems());
+            response.put("total", cart.getTotal());
+            response.put("itemCount", cart.getItemCount());
+            response.put("success", true);
+            response.put("message", "Items added to cart successfully");
+            
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            return errorResponse(e, 400);
         }
     }
 
@@ -87,10 +112,7 @@ public class CartController {
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("error", e.getMessage());
-            return ResponseEntity.badRequest().body(errorResponse);
+            return errorResponse(e, 400);
         }
     }
 
@@ -110,10 +132,7 @@ public class CartController {
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("error", e.getMessage());
-            return ResponseEntity.badRequest().body(errorResponse);
+            return errorResponse(e, 400);
         }
     }
 
@@ -131,11 +150,28 @@ public class CartController {
             
             return ResponseEntity.ok(response);
         } catch (Exception e) {
-            Map<String, Object> errorResponse = new HashMap<>();
-            errorResponse.put("success", false);
-            errorResponse.put("error", e.getMessage());
-            return ResponseEntity.internalServerError().body(errorResponse);
+            return errorResponse(e, 500);
+        }
+    }
+
+    /**
+     * The error response for a failed cart call: 504 if it ran out of time, even if the service
+     * wrapped the timeout, otherwise the status passed
+     */
+    private static ResponseEntity<Map<String, Object>> errorResponse(Exception e, int status) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("success", false);
+        errorResponse.put("error", e.getMessage());
+        return ResponseEntity.status(isTimeout(e) ? 504 : status).body(errorResponse);
+    }
+
+    private static boolean isTimeout(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RequestDeadline.ExceededException || cause instanceof AerospikeException.Timeout) {
+                return true;
+            }
         }
+        return false;
     }
 
     @GetMapping("/health")
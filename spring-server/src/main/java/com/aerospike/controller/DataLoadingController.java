@@ -1,6 +1,12 @@
 package com.aerospike.controller;
 
+import com.aerospike.client.policy.WritePolicy;
+import com.aerospike.service.BulkLoadBehavior;
 import com.aerospike.service.DataLoadingService;
+import com.aerospike.service.LoadJob;
+import com.aerospike.service.LoadJobService;
+import com.aerospike.service.LoadThrottle;
+import com.aerospike.service.SnapshotService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -9,7 +15,9 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * REST controller for data loading operations
@@ -20,20 +28,37 @@ import java.util.Map;
 public class DataLoadingController {
 
     private final DataLoadingService dataLoadingService;
+    private final SnapshotService snapshotService;
+    private final LoadJobService loadJobService;
+    private final LoadThrottle loadThrottle;
+    private final BulkLoadBehavior bulkLoadBehavior;
 
     @Autowired
-    public DataLoadingController(DataLoadingService dataLoadingService) {
+    public DataLoadingController(DataLoadingService dataLoadingService, SnapshotService snapshotService,
+            LoadJobService loadJobService, LoadThrottle loadThrottle, BulkLoadBehavior bulkLoadBehavior) {
         this.dataLoadingService = dataLoadingService;
+        this.snapshotService = snapshotService;
+        this.loadJobService = loadJobService;
+        this.loadThrottle = loadThrottle;
+        this.bulkLoadBehavior = bulkLoadBehavior;
     }
 
     /**
      * Load all product data from the specified directory
      * 
      * @param dataPath Root path to the data directory containing styles and images folders
-     * @return Load result with statistics
+     * @param incremental Whether to load only the files changed since the last load, and delete
+     *     the products whose files were removed
+     * @param deferIndexes Whether to create the secondary indexes after the products are written,
+     *     and wait for them to be built, rather than before. Not used by incremental loads.
+     * @param async Whether to return the load job straight away rather than wait for the load
+     * @return Load result with statistics, or the load job if async
      */
     @PostMapping("/load")
-    public ResponseEntity<Map<String, Object>> loadData(@RequestParam("dataPath") String dataPath) {
+    public ResponseEntity<Map<String, Object>> loadData(@RequestParam("dataPath") String dataPath,
+            @RequestParam(value = "incremental", defaultValue = "false") boolean incremental,
+            @RequestParam(value = "deferIndexes", defaultValue = "false") boolean deferIndexes,
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
         try {
             // Validate that the path exists and is a directory
             if (!Files.exists(Paths.get(dataPath)) || !Files.isDirectory(Paths.get(dataPath))) {
@@ -51,15 +76,44 @@ public class DataLoadingController {
                 return ResponseEntity.badRequest().body(errorResponse);
             }
 
-            // Perform the data loading
-            DataLoadingService.LoadResult result = dataLoadingService.loadAllData(dataPath);
+            // Every load runs as a job, so its progress can be followed while it runs
+            LoadJob job = incremental
+                    ? loadJobService.submit("incremental", dataPath, progress -> dataLoadingService.loadChangedData(dataPath, progress))
+                    : loadJobService.submit("full", dataPath, progress -> dataLoadingService.loadAllData(dataPath, deferIndexes, progress));
+            if (async) {
+                return ResponseEntity.accepted().body(jobResponse(job));
+            }
+            Object jobResult = loadJobService.await(job);
+
+            if (incremental) {
+                DataLoadingService.IncrementalLoadResult result = (DataLoadingService.IncrementalLoadResult) jobResult;
+
+                Map<String, Object> response = new HashMap<>();
+                response.put("success", result.getErrorCount() == 0);
+                response.put("jobId", job.getId());
+                response.put("cancelled", job.getStatus() == LoadJob.Status.CANCELLED);
+                response.put("addedCount", result.getAddedCount());
+                response.put("changedCount", result.getChangedCount());
+                response.put("deletedCount", result.getDeletedCount());
+                response.put("unchangedCount", result.getUnchangedCount());
+                response.put("errorCount", result.getErrorCount());
+                response.put("message", "Incremental data loading completed");
+
+                return ResponseEntity.ok(response);
+            }
+
+            DataLoadingService.LoadResult result = (DataLoadingService.LoadResult) jobResult;
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
+            response.put("jobId", job.getId());
+            response.put("cancelled", job.getStatus() == LoadJob.Status.CANCELLED);
             response.put("totalFiles", result.getTotalFiles());
             response.put("successCount", result.getSuccessCount());
             response.put("errorCount", result.getErrorCount());
             response.put("successRate", result.getSuccessRate());
+            response.put("dataMs", result.getDataMs());
+            response.put("indexBuildMs", result.getIndexMs());
             response.put("message", "Data loading completed");
 
             return ResponseEntity.ok(response);
@@ -69,6 +123,11 @@ public class DataLoadingController {
             errorResponse.put("error", "IO Error during data loading");
             errorResponse.put("message", e.getMessage());
             return ResponseEntity.internalServerError().body(errorResponse);
+        } catch (UnsupportedOperationException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Load not supported");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(errorResponse);
         } catch (Exception e) {
             Map<String, Object> errorResponse = new HashMap<>();
             errorResponse.put("error", "Unexpected error during data loading");
@@ -77,6 +136,223 @@ public class DataLoadingController {
         }
     }
 
+    /**
+     * Load all product data from a packed catalogue file
+     * 
+     * @param filePath Path to a newline delimited JSON file of style files, or a zip of style files
+     * @param deferIndexes Whether to create the secondary indexes after the products are written,
+     *     and wait for them to be built, rather than before
+     * @param async Whether to return the load job straight away rather than wait for the load
+     * @return Load result with statistics, or the load job if async
+     */
+    @PostMapping("/load-packed")
+    public ResponseEntity<Map<String, Object>> loadPackedData(@RequestParam("filePath") String filePath,
+            @RequestParam(value = "deferIndexes", defaultValue = "false") boolean deferIndexes,
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        try {
+            if (!Files.isRegularFile(Paths.get(filePath))) {
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("error", "Invalid file path: " + filePath);
+                errorResponse.put("message", "File does not exist or is not a regular file");
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
+
+            LoadJob job = loadJobService.submit("packed", filePath, progress -> dataLoadingService.loadPackedData(filePath, deferIndexes, progress));
+            if (async) {
+                return ResponseEntity.accepted().body(jobResponse(job));
+            }
+            DataLoadingService.LoadResult result = (DataLoadingService.LoadResult) loadJobService.await(job);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("jobId", job.getId());
+            response.put("cancelled", job.getStatus() == LoadJob.Status.CANCELLED);
+            response.put("totalRecords", result.getTotalFiles());
+            response.put("successCount", result.getSuccessCount());
+            response.put("errorCount", result.getErrorCount());
+            response.put("successRate", result.getSuccessRate());
+            response.put("dataMs", result.getDataMs());
+            response.put("indexBuildMs", result.getIndexMs());
+            response.put("message", "Packed data loading completed");
+
+            return ResponseEntity.ok(response);
+
+        } catch (IOException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "IO Error during packed data loading");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Unexpected error during packed data loading");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        }
+    }
+
+    /**
+     * List the load jobs, oldest first
+     * 
+     * @return The progress of each job
+     */
+    @GetMapping("/jobs")
+    public ResponseEntity<Map<String, Object>> getLoadJobs() {
+        List<Map<String, Object>> jobs = loadJobService.getJobs().stream()
+                .map(this::jobResponse)
+                .toList();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobs", jobs);
+        response.put("count", jobs.size());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the progress of a load job
+     * 
+     * @param id The job id
+     * @return Counts of files parsed, records written and errors, the rate, the split of time
+     *     between parsing and writing, and the estimated time to finish
+     */
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> getLoadJob(@PathVariable("id") String id) {
+        Optional<LoadJob> job = loadJobService.getJob(id);
+        if (job.isEmpty()) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Unknown load job: " + id);
+            errorResponse.put("message", "The job does not exist or has been forgotten");
+            return ResponseEntity.status(404).body(errorResponse);
+        }
+        return ResponseEntity.ok(jobResponse(job.get()));
+    }
+
+    /**
+     * Cancel a load job. A running load stops before its next file and keeps what it has stored.
+     * 
+     * @param id The job id
+     * @return The progress of the job
+     */
+    @DeleteMapping("/jobs/{id}")
+    public ResponseEntity<Map<String, Object>> cancelLoadJob(@PathVariable("id") String id) {
+        Optional<LoadJob> job = loadJobService.getJob(id);
+        if (job.isEmpty()) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Unknown load job: " + id);
+            errorResponse.put("message", "The job does not exist or has been forgotten");
+            return ResponseEntity.status(404).body(errorResponse);
+        }
+        boolean cancelled = job.get().cancel();
+
+        Map<String, Object> response = jobResponse(job.get());
+        response.put("cancelRequested", cancelled);
+        response.put("message", cancelled ? "Load job cancellation requested" : "Load job has already finished");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the pacing of catalogue loads: the configured caps, the caps in force now after any
+     * back off, and how often loads have backed off
+     * 
+     * @return Load throttle settings and statistics
+     */
+    @GetMapping("/throttle")
+    public ResponseEntity<Map<String, Object>> getLoadThrottle() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("enabled", loadThrottle.isEnabled());
+        response.put("adaptive", loadThrottle.isAdaptive());
+        response.put("recordsPerSecond", loadThrottle.getRecordsPerSecond());
+        response.put("bytesPerSecond", loadThrottle.getBytesPerSecond());
+        response.put("currentRecordsPerSecond", Math.round(loadThrottle.getCurrentRecordsPerSecond()));
+        response.put("currentBytesPerSecond", Math.round(loadThrottle.getCurrentBytesPerSecond()));
+        response.put("backoffs", loadThrottle.getBackoffs());
+        response.put("overloadErrors", loadThrottle.getOverloadErrors());
+        response.put("waitMs", loadThrottle.getWaitMs());
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Rebuild the facet index from the products in the database, scanning the partitions on
+     * several threads. Runs as a job, one at a time with the loads.
+     * 
+     * @param async Whether to return the job straight away rather than wait for the rebuild
+     * @return The number of products indexed, or the job if async
+     */
+    @PostMapping("/facet-index/rebuild")
+    public ResponseEntity<Map<String, Object>> rebuildFacetIndex(
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        try {
+            long startTime = System.currentTimeMillis();
+            LoadJob job = loadJobService.submit("reindex", "database", dataLoadingService::rebuildFacetIndex);
+            if (async) {
+                return ResponseEntity.accepted().body(jobResponse(job));
+            }
+            int indexed = (Integer) loadJobService.await(job);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("jobId", job.getId());
+            response.put("cancelled", job.getStatus() == LoadJob.Status.CANCELLED);
+            response.put("indexedCount", indexed);
+            response.put("timeMs", System.currentTimeMillis() - startTime);
+            response.put("message", "Facet index rebuilt");
+            return ResponseEntity.ok(response);
+        } catch (UnsupportedOperationException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Facet index rebuild not supported");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Failed to rebuild the facet index");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        }
+    }
+
+    /**
+     * Get the write settings catalogue loads use now, after any reload of the behaviors file
+     * 
+     * @return Bulk load write policy settings
+     */
+    @GetMapping("/bulk-load")
+    public ResponseEntity<Map<String, Object>> getBulkLoadBehavior() {
+        WritePolicy writePolicy = bulkLoadBehavior.writePolicy();
+        Map<String, Object> response = new HashMap<>();
+        response.put("behavior", bulkLoadBehavior.getName());
+        response.put("behaviorsFile", bulkLoadBehavior.getBehaviorsFile());
+        response.put("commitLevel", writePolicy.commitLevel.name());
+        response.put("compress", writePolicy.compress);
+        response.put("sendKey", writePolicy.sendKey);
+        response.put("totalTimeoutMs", writePolicy.totalTimeout);
+        response.put("socketTimeoutMs", writePolicy.socketTimeout);
+        response.put("maxRetries", writePolicy.maxRetries);
+        response.put("sleepBetweenRetriesMs", writePolicy.sleepBetweenRetries);
+        return ResponseEntity.ok(response);
+    }
+
+    private Map<String, Object> jobResponse(LoadJob job) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobId", job.getId());
+        response.put("type", job.getType());
+        response.put("source", job.getSource());
+        response.put("status", job.getStatus().name());
+        response.put("phase", job.getPhase());
+        response.put("totalFiles", job.getTotal());
+        response.put("filesParsed", job.getParsedCount());
+        response.put("recordsWritten", job.getWrittenCount());
+        response.put("skippedCount", job.getSkippedCount());
+        response.put("errorCount", job.getErrorCount());
+        response.put("recordsPerSecond", Math.round(job.getRecordsPerSecond() * 10) / 10.0);
+        response.put("parseMs", job.getParseMs());
+        response.put("writeMs", job.getWriteMs());
+        response.put("elapsedMs", job.getElapsedMs());
+        response.put("etaMs", job.getEtaMs());
+        if (job.getFailure() != null) {
+            response.put("failure", job.getFailure());
+        }
+        return response;
+    }
+
     /**
      * Load a single product from a JSON file
      * 
@@ -178,7 +454,8 @@ public class DataLoadingController {
 
     /**
      * Create secondary indexes required for the retail demo
-     * Creates indexes for category, subCategory, usage, and brandName
+     * Creates indexes for category, subCategory, usage, and brandName, and numeric
+     * indexes for price, salePrice and added
      * 
      * @return Index creation result
      */
@@ -191,6 +468,7 @@ public class DataLoadingController {
             indexes.put("usage", "usage_idx");
             indexes.put("brandName", "brand_idx");
             indexes.put("articleType", "article_idx");
+            Map<String, String> numericIndexes = DataLoadingService.numericIndexes();
 
             Map<String, String> results = new HashMap<>();
             int successCount = 0;
@@ -206,10 +484,20 @@ public class DataLoadingController {
                     errorCount++;
                 }
             }
+            for (Map.Entry<String, String> entry : numericIndexes.entrySet()) {
+                try {
+                    dataLoadingService.createSingleNumericIndex(entry.getKey(), entry.getValue());
+                    results.put(entry.getValue(), "Created successfully");
+                    successCount++;
+                } catch (Exception e) {
+                    results.put(entry.getValue(), "Error: " + e.getMessage());
+                    errorCount++;
+                }
+            }
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", errorCount == 0);
-            response.put("totalIndexes", indexes.size());
+            response.put("totalIndexes", indexes.size() + numericIndexes.size());
             response.put("successCount", successCount);
             response.put("errorCount", errorCount);
             response.put("indexResults", results);
@@ -225,6 +513,140 @@ public class DataLoadingController {
         }
     }
 
+    /**
+     * Export all products and category metadata to a snapshot file
+     * 
+     * @param path File to write the snapshot to
+     * @param compress Whether to gzip the snapshot
+     * @param parallelism Number of partition ranges to split the scan into
+     * @param async Whether to return the export job straight away rather than wait for the export
+     * @return Export result with record counts, or the export job if async
+     */
+    @PostMapping("/snapshot/export")
+    public ResponseEntity<Map<String, Object>> exportSnapshot(
+            @RequestParam("path") String path,
+            @RequestParam(value = "compress", defaultValue = "true") boolean compress,
+            @RequestParam(value = "parallelism", defaultValue = "8") int parallelism,
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        if (parallelism < 1) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Invalid parallelism: " + parallelism);
+            errorResponse.put("message", "Parallelism must be at least 1");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+        try {
+            LoadJob job = loadJobService.submit("snapshot-export", path,
+                    progress -> snapshotService.export(Paths.get(path), compress, parallelism, progress));
+            if (async) {
+                return ResponseEntity.accepted().body(jobResponse(job));
+            }
+            SnapshotService.SnapshotResult result = (SnapshotService.SnapshotResult) loadJobService.await(job);
+            boolean cancelled = job.getStatus() == LoadJob.Status.CANCELLED;
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", !cancelled);
+            response.put("jobId", job.getId());
+            response.put("cancelled", cancelled);
+            response.put("path", path);
+            response.put("productCount", result.getProductCount());
+            response.put("metadataCount", result.getMetadataCount());
+            response.put("bytes", cancelled ? 0 : Files.size(Paths.get(path)));
+            response.put("timeMs", result.getTimeMs());
+            response.put("message", "Snapshot export completed");
+
+            return ResponseEntity.ok(response);
+
+        } catch (IOException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "IO Error exporting snapshot");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        } catch (UnsupportedOperationException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Snapshot export not supported");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Unexpected error exporting snapshot");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        }
+    }
+
+    /**
+     * Import a snapshot file written by the export, then create the secondary indexes
+     * 
+     * @param path Snapshot file to import
+     * @param clear Whether to clear all existing data first. If not, the catalogue must be empty.
+     * @param parallelism Number of batches to write at the same time
+     * @param batchSize Number of records in each batch write
+     * @param async Whether to return the import job straight away rather than wait for the import
+     * @return Import result with record and error counts, or the import job if async
+     */
+    @PostMapping("/snapshot/import")
+    public ResponseEntity<Map<String, Object>> importSnapshot(
+            @RequestParam("path") String path,
+            @RequestParam(value = "clear", defaultValue = "true") boolean clear,
+            @RequestParam(value = "parallelism", defaultValue = "8") int parallelism,
+            @RequestParam(value = "batchSize", defaultValue = "500") int batchSize,
+            @RequestParam(value = "async", defaultValue = "false") boolean async) {
+        if (!Files.isRegularFile(Paths.get(path))) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Invalid snapshot path: " + path);
+            errorResponse.put("message", "File does not exist or is not a regular file");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+        if (parallelism < 1 || batchSize < 1) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Invalid parallelism or batch size");
+            errorResponse.put("message", "Parallelism and batch size must be at least 1");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+        try {
+            LoadJob job = loadJobService.submit("snapshot-import", path,
+                    progress -> snapshotService.importSnapshot(Paths.get(path), clear, parallelism, batchSize, progress));
+            if (async) {
+                return ResponseEntity.accepted().body(jobResponse(job));
+            }
+            SnapshotService.SnapshotResult result = (SnapshotService.SnapshotResult) loadJobService.await(job);
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", result.getErrorCount() == 0);
+            response.put("jobId", job.getId());
+            response.put("cancelled", job.getStatus() == LoadJob.Status.CANCELLED);
+            response.put("path", path);
+            response.put("productCount", result.getProductCount());
+            response.put("metadataCount", result.getMetadataCount());
+            response.put("errorCount", result.getErrorCount());
+            response.put("timeMs", result.getTimeMs());
+            response.put("message", "Snapshot import completed");
+
+            return ResponseEntity.ok(response);
+
+        } catch (IOException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "IO Error importing snapshot");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        } catch (IllegalStateException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Catalogue is not empty");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.status(409).body(errorResponse);
+        } catch (UnsupportedOperationException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Snapshot import not supported");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.status(501).body(errorResponse);
+        } catch (Exception e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("error", "Unexpected error importing snapshot");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.internalServerError().body(errorResponse);
+        }
+    }
+
     /**
      * Health check for the data loading service
      * 
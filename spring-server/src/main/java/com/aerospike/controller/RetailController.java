@@ -13,8 +13,14 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.aerospike.model.NumericRange;
 import com.aerospike.model.Product;
+import com.aerospike.model.ProductMetadata;
+import com.aerospike.model.ProductSort;
+import com.aerospike.service.CartCache;
+import com.aerospike.service.HedgedReads;
 import com.aerospike.service.KeyValueServiceInterface;
+import com.aerospike.service.QueryResultCache;
 
 /**
  * REST controller for the retail demo API - Key-Value operations only
@@ -25,10 +31,17 @@ import com.aerospike.service.KeyValueServiceInterface;
 public class RetailController {
 
     private final KeyValueServiceInterface keyValueService;
+    private final QueryResultCache queryResultCache;
+    private final CartCache cartCache;
+    private final HedgedReads hedgedReads;
 
     @Autowired
-    public RetailController(KeyValueServiceInterface keyValueService) {
+    public RetailController(KeyValueServiceInterface keyValueService, QueryResultCache queryResultCache,
+            CartCache cartCache, HedgedReads hedgedReads) {
         this.keyValueService = keyValueService;
+        this.queryResultCache = queryResultCache;
+        this.cartCache = cartCache;
+        this.hedgedReads = hedgedReads;
     }
 
     /**
@@ -43,6 +56,51 @@ public class RetailController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Hit metrics of the per-instance query result and cart caches
+     */
+    @GetMapping("/cache-stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> queryCache = new HashMap<>();
+        queryCache.put("enabled", queryResultCache.isEnabled());
+        queryCache.put("size", queryResultCache.size());
+        queryCache.put("hits", queryResultCache.getHits());
+        queryCache.put("misses", queryResultCache.getMisses());
+        queryCache.put("invalidations", queryResultCache.getInvalidations());
+
+        Map<String, Object> carts = new HashMap<>();
+        carts.put("enabled", cartCache.isEnabled());
+        carts.put("size", cartCache.size());
+        carts.put("hits", cartCache.getHits());
+        carts.put("misses", cartCache.getMisses());
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("queryCache", queryCache);
+        response.put("cartCache", carts);
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Metrics of the hedged product reads: how often a read was hedged and how often the
+     * hedge answered first
+     */
+    @GetMapping("/hedge-stats")
+    public ResponseEntity<Map<String, Object>> hedgeStats() {
+        long reads = hedgedReads.getReads();
+        long hedges = hedgedReads.getHedges();
+        long hedgeWins = hedgedReads.getHedgeWins();
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("enabled", hedgedReads.isEnabled());
+        response.put("reads", reads);
+        response.put("hedges", hedges);
+        response.put("hedgeWins", hedgeWins);
+        response.put("hedgeRate", reads == 0 ? 0.0 : (double) hedges / reads);
+        response.put("hedgeWinRate", hedges == 0 ? 0.0 : (double) hedgeWins / hedges);
+        response.put("thresholdMs", hedgedReads.getThresholdMs());
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Called when navigating to the homepage
      * Performs secondary index queries on multiple "subCategory" values
@@ -102,7 +160,8 @@ public class RetailController {
     /**
      * Called when searching products
      * Performs advanced search with multiple filters
-     * Returns products matching the search criteria
+     * Returns products matching the search criteria, with facet counts when the facet index is loaded
+     * Optional ranges filter on price, salePrice and added (epoch seconds), with both ends included
      */
     @GetMapping("/search")
     public ResponseEntity<Map<String, Object>> search(
@@ -110,14 +169,24 @@ public class RetailController {
             @RequestParam(value = "category", required = false) String category,
             @RequestParam(value = "articleType", required = false) String articleType,
             @RequestParam(value = "usage", required = false) String usage,
-            @RequestParam(value = "brandName", required = false) String brandName) {
+            @RequestParam(value = "brandName", required = false) String brandName,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "minSalePrice", required = false) Long minSalePrice,
+            @RequestParam(value = "maxSalePrice", required = false) Long maxSalePrice,
+            @RequestParam(value = "addedSince", required = false) Long addedSince,
+            @RequestParam(value = "addedUntil", required = false) Long addedUntil) {
         try {
             // Perform advanced search with multiple filters
-            KeyValueServiceInterface.QueryResult queryResult = keyValueService.advancedSearch(category, articleType, usage, brandName, query, 20);
+            List<NumericRange> ranges = NumericRange.of(minPrice, maxPrice, minSalePrice, maxSalePrice, addedSince, addedUntil);
+            KeyValueServiceInterface.QueryResult queryResult = keyValueService.advancedSearch(category, articleType, usage, brandName, query, ranges, 20);
 
             Map<String, Object> response = new HashMap<>();
             response.put("products", queryResult.getProducts());
             response.put("time", queryResult.getTimeMs());
+            if (queryResult.getFacetCounts() != null) {
+                response.put("facets", queryResult.getFacetCounts());
+            }
 
             return ResponseEntity.ok(response);
         } catch (Exception e) {
@@ -206,17 +275,44 @@ public class RetailController {
         }
     }
 
+    /**
+     * Get the categories, article types, usage types and brand names in one response
+     * Served from the in-memory metadata snapshot, which is only refreshed when the record changes
+     */
+    @GetMapping("/metadata")
+    public ResponseEntity<Map<String, Object>> getMetadata() {
+        try {
+            ProductMetadata metadata = keyValueService.getMetadata();
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("categories", metadata.getCategories());
+            response.put("articleTypes", metadata.getArticleTypes());
+            response.put("usageTypes", metadata.getUsage());
+            response.put("brandNames", metadata.getBrandNames());
+            response.put("version", metadata.getVersion());
+
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
     /**
      * Called when looking at specific "category", "subCategory", or "usage" pages
      * Performs a secondary index query on the provided index using the provided filter value
      * Returns the first 20 results, along with execution time
+     * An optional sort ("newest" or "cheapest") returns the first 20 in that order instead
      */
     @GetMapping("/category")
     public ResponseEntity<Map<String, Object>> getCategory(@RequestParam("idx") String index, 
-                                                          @RequestParam("filter_value") String filterValue) {
+                                                          @RequestParam("filter_value") String filterValue,
+                                                          @RequestParam(value = "sort", required = false) String sort) {
         try {
             // Get the results of the secondary index query
-            KeyValueServiceInterface.QueryResult queryResult = keyValueService.query(index, filterValue, 20);
+            KeyValueServiceInterface.QueryResult queryResult = sort == null || sort.isEmpty()
+                    ? keyValueService.query(index, filterValue, 20)
+                    : keyValueService.sortedQuery(index, filterValue, ProductSort.fromName(sort), 20);
 
             Map<String, Object> response = new HashMap<>();
             response.put("products", queryResult.getProducts());
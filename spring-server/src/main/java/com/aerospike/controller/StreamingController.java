@@ -0,0 +1,228 @@
+package com.aerospike.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.aerospike.model.NumericRange;
+import com.aerospike.model.Product;
+import com.aerospike.model.ProductSort;
+import com.aerospike.service.CatalogueMaintenance;
+import com.aerospike.service.KeyValueServiceInterface;
+import com.aerospike.service.PartitionScanner;
+import com.aerospike.service.ProductPublisher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * REST controller for streaming large query results as NDJSON (one product per line)
+ * Products are written to the response as they are read from the database, so memory use
+ * does not grow with the size of the result. A slow client blocks the writes, which in turn
+ * holds back the reads from the database.
+ * <p/>
+ * Query results are subscribed to as a {@link ProductPublisher}, asking for a batch of products
+ * at a time and only asking for the next once the batch is written, so no thread waits on the
+ * query between batches.
+ */
+@RestController
+@RequestMapping("/rest/v1/stream")
+public class StreamingController {
+
+    private static final MediaType NDJSON = MediaType.parseMediaType("application/x-ndjson");
+    private static final int BATCH_SIZE = 64;
+
+    private final KeyValueServiceInterface keyValueService;
+    private final ObjectMapper objectMapper;
+    private final PartitionScanner partitionScanner;
+    private final ExecutorService queryReaders = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Autowired
+    public StreamingController(KeyValueServiceInterface keyValueService, ObjectMapper objectMapper,
+            PartitionScanner partitionScanner) {
+        this.keyValueService = keyValueService;
+        this.objectMapper = objectMapper;
+        this.partitionScanner = partitionScanner;
+    }
+
+    /**
+     * Streams the results of a secondary index query on the provided index and filter value
+     * A count of 0 returns every matching product
+     */
+    @GetMapping("/category")
+    public ResponseEntity<ResponseBodyEmitter> streamCategory(@RequestParam("idx") String index,
+            @RequestParam("filter_value") String filterValue,
+            @RequestParam(value = "count", defaultValue = "0") int count) {
+        return ndjsonEmitter(new ProductPublisher(() -> keyValueService.openQuery(index, filterValue, count), queryReaders));
+    }
+
+    /**
+     * Streams the results of an advanced search with multiple filters
+     * A count of 0 returns every matching product
+     */
+    @GetMapping("/search")
+    public ResponseEntity<ResponseBodyEmitter> streamSearch(
+            @RequestParam(value = "q", required = false) String query,
+            @RequestParam(value = "category", required = false) String category,
+            @RequestParam(value = "articleType", required = false) String articleType,
+            @RequestParam(value = "usage", required = false) String usage,
+            @RequestParam(value = "brandName", required = false) String brandName,
+            @RequestParam(value = "minPrice", required = false) Long minPrice,
+            @RequestParam(value = "maxPrice", required = false) Long maxPrice,
+            @RequestParam(value = "minSalePrice", required = false) Long minSalePrice,
+            @RequestParam(value = "maxSalePrice", required = false) Long maxSalePrice,
+            @RequestParam(value = "addedSince", required = false) Long addedSince,
+            @RequestParam(value = "addedUntil", required = false) Long addedUntil,
+            @RequestParam(value = "count", defaultValue = "0") int count) {
+        List<NumericRange> ranges = NumericRange.of(minPrice, maxPrice, minSalePrice, maxSalePrice, addedSince, addedUntil);
+        return ndjsonEmitter(new ProductPublisher(
+                () -> keyValueService.openAdvancedSearch(category, articleType, usage, brandName, query, ranges, count), queryReaders));
+    }
+
+    /**
+     * Streams the whole catalogue, scanning the partitions on several threads. Unsorted, the
+     * products are written as they are read. Sorted, each partition range is read and sorted in
+     * memory, then the ranges are merged, so a count keeps this bounded.
+     * A count of 0 returns every product
+     */
+    @GetMapping("/products")
+    public ResponseEntity<StreamingResponseBody> streamProducts(
+            @RequestParam(value = "sort", required = false) String sort,
+            @RequestParam(value = "count", defaultValue = "0") int count) {
+        // Checked before the response starts, as a scan failing part way through cannot be reported
+        if (!(keyValueService instanceof CatalogueMaintenance maintenance)) {
+            return ResponseEntity.status(501).build();
+        }
+        if (sort == null || sort.isBlank()) {
+            return ndjson(consumer -> partitionScanner.forEach(maintenance::scanProductPartitions, count, consumer));
+        }
+        ProductSort productSort;
+        try {
+            productSort = ProductSort.fromName(sort);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        Comparator<Product> comparator = Comparator.comparingLong(productSort.getSortKey());
+        Comparator<Product> order = productSort.isDescending() ? comparator.reversed() : comparator;
+        return ndjson(consumer -> partitionScanner.forEachSorted(maintenance::scanProductPartitions, order, count, consumer));
+    }
+
+    /**
+     * Build a response which runs the query when the body is written, writing each product
+     * as a line of JSON
+     */
+    private ResponseEntity<StreamingResponseBody> ndjson(Consumer<Consumer<Product>> query) {
+        StreamingResponseBody body = outputStream -> {
+            try {
+                query.accept(product -> writeLine(outputStream, product));
+            } catch (UncheckedIOException e) {
+                // The client went away, stop the query and let the container deal with the connection
+                throw e.getCause();
+            }
+            outputStream.flush();
+        };
+        return ResponseEntity.ok().contentType(NDJSON).body(body);
+    }
+
+    /**
+     * Build a response which subscribes to the products and writes each as a line of JSON
+     */
+    private ResponseEntity<ResponseBodyEmitter> ndjsonEmitter(Flow.Publisher<Product> products) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter();
+        NdjsonSubscriber subscriber = new NdjsonSubscriber(emitter);
+        emitter.onTimeout(subscriber::cancel);
+        emitter.onError(error -> subscriber.cancel());
+        products.subscribe(subscriber);
+        return ResponseEntity.ok().contentType(NDJSON).body(emitter);
+    }
+
+    /**
+     * Writes the products to the response a batch at a time, asking for the next batch once
+     * the last one is written, so a slow client slows the query
+     */
+    private class NdjsonSubscriber implements Flow.Subscriber<Product> {
+        private final ResponseBodyEmitter emitter;
+        private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+        private volatile Flow.Subscription subscription;
+        private int inBatch = 0;
+
+        NdjsonSubscriber(ResponseBodyEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(BATCH_SIZE);
+        }
+
+        @Override
+        public void onNext(Product product) {
+            writeLine(batch, product);
+            if (++inBatch == BATCH_SIZE && send()) {
+                subscription.request(BATCH_SIZE);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            emitter.completeWithError(error);
+        }
+
+        @Override
+        public void onComplete() {
+            if (send()) {
+                emitter.complete();
+            }
+        }
+
+        /**
+         * Write the batch to the client, cancelling the query if the client went away
+         * @return Whether the batch was written
+         */
+        private boolean send() {
+            try {
+                if (batch.size() > 0) {
+                    emitter.send(batch.toByteArray(), NDJSON);
+                }
+                batch.reset();
+                inBatch = 0;
+                return true;
+            } catch (IOException e) {
+                cancel();
+                emitter.completeWithError(e);
+                return false;
+            }
+        }
+
+        void cancel() {
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+    }
+
+    private void writeLine(OutputStream outputStream, Product product) {
+        try {
+            outputStream.write(objectMapper.writeValueAsBytes(product));
+            outputStream.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.aerospike.model;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Converts bin values read from the database to field types, as MapUtil does, for the mappers
+ */
+final class Bins {
+
+    private Bins() {
+    }
+
+    /**
+     * @return The value if it is a string, otherwise null
+     */
+    static String string(Object value) {
+        return value instanceof String string ? string : null;
+    }
+
+    /**
+     * @return The value if it is a number, otherwise 0
+     */
+    static long number(Object value) {
+        return value instanceof Number number ? number.longValue() : 0L;
+    }
+
+    /**
+     * @return The value if it is a list, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    static <T> List<T> list(Object value) {
+        return value instanceof List ? (List<T>) value : null;
+    }
+
+    /**
+     * @return The value if it is a map, otherwise null
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> Map<K, V> map(Object value) {
+        return value instanceof Map ? (Map<K, V>) value : null;
+    }
+
+    /**
+     * @return The capacity for a HashMap to hold this many bins without being resized
+     */
+    static int capacity(int bins) {
+        return (int) Math.ceil(bins / 0.75);
+    }
+}
@@ -1,12 +1,10 @@
 package com.aerospike.model;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
-import com.aerospike.MapUtil;
 import com.aerospike.client.Value;
 
 public class Cart {
@@ -68,25 +66,10 @@ public class Cart {
         return "Cart [items=" + items + "]";
     }
     public static Cart fromMap(Map<String, Object> map) {
-        Cart cart = new Cart();
-        Map<String, Map<String, Object>> items = (Map<String, Map<String, Object>>) map.get("items");
-        if (items != null) {
-            items.entrySet().forEach(thisItem -> {
-                CartItem cartItem = CartItem.fromMap(thisItem.getValue());
-                cart.items.put(cartItem.getProductId(), cartItem);
-            });
-        }
-        return cart;
+        return CartMapper.INSTANCE.fromMap(map, null, 0);
     }
     
     public static Map<String, Value> toMap(Cart cart) {
-        List<Map<String, Value>> items = new ArrayList<>();
-        for (CartItem item : cart.getItems()) {
-            items.add(CartItem.toMap(item));
-        }
-        return MapUtil.buildMap()
-                .add("items", items)
-                .done();
-        
+        return CartMapper.INSTANCE.toMap(cart);
     }
 }
@@ -2,7 +2,6 @@ package com.aerospike.model;
 
 import java.util.Map;
 
-import com.aerospike.MapUtil;
 import com.aerospike.client.Value;
 
 public class CartItem {
@@ -71,29 +70,10 @@ public class CartItem {
     }
 
     public static Map<String, Value> toMap(CartItem item) {
-        if (item == null) {
-            return null;
-        }
-        return MapUtil.buildMap()
-                .add("productId", item.getProductId())
-                .add("name", item.getName())
-                .add("price", item.getPrice())
-                .add("brandName", item.getBrandName())
-                .add("quantity", item.getQuantity())
-                .add("image", item.getImage())
-                .add("userId", item.getUserId())
-                .done();
+        return CartItemMapper.INSTANCE.toMap(item);
     }
     
     public static CartItem fromMap(Map<String, Object> map) {
-        CartItem item = new CartItem();
-        item.brandName = MapUtil.asString(map, "brandName");
-        item.name = MapUtil.asString(map, "name");
-        item.price = MapUtil.asLong(map, "price");
-        item.productId = MapUtil.asString(map, "productId");
-        item.quantity = MapUtil.asInt(map, "quantity");
-        item.image = MapUtil.asString(map, "image");
-        item.userId = MapUtil.asString(map, "userId");
-        return item;
+        return CartItemMapper.INSTANCE.fromMap(map, null, 0);
     }
 }
@@ -0,0 +1,53 @@
+package com.aerospike.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.aerospike.RecordMapper;
+import com.aerospike.client.Key;
+import com.aerospike.client.Value;
+
+/**
+ * Maps cart items to and from their records, written out field by field rather than through
+ * MapUtil. Cart items are always read whole, so each field is a typed lookup, and the item is
+ * built with its constructor rather than field by field.
+ */
+public class CartItemMapper implements RecordMapper<CartItem> {
+
+    public static final CartItemMapper INSTANCE = new CartItemMapper();
+
+    private static final int BIN_COUNT = 7;
+
+    @Override
+    public CartItem fromMap(Map<String, Object> map, Key recordKey, int generation) {
+        return new CartItem(
+                Bins.string(map.get("productId")),
+                Bins.string(map.get("name")),
+                Bins.number(map.get("price")),
+                Bins.string(map.get("brandName")),
+                (int) Bins.number(map.get("quantity")),
+                Bins.string(map.get("image")),
+                Bins.string(map.get("userId")));
+    }
+
+    @Override
+    public Map<String, Value> toMap(CartItem item) {
+        if (item == null) {
+            return null;
+        }
+        Map<String, Value> map = new HashMap<>(Bins.capacity(BIN_COUNT));
+        map.put("productId", Value.get(item.getProductId()));
+        map.put("name", Value.get(item.getName()));
+        map.put("price", Value.get(item.getPrice()));
+        map.put("brandName", Value.get(item.getBrandName()));
+        map.put("quantity", Value.get(item.getQuantity()));
+        map.put("image", Value.get(item.getImage()));
+        map.put("userId", Value.get(item.getUserId()));
+        return map;
+    }
+
+    @Override
+    public Object id(CartItem item) {
+        return item.getUserId();
+    }
+}
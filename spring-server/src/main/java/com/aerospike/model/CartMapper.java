@@ -0,0 +1,47 @@
+package com.aerospike.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.aerospike.RecordMapper;
+import com.aerospike.client.Key;
+import com.aerospike.client.Value;
+
+/**
+ * Maps carts to and from their records, mapping each item with {@link CartItemMapper}
+ */
+public class CartMapper implements RecordMapper<Cart> {
+
+    public static final CartMapper INSTANCE = new CartMapper();
+
+    @Override
+    public Cart fromMap(Map<String, Object> map, Key recordKey, int generation) {
+        Cart cart = new Cart();
+        Map<String, Map<String, Object>> items = Bins.map(map.get("items"));
+        if (items != null) {
+            for (Map<String, Object> item : items.values()) {
+                cart.add(CartItemMapper.INSTANCE.fromMap(item, null, 0));
+            }
+        }
+        return cart;
+    }
+
+    @Override
+    public Map<String, Value> toMap(Cart cart) {
+        List<CartItem> cartItems = cart.getItems();
+        List<Map<String, Value>> items = new ArrayList<>(cartItems.size());
+        for (CartItem item : cartItems) {
+            items.add(CartItemMapper.INSTANCE.toMap(item));
+        }
+        Map<String, Value> map = new HashMap<>(Bins.capacity(1));
+        map.put("items", Value.get(items));
+        return map;
+    }
+
+    @Override
+    public Object id(Cart cart) {
+        return null;
+    }
+}
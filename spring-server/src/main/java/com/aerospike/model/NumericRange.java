@@ -0,0 +1,101 @@
+package com.aerospike.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An inclusive range filter on one of the numeric product bins: price, salePrice or added.
+ * Either end can be left open.
+ */
+public class NumericRange {
+    public static final List<String> BINS = List.of("price", "salePrice", "added");
+
+    private final String binName;
+    private final Long min;
+    private final Long max;
+
+    public NumericRange(String binName, Long min, Long max) {
+        if (!BINS.contains(binName)) {
+            throw new IllegalArgumentException("Cannot filter on a range of bin " + binName);
+        }
+        this.binName = binName;
+        this.min = min;
+        this.max = max;
+    }
+
+    public String getBinName() {
+        return binName;
+    }
+
+    /**
+     * @return The lowest value included, or null if there is no lower bound
+     */
+    public Long getMin() {
+        return min;
+    }
+
+    /**
+     * @return The highest value included, or null if there is no upper bound
+     */
+    public Long getMax() {
+        return max;
+    }
+
+    public long getMinOrLowest() {
+        return min == null ? Long.MIN_VALUE : min;
+    }
+
+    public long getMaxOrHighest() {
+        return max == null ? Long.MAX_VALUE : max;
+    }
+
+    public boolean matches(long value) {
+        return value >= getMinOrLowest() && value <= getMaxOrHighest();
+    }
+
+    public boolean matches(Product product) {
+        return matches(valueOf(product, binName));
+    }
+
+    /**
+     * The value of a numeric bin of the product
+     */
+    public static long valueOf(Product product, String binName) {
+        switch (binName) {
+        case "price":
+            return product.getPrice();
+        case "salePrice":
+            return product.getSalePrice();
+        case "added":
+            return product.getAdded();
+        default:
+            throw new IllegalArgumentException("Unknown numeric bin " + binName);
+        }
+    }
+
+    /**
+     * Add a range on the bin to the list if either end is set
+     */
+    public static void addIfBounded(List<NumericRange> ranges, String binName, Long min, Long max) {
+        if (min != null || max != null) {
+            ranges.add(new NumericRange(binName, min, max));
+        }
+    }
+
+    /**
+     * Build the ranges from the optional bounds of each numeric bin. Unbounded bins are left out.
+     */
+    public static List<NumericRange> of(Long minPrice, Long maxPrice, Long minSalePrice, Long maxSalePrice,
+            Long addedSince, Long addedUntil) {
+        List<NumericRange> ranges = new ArrayList<>();
+        addIfBounded(ranges, "price", minPrice, maxPrice);
+        addIfBounded(ranges, "salePrice", minSalePrice, maxSalePrice);
+        addIfBounded(ranges, "added", addedSince, addedUntil);
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "NumericRange [binName=" + binName + ", min=" + min + ", max=" + max + "]";
+    }
+}
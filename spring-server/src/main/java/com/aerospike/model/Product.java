@@ -3,7 +3,6 @@ package com.aerospike.model;
 import java.util.List;
 import java.util.Map;
 
-import com.aerospike.MapUtil;
 import com.aerospike.client.Value;
 
 public class Product {
@@ -158,56 +157,11 @@ public class Product {
     }
     
     public static Product fromMap(Map<String, Object> map) {
-        Product result = new Product();
-        result.setBrandName(MapUtil.asString(map, "brandName"));
-        result.setImages(MapUtil.asMap(map, "images"));
-        result.setSubCategory(MapUtil.asString(map, "subCategory"));
-        result.setGender(MapUtil.asString(map, "gender"));
-        result.setSalePrice(MapUtil.asLong(map, "salePrice"));
-        result.setAdded(MapUtil.asLong(map, "added"));
-        result.setUsage(MapUtil.asString(map, "usage"));
-        result.setDisplayCat(MapUtil.asList(map, "displayCat"));
-        result.setAgeGroup(MapUtil.asString(map, "ageGroup"));
-        result.setColors(MapUtil.asList(map, "colors"));
-        result.setDescriptors(MapUtil.asMap(map, "descriptors"));
-        result.setArticleType(MapUtil.asString(map, "articleType"));
-        result.setPrice(MapUtil.asLong(map, "price"));
-        result.setName(MapUtil.asString(map, "name"));
-        result.setOptions(MapUtil.asList(map, "options"));
-        result.setSeason(MapUtil.asString(map, "season"));
-        result.setId(MapUtil.asString(map, "id"));
-        result.setArticleAttr(MapUtil.asMap(map, "articleAttr"));
-        result.setVariantName(MapUtil.asString(map, "variantName"));
-        result.setCategory(MapUtil.asString(map, "category"));
-        return result;
+        return ProductMapper.INSTANCE.fromMap(map, null, 0);
     }
     
     public static Map<String, Value> toMap(Product product) {
-        if (product == null) {
-            return null;
-        }
-        return MapUtil.buildMap()
-                .add("brandName", product.getBrandName())
-                .add("images", product.getImages())
-                .add("subCategory", product.getSubCategory())
-                .add("gender", product.getGender())
-                .add("salePrice", product.getSalePrice())
-                .add("added", product.getAdded())
-                .add("usage", product.getUsage())
-                .add("displayCat", product.getDisplayCat())
-                .add("ageGroup", product.getAgeGroup())
-                .add("colors", product.getColors())
-                .add("descriptors", product.getDescriptors())
-                .add("articleType", product.getArticleType())
-                .add("price", product.getPrice())
-                .add("name", product.getName())
-                .add("options", product.getOptions())
-                .add("season", product.getSeason())
-                .add("id", product.getId())
-                .add("articleAttr", product.getArticleAttr())
-                .add("variantName", product.getVariantName())
-                .add("category", product.getCategory())
-                .done();
+        return ProductMapper.INSTANCE.toMap(product);
     }
 
 }
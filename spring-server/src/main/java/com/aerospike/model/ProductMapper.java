@@ -0,0 +1,121 @@
+package com.aerospike.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.aerospike.RecordMapper;
+import com.aerospike.client.Key;
+import com.aerospike.client.Value;
+
+/**
+ * Maps products to and from their records, written out field by field rather than through
+ * MapUtil.
+ * <p/>
+ * When a query only read a few bins, reading walks those bins once and switches on the bin
+ * name, rather than looking up all twenty fields by name in a map which mostly does not have
+ * them. A whole record is read with a typed lookup per field, which is quicker when most of the
+ * bins are there. Missing bins and bins of the wrong type leave the field unset, as MapUtil
+ * does. Writing puts each field straight into a map sized for all the bins, so it is never
+ * rehashed.
+ */
+public class ProductMapper implements RecordMapper<Product> {
+
+    public static final ProductMapper INSTANCE = new ProductMapper();
+
+    private static final int BIN_COUNT = 20;
+
+    @Override
+    public Product fromMap(Map<String, Object> map, Key recordKey, int generation) {
+        Product product = new Product();
+        if (map.size() * 2 < BIN_COUNT) {
+            // Only a few bins were read, so only look at those
+            for (Map.Entry<String, Object> bin : map.entrySet()) {
+                setBin(product, bin.getKey(), bin.getValue());
+            }
+            return product;
+        }
+        product.setBrandName(Bins.string(map.get("brandName")));
+        product.setImages(Bins.map(map.get("images")));
+        product.setSubCategory(Bins.string(map.get("subCategory")));
+        product.setGender(Bins.string(map.get("gender")));
+        product.setSalePrice(Bins.number(map.get("salePrice")));
+        product.setAdded(Bins.number(map.get("added")));
+        product.setUsage(Bins.string(map.get("usage")));
+        product.setDisplayCat(Bins.list(map.get("displayCat")));
+        product.setAgeGroup(Bins.string(map.get("ageGroup")));
+        product.setColors(Bins.list(map.get("colors")));
+        product.setDescriptors(Bins.map(map.get("descriptors")));
+        product.setArticleType(Bins.string(map.get("articleType")));
+        product.setPrice(Bins.number(map.get("price")));
+        product.setName(Bins.string(map.get("name")));
+        product.setOptions(Bins.list(map.get("options")));
+        product.setSeason(Bins.string(map.get("season")));
+        product.setId(Bins.string(map.get("id")));
+        product.setArticleAttr(Bins.map(map.get("articleAttr")));
+        product.setVariantName(Bins.string(map.get("variantName")));
+        product.setCategory(Bins.string(map.get("category")));
+        return product;
+    }
+
+    private static void setBin(Product product, String name, Object value) {
+        switch (name) {
+            case "brandName" -> product.setBrandName(Bins.string(value));
+            case "images" -> product.setImages(Bins.map(value));
+            case "subCategory" -> product.setSubCategory(Bins.string(value));
+            case "gender" -> product.setGender(Bins.string(value));
+            case "salePrice" -> product.setSalePrice(Bins.number(value));
+            case "added" -> product.setAdded(Bins.number(value));
+            case "usage" -> product.setUsage(Bins.string(value));
+            case "displayCat" -> product.setDisplayCat(Bins.list(value));
+            case "ageGroup" -> product.setAgeGroup(Bins.string(value));
+            case "colors" -> product.setColors(Bins.list(value));
+            case "descriptors" -> product.setDescriptors(Bins.map(value));
+            case "articleType" -> product.setArticleType(Bins.string(value));
+            case "price" -> product.setPrice(Bins.number(value));
+            case "name" -> product.setName(Bins.string(value));
+            case "options" -> product.setOptions(Bins.list(value));
+            case "season" -> product.setSeason(Bins.string(value));
+            case "id" -> product.setId(Bins.string(value));
+            case "articleAttr" -> product.setArticleAttr(Bins.map(value));
+            case "variantName" -> product.setVariantName(Bins.string(value));
+            case "category" -> product.setCategory(Bins.string(value));
+            default -> {
+                // Not a product field
+            }
+        }
+    }
+
+    @Override
+    public Map<String, Value> toMap(Product product) {
+        if (product == null) {
+            return null;
+        }
+        Map<String, Value> map = new HashMap<>(Bins.capacity(BIN_COUNT));
+        map.put("brandName", Value.get(product.getBrandName()));
+        map.put("images", Value.get(product.getImages()));
+        map.put("subCategory", Value.get(product.getSubCategory()));
+        map.put("gender", Value.get(product.getGender()));
+        map.put("salePrice", Value.get(product.getSalePrice()));
+        map.put("added", Value.get(product.getAdded()));
+        map.put("usage", Value.get(product.getUsage()));
+        map.put("displayCat", Value.get(product.getDisplayCat()));
+        map.put("ageGroup", Value.get(product.getAgeGroup()));
+        map.put("colors", Value.get(product.getColors()));
+        map.put("descriptors", Value.get(product.getDescriptors()));
+        map.put("articleType", Value.get(product.getArticleType()));
+        map.put("price", Value.get(product.getPrice()));
+        map.put("name", Value.get(product.getName()));
+        map.put("options", Value.get(product.getOptions()));
+        map.put("season", Value.get(product.getSeason()));
+        map.put("id", Value.get(product.getId()));
+        map.put("articleAttr", Value.get(product.getArticleAttr()));
+        map.put("variantName", Value.get(product.getVariantName()));
+        map.put("category", Value.get(product.getCategory()));
+        return map;
+    }
+
+    @Override
+    public Object id(Product product) {
+        return product.getId();
+    }
+}
@@ -0,0 +1,149 @@
+package com.aerospike.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import com.aerospike.client.Record;
+
+/**
+ * Immutable snapshot of the product metadata (categories, article types, usage and brand
+ * names), with the lists already merged from the metadata shards and filtered for display.
+ * <p/>
+ * The snapshot remembers the version of the shards it was built from, which is the generation
+ * of each shard record in turn. Any write to a shard changes it, so the snapshot only needs to
+ * be rebuilt when the version read from the shard headers is different. A shard which is
+ * deleted and written again can come back at the generation it had, so the generations are
+ * compared shard by shard rather than summed, which would let one shard's change cancel out
+ * another's.
+ */
+public class ProductMetadata {
+    /**
+     * Snapshot used when there are no metadata records. It has no shard generations, so it
+     * never matches the version of the shards.
+     */
+    public static final ProductMetadata EMPTY = new ProductMetadata(List.of(), List.of(), List.of(), List.of(), new int[0]);
+
+    private final List<String> categories;
+    private final List<String> articleTypes;
+    private final List<String> usage;
+    private final List<String> brandNames;
+    private final int[] version;
+
+    public ProductMetadata(List<String> categories, List<String> articleTypes, List<String> usage,
+            List<String> brandNames, int[] version) {
+        this.categories = categories;
+        this.articleTypes = articleTypes;
+        this.usage = usage;
+        this.brandNames = brandNames;
+        this.version = version;
+    }
+
+    public List<String> getCategories() {
+        return categories;
+    }
+
+    public List<String> getArticleTypes() {
+        return articleTypes;
+    }
+
+    public List<String> getUsage() {
+        return usage;
+    }
+
+    public List<String> getBrandNames() {
+        return brandNames;
+    }
+
+    public int[] getVersion() {
+        return version.clone();
+    }
+
+    /**
+     * Whether this snapshot was built from shards with this version
+     */
+    public boolean hasVersion(int[] version) {
+        return Arrays.equals(this.version, version);
+    }
+
+    @Override
+    public String toString() {
+        return "ProductMetadata [categories=" + categories + ", articleTypes=" + articleTypes + ", usage=" + usage
+                + ", brandNames=" + brandNames + ", version=" + Arrays.toString(version) + "]";
+    }
+
+    /**
+     * The version of the shards: the generation of each shard record, or 0 for a shard which
+     * does not exist
+     * @param shards The shard records, or their headers, in shard order
+     */
+    public static int[] versionOf(Record[] shards) {
+        int[] version = new int[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            version[i] = shards[i] == null ? 0 : shards[i].generation;
+        }
+        return version;
+    }
+
+    /**
+     * Whether none of the shards with this version exist
+     */
+    public static boolean isMissing(int[] version) {
+        return Arrays.stream(version).allMatch(generation -> generation == 0);
+    }
+
+    /**
+     * Build the snapshot from the metadata shards
+     * @param shards The shard records in shard order, null for a shard which does not exist
+     */
+    public static ProductMetadata fromShards(Record[] shards) {
+        List<Map<String, Object>> bins = new ArrayList<>(shards.length);
+        for (Record shard : shards) {
+            if (shard != null) {
+                bins.add(shard.bins);
+            }
+        }
+        return new ProductMetadata(
+                categoryNames(merge(bins, "categories")),
+                displayValues(merge(bins, "articleTypes")),
+                displayValues(merge(bins, "usage")),
+                displayValues(merge(bins, "brandNames")),
+                versionOf(shards));
+    }
+
+    /**
+     * Combine the list in this bin from every shard into one sorted list
+     */
+    @SuppressWarnings("unchecked")
+    private static List<String> merge(List<Map<String, Object>> shards, String bin) {
+        Set<String> values = new TreeSet<>();
+        for (Map<String, Object> shard : shards) {
+            List<String> shardValues = (List<String>) shard.get(bin);
+            if (shardValues != null) {
+                values.addAll(shardValues);
+            }
+        }
+        return new ArrayList<>(values);
+    }
+
+    /**
+     * Category names are kept in the range ["A", "Z")
+     */
+    private static List<String> categoryNames(List<String> categories) {
+        return categories.stream()
+                .filter(cat -> cat.compareTo("A") >= 0 && cat.compareTo("Z") < 0)
+                .toList();
+    }
+
+    /**
+     * Drop the empty and "NA" placeholder values which are loaded for products without one
+     */
+    private static List<String> displayValues(List<String> values) {
+        return values.stream()
+                .filter(value -> !value.isEmpty() && !value.equals("NA"))
+                .toList();
+    }
+}
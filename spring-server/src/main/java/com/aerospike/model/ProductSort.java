@@ -0,0 +1,44 @@
+package com.aerospike.model;
+
+import java.util.function.ToLongFunction;
+
+/**
+ * Orders in which a product listing can be sorted
+ */
+public enum ProductSort {
+    NEWEST("added", Product::getAdded, true),
+    CHEAPEST("salePrice", Product::getSalePrice, false);
+
+    private final String binName;
+    private final ToLongFunction<Product> sortKey;
+    private final boolean descending;
+
+    ProductSort(String binName, ToLongFunction<Product> sortKey, boolean descending) {
+        this.binName = binName;
+        this.sortKey = sortKey;
+        this.descending = descending;
+    }
+
+    /**
+     * @return The bin holding the sort key, for sorting records before they are mapped to products
+     */
+    public String getBinName() {
+        return binName;
+    }
+
+    public ToLongFunction<Product> getSortKey() {
+        return sortKey;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * Find the sort by name, ignoring case, for example "newest"
+     * @throws IllegalArgumentException if there is no such sort
+     */
+    public static ProductSort fromName(String name) {
+        return ProductSort.valueOf(name.trim().toUpperCase());
+    }
+}
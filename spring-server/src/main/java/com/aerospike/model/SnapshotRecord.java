@@ -0,0 +1,50 @@
+package com.aerospike.model;
+
+import java.util.Map;
+
+/**
+ * One record of a catalogue snapshot: which data it is, its key digest, its user key if it was
+ * stored with the record, and its bins
+ */
+public class SnapshotRecord {
+
+    /**
+     * The data a record belongs to. Snapshots hold these rather than set names, so a snapshot
+     * can be imported by any implementation.
+     */
+    public enum Kind {
+        PRODUCT,
+        METADATA
+    }
+
+    private final Kind kind;
+    private final byte[] digest;
+    private final Object userKey;
+    private final Map<String, Object> bins;
+
+    public SnapshotRecord(Kind kind, byte[] digest, Object userKey, Map<String, Object> bins) {
+        this.kind = kind;
+        this.digest = digest;
+        this.userKey = userKey;
+        this.bins = bins;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public byte[] getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return The user key, or null if it was not stored with the record
+     */
+    public Object getUserKey() {
+        return userKey;
+    }
+
+    public Map<String, Object> getBins() {
+        return bins;
+    }
+}
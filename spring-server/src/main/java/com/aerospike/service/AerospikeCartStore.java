@@ -0,0 +1,96 @@
+package com.aerospike.service;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import com.aerospike.client.AerospikeClient;
+import com.aerospike.client.Bin;
+import com.aerospike.client.Key;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.CTX;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.cdt.MapWriteFlags;
+import com.aerospike.client.policy.GenerationPolicy;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.RecordExistsAction;
+import com.aerospike.client.policy.WritePolicy;
+import com.aerospike.model.CartItem;
+
+/**
+ * Cart records held in Aerospike, with the items in a key ordered map bin keyed by product id.
+ * Each write is a single operate call of map operations.
+ */
+public class AerospikeCartStore implements CartStore {
+
+    private static final String ITEMS_BIN = "items";
+
+    private final AerospikeClient aerospikeClient;
+    private final String namespace;
+    private final String setName;
+    private final Supplier<Policy> readPolicy;
+    private final Supplier<WritePolicy> writePolicy;
+    private final MapPolicy mapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
+
+    public AerospikeCartStore(AerospikeClient aerospikeClient, String namespace, String setName,
+            Supplier<Policy> readPolicy, Supplier<WritePolicy> writePolicy) {
+        this.aerospikeClient = aerospikeClient;
+        this.namespace = namespace;
+        this.setName = setName;
+        this.readPolicy = readPolicy;
+        this.writePolicy = writePolicy;
+    }
+
+    private Key key(String userId) {
+        return new Key(namespace, setName, userId);
+    }
+
+    @Override
+    public Record get(String userId) {
+        return aerospikeClient.get(readPolicy.get(), key(userId));
+    }
+
+    @Override
+    public Record getHeader(String userId) {
+        return aerospikeClient.get(readPolicy.get(), key(userId), CREATED_AT_BIN);
+    }
+
+    @Override
+    public void write(String userId, int generation, List<CartChange> changes) {
+        WritePolicy policy = writePolicy.get();
+        if (generation == CREATE_ONLY) {
+            policy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
+        }
+        else if (generation > 0) {
+            policy.generation = generation;
+            policy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
+        }
+        boolean creates = generation == CREATE_ONLY;
+        Operation[] ops = new Operation[changes.size() + (creates ? 1 : 0)];
+        for (int i = 0; i < changes.size(); i++) {
+            ops[i] = toOperation(changes.get(i));
+        }
+        if (creates) {
+            ops[changes.size()] = Operation.put(new Bin(CREATED_AT_BIN, System.currentTimeMillis()));
+        }
+        aerospikeClient.operate(policy, key(userId), ops);
+    }
+
+    private Operation toOperation(CartChange change) {
+        Value productId = Value.get(change.getProductId());
+        return switch (change.getKind()) {
+            case ADD_QUANTITY -> MapOperation.increment(mapPolicy, ITEMS_BIN, Value.get("quantity"),
+                    Value.get(change.getQuantity()), CTX.mapKey(productId));
+            case PUT_ITEM -> MapOperation.put(mapPolicy, ITEMS_BIN, productId,
+                    Value.get(CartItem.toMap(change.getItem())));
+            case SET_QUANTITY -> MapOperation.put(mapPolicy, ITEMS_BIN, Value.get("quantity"),
+                    Value.get(change.getQuantity()), CTX.mapKey(productId));
+            case REMOVE_ITEM -> MapOperation.removeByKey(ITEMS_BIN, productId, MapReturnType.NONE);
+            case CLEAR -> MapOperation.clear(ITEMS_BIN);
+        };
+    }
+}
@@ -0,0 +1,137 @@
+package com.aerospike.service;
+
+import java.io.IOException;
+import java.time.Duration;
+
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.CommitLevel;
+import com.aerospike.client.policy.WritePolicy;
+import com.aerospike.policy.Behavior;
+import com.aerospike.policy.Behavior.CommandType;
+
+/**
+ * The write settings used by catalogue loads, kept apart from those of shopper traffic.
+ * <p/>
+ * Loads write many records which are only read once the load has finished, so they can trade
+ * durability and latency for throughput: writes are compressed, do not store the key (the
+ * product id is a bin), get longer timeouts, and only wait for the master to commit. The
+ * product writes, which can be repeated safely, are also retried more.
+ * <p/>
+ * The settings are a named fluent client Behavior, derived from the default behavior. If a
+ * behaviors file is configured it is watched by the fluent client, and an entry there with the
+ * same name replaces the built in settings, so they can be tuned during a load without a
+ * restart. The behavior is looked up again for each write so the latest settings are used.
+ * Behaviors have no commit level, so that is taken from configuration instead.
+ * <p/>
+ * The settings only apply to writes made on a thread which has started a bulk load.
+ */
+public class BulkLoadBehavior {
+
+    private final String name;
+    private final CommitLevel commitLevel;
+    private final String behaviorsFile;
+    private final ThreadLocal<Boolean> active = new ThreadLocal<>();
+
+    /**
+     * @param name Name of the behavior, as used in the behaviors file
+     * @param commitLevel How many copies a write waits to be committed to
+     * @param behaviorsFile The fluent client behaviors YAML file to watch, or null for none
+     */
+    public BulkLoadBehavior(String name, CommitLevel commitLevel, String behaviorsFile) {
+        this.name = name;
+        this.commitLevel = commitLevel;
+        this.behaviorsFile = behaviorsFile == null || behaviorsFile.isBlank() ? null : behaviorsFile;
+
+        Behavior.DEFAULT.deriveWithChanges(name, builder -> builder
+                .forAllOperations()
+                    .useCompression(true)
+                    .sendKey(false)
+                    .abandonCallAfter(Duration.ofSeconds(10))
+                    .waitForCallToComplete(Duration.ofSeconds(3))
+                .done()
+                .onRetryableWrites()
+                    .maximumNumberOfCallAttempts(5)
+                    .delayBetweenRetries(Duration.ofMillis(50))
+                .done()
+                .onBatchWrites()
+                    .maximumNumberOfCallAttempts(3)
+                    .delayBetweenRetries(Duration.ofMillis(50))
+                .done());
+
+        if (this.behaviorsFile != null) {
+            try {
+                Behavior.startMonitoring(this.behaviorsFile);
+            } catch (IOException e) {
+                System.err.println("Failed to watch behaviors file " + this.behaviorsFile
+                        + ", using the built in bulk load settings: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Mark this thread as running a bulk load, until {@link #end()}
+     */
+    public void begin() {
+        active.set(Boolean.TRUE);
+    }
+
+    public void end() {
+        active.remove();
+    }
+
+    /**
+     * @return Whether this thread is running a bulk load
+     */
+    public boolean isActive() {
+        return active.get() != null;
+    }
+
+    /**
+     * @return The current bulk load behavior, which is replaced when the behaviors file is reloaded
+     */
+    public Behavior getBehavior() {
+        return Behavior.getBehavior(name);
+    }
+
+    /**
+     * A policy for a single bulk load write, from the current behavior. It retries, so it is
+     * only for writes which can be repeated, such as a product put.
+     */
+    public WritePolicy writePolicy() {
+        WritePolicy policy = getBehavior().getMutablePolicy(CommandType.WRITE_RETRYABLE);
+        policy.commitLevel = commitLevel;
+        return policy;
+    }
+
+    /**
+     * A policy for a batch of bulk load writes, from the current behavior. It retries, so it is
+     * only for writes which can be repeated.
+     */
+    public BatchPolicy batchPolicy() {
+        return getBehavior().getMutablePolicy(CommandType.BATCH_WRITE);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public CommitLevel getCommitLevel() {
+        return commitLevel;
+    }
+
+    /**
+     * @return The behaviors file being watched, or null
+     */
+    public String getBehaviorsFile() {
+        return behaviorsFile;
+    }
+
+    /**
+     * Stop watching the behaviors file
+     */
+    public void close() {
+        if (behaviorsFile != null) {
+            Behavior.stopMonitoring();
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.aerospike.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aerospike.model.Cart;
+import com.aerospike.model.CartItem;
+
+/**
+ * Bounded, per-instance cache of deserialized carts, keyed by user id.
+ * <p/>
+ * Each entry remembers the generation of the cart record it was built from, and when that
+ * record was created. Callers validate an entry with a read of the cart record which skips the
+ * items, and only use the cached cart if both still match, so a cart changed by any other
+ * instance is never served stale. The creation time is needed because a cart which is deleted
+ * and created again starts again from generation 1.
+ * The least recently used entries are evicted once {@code maxEntries} is reached, and a
+ * {@code maxEntries} of 0 or less disables the cache.
+ * <p/>
+ * Carts are copied into and out of the cache, so callers are free to change the cart they get.
+ */
+public class CartCache {
+
+    /**
+     * A cached cart together with the generation and creation time of the record it was read from
+     */
+    private static class Entry {
+        private final Cart cart;
+        private final int generation;
+        private final long createdAt;
+
+        Entry(Cart cart, int generation, long createdAt) {
+            this.cart = cart;
+            this.generation = generation;
+            this.createdAt = createdAt;
+        }
+
+        public Cart getCart() {
+            return cart;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final Map<String, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CartCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > CartCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * Whether there is a cart cached for this user, so it is worth reading the record header
+     * to validate it
+     */
+    public synchronized boolean contains(String userId) {
+        return isEnabled() && entries.containsKey(userId);
+    }
+
+    /**
+     * Return a copy of the cached cart if it was built from a record with the passed generation
+     * and creation time. Any other entry is stale and is removed.
+     */
+    public synchronized Optional<Cart> validate(String userId, int generation, long createdAt) {
+        Entry entry = isEnabled() ? entries.get(userId) : null;
+        if (entry != null && entry.getGeneration() == generation && entry.getCreatedAt() == createdAt) {
+            hits.increment();
+            return Optional.of(copy(entry.getCart()));
+        }
+        if (entry != null) {
+            entries.remove(userId);
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Cache a copy of the cart read from a record with the passed generation and creation time
+     */
+    public synchronized void put(String userId, int generation, long createdAt, Cart cart) {
+        if (isEnabled()) {
+            entries.put(userId, new Entry(copy(cart), generation, createdAt));
+        }
+    }
+
+    public synchronized void invalidate(String userId) {
+        entries.remove(userId);
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static Cart copy(Cart cart) {
+        Cart copy = new Cart();
+        for (CartItem item : cart.getItems()) {
+            copy.add(new CartItem(item.getProductId(), item.getName(), item.getPrice(), item.getBrandName(),
+                    item.getQuantity(), item.getImage(), item.getUserId()));
+        }
+        return copy;
+    }
+}
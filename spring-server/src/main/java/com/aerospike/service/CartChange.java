@@ -0,0 +1,75 @@
+package com.aerospike.service;
+
+import com.aerospike.model.CartItem;
+
+/**
+ * A single change to the items in a cart record, applied by a {@link CartStore}
+ */
+public class CartChange {
+
+    public enum Kind {
+        /** Add to the quantity of an item already in the cart */
+        ADD_QUANTITY,
+        /** Put a whole item into the cart */
+        PUT_ITEM,
+        /** Set the quantity of an item already in the cart */
+        SET_QUANTITY,
+        /** Remove an item from the cart */
+        REMOVE_ITEM,
+        /** Remove all the items from the cart */
+        CLEAR
+    }
+
+    private final Kind kind;
+    private final String productId;
+    private final int quantity;
+    private final CartItem item;
+
+    private CartChange(Kind kind, String productId, int quantity, CartItem item) {
+        this.kind = kind;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.item = item;
+    }
+
+    public static CartChange addQuantity(String productId, int quantity) {
+        return new CartChange(Kind.ADD_QUANTITY, productId, quantity, null);
+    }
+
+    public static CartChange putItem(CartItem item) {
+        return new CartChange(Kind.PUT_ITEM, item.getProductId(), item.getQuantity(), item);
+    }
+
+    public static CartChange setQuantity(String productId, int quantity) {
+        return new CartChange(Kind.SET_QUANTITY, productId, quantity, null);
+    }
+
+    public static CartChange removeItem(String productId) {
+        return new CartChange(Kind.REMOVE_ITEM, productId, 0, null);
+    }
+
+    public static CartChange clear() {
+        return new CartChange(Kind.CLEAR, null, 0, null);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public String getProductId() {
+        return productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public CartItem getItem() {
+        return item;
+    }
+
+    @Override
+    public String toString() {
+        return "CartChange [kind=" + kind + ", productId=" + productId + ", quantity=" + quantity + "]";
+    }
+}
@@ -0,0 +1,261 @@
+package com.aerospike.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Log;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.exception.GenerationException;
+import com.aerospike.model.Cart;
+import com.aerospike.model.CartItem;
+import com.aerospike.model.Product;
+
+/**
+ * The shopping cart operations, written against a {@link CartStore} so the read / modify /
+ * generation-checked write loop is the same code whichever store holds the carts.
+ * <p/>
+ * Adding to a cart reads the cart, works out the changes from what is in it, and writes them
+ * guarded by the generation that was read (or as a create-only write if there was no cart).
+ * If another request changed or created the cart in between, the write fails and is retried
+ * from a fresh read.
+ */
+public class CartOperations {
+
+    private final CartStore cartStore;
+    private final CartCache cartCache;
+    private final Function<List<String>, Map<String, Product>> productLookup;
+
+    /**
+     * @param productLookup Returns the products with the passed ids, throwing if any are not found
+     */
+    public CartOperations(CartStore cartStore, CartCache cartCache,
+            Function<List<String>, Map<String, Product>> productLookup) {
+        this.cartStore = cartStore;
+        this.cartCache = cartCache;
+        this.productLookup = productLookup;
+    }
+
+    /**
+     * Get the user's shopping cart. If this instance has already deserialized the cart, a
+     * read of the record without its items checks the record generation and creation time,
+     * and the cached cart is returned if the record has not changed since.
+     * <p/>
+     * A read which runs out of time is thrown rather than taken as an empty cart.
+     */
+    public Cart getCart(String userId) {
+        try {
+            if (cartCache.contains(userId)) {
+                Record header = cartStore.getHeader(userId);
+                if (header == null) {
+                    cartCache.invalidate(userId);
+                    return new Cart();
+                }
+                Optional<Cart> cachedCart = cartCache.validate(userId, header.generation, createdAt(header));
+                if (cachedCart.isPresent()) {
+                    return cachedCart.get();
+                }
+            }
+            Record record = cartStore.get(userId);
+
+            if (record == null) {
+                return new Cart();
+            }
+
+            Cart cart = Cart.fromMap(record.bins);
+            cartCache.put(userId, record.generation, createdAt(record), cart);
+            return cart;
+
+        } catch (RequestDeadline.ExceededException | AerospikeException.Timeout e) {
+            throw e;
+        } catch (Exception e) {
+            System.err.println("Error getting cart: " + e.getMessage());
+            return new Cart();
+        }
+    }
+
+    private static long createdAt(Record record) {
+        Object createdAt = record.bins == null ? null : record.bins.get(CartStore.CREATED_AT_BIN);
+        return createdAt instanceof Number ? ((Number) createdAt).longValue() : 0;
+    }
+
+    public Cart addToCart(String userId, String productId, int quantity) {
+        try {
+            return add(userId, Map.of(productId, quantity));
+        } catch (Exception e) {
+            System.err.println("Error adding to cart: " + e.getMessage());
+            throw new RuntimeException("Failed to add item to cart: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add several products to the cart at once. The products are fetched with a single lookup
+     * and all the changes are applied to the cart in a single write.
+     */
+    public Cart addItemsToCart(String userId, Map<String, Integer> items) {
+        try {
+            if (items == null || items.isEmpty()) {
+                return getCart(userId);
+            }
+            return add(userId, items);
+        } catch (Exception e) {
+            System.err.println("Error adding items to cart: " + e.getMessage());
+            throw new RuntimeException("Failed to add items to cart: " + e.getMessage(), e);
+        }
+    }
+
+    private Cart add(String userId, Map<String, Integer> items) {
+        Map<String, Product> products = productLookup.apply(new ArrayList<>(items.keySet()));
+        return retryLostRaces("adding products " + items.keySet(), () -> {
+            Record existingRecord = cartStore.get(userId);
+
+            Cart cart;
+            int generation;
+            if (existingRecord != null) {
+                cart = Cart.fromMap(existingRecord.bins);
+                generation = existingRecord.generation;
+            }
+            else {
+                cart = new Cart();
+                generation = CartStore.CREATE_ONLY;
+            }
+
+            List<CartChange> changes = new ArrayList<>(items.size());
+            for (Entry<String, Integer> entry : items.entrySet()) {
+                String productId = entry.getKey();
+                int quantity = entry.getValue();
+                Optional<CartItem> existingItem = cart.findItem(productId);
+                if (existingItem.isPresent()) {
+                    CartItem item = existingItem.get();
+                    item.setQuantity(item.getQuantity() + quantity);
+                    changes.add(CartChange.addQuantity(productId, quantity));
+                }
+                else {
+                    Product product = products.get(productId);
+                    CartItem newItem = new CartItem(userId, quantity, extractProductImage(product), product);
+                    cart.add(newItem);
+                    changes.add(CartChange.putItem(newItem));
+                }
+            }
+
+            cartStore.write(userId, generation, changes);
+            return cart;
+        });
+    }
+
+    /**
+     * Run a read / modify / write of a cart until its write goes through, starting again from
+     * the read whenever another request changed or created the cart in between. Any other
+     * failure is thrown.
+     *
+     * @param description What the attempt does, for the log
+     */
+    static <T> T retryLostRaces(String description, Supplier<T> attempt) {
+        while (true) {
+            try {
+                return attempt.get();
+            }
+            catch (GenerationException ge) {
+                Log.info("Lost race condition when " + description);
+            }
+            catch (AerospikeException ae) {
+                if (ae.getResultCode() != ResultCode.GENERATION_ERROR
+                        && ae.getResultCode() != ResultCode.KEY_EXISTS_ERROR) {
+                    throw ae;
+                }
+                Log.info("Lost race condition when " + description);
+            }
+        }
+    }
+
+    public Cart updateCartItem(String userId, String productId, int quantity) {
+        try {
+            Record record = cartStore.get(userId);
+
+            if (record == null) {
+                return new Cart();
+            }
+
+            Cart cart = Cart.fromMap(record.bins);
+
+            if (quantity <= 0) {
+                cart.remove(productId);
+                cartStore.write(userId, CartStore.ANY_GENERATION, List.of(CartChange.removeItem(productId)));
+            }
+            else {
+                Optional<CartItem> item = cart.findItem(productId);
+                if (item.isPresent()) {
+                    item.get().setQuantity(quantity);
+                    cartStore.write(userId, CartStore.ANY_GENERATION,
+                            List.of(CartChange.setQuantity(productId, quantity)));
+                }
+            }
+            return cart;
+        } catch (Exception e) {
+            System.err.println("Error updating cart item: " + e.getMessage());
+            throw new RuntimeException("Failed to update cart item: " + e.getMessage(), e);
+        }
+    }
+
+    public Cart removeFromCart(String userId, String productId) {
+        return updateCartItem(userId, productId, 0);
+    }
+
+    public Cart clearCart(String userId) {
+        try {
+            cartStore.write(userId, CartStore.ANY_GENERATION, List.of(CartChange.clear()));
+
+            return new Cart();
+        } catch (Exception e) {
+            System.err.println("Error clearing cart: " + e.getMessage());
+            throw new RuntimeException("Failed to clear cart: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Extracts product image URL from the product data structure
+     * Tries search/resolutions/125X161 first, then front/resolutions/125X161
+     */
+    private String extractProductImage(Product product) {
+        Map<String, Object> images = product.getImages();
+        if (images == null) {
+            return null;
+        }
+
+        // Try search -> resolutions -> 125X161
+        String image = getImageFromPath(images, "search", "resolutions", "125X161");
+        if (image != null) {
+            return image;
+        }
+
+        // Fallback: try front -> resolutions -> 125X161
+        return getImageFromPath(images, "front", "resolutions", "125X161");
+    }
+
+    /**
+     * Helper method to safely navigate nested map structure for image extraction
+     */
+    @SuppressWarnings("unchecked")
+    private String getImageFromPath(Map<String, Object> root, String... path) {
+        Map<String, Object> current = root;
+
+        // Navigate through all path segments except the last one
+        for (int i = 0; i < path.length - 1; i++) {
+            Object next = current.get(path[i]);
+            if (!(next instanceof Map)) {
+                return null;
+            }
+            current = (Map<String, Object>) next;
+        }
+
+        // Get the final value
+        Object result = current.get(path[path.length - 1]);
+        return result instanceof String ? (String) result : null;
+    }
+}
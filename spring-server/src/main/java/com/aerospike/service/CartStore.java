@@ -0,0 +1,54 @@
+package com.aerospike.service;
+
+import java.util.List;
+
+import com.aerospike.client.Record;
+
+/**
+ * The record level reads and writes the cart operations are built on, one cart record per user.
+ * <p/>
+ * A write applies all of its changes to the record atomically. It can be guarded by the
+ * generation of the record that was read: it then fails with {@code GENERATION_ERROR} if the
+ * record has changed since, or with {@code KEY_EXISTS_ERROR} if it was expected not to exist
+ * ({@link #CREATE_ONLY}) and another request has created it.
+ * <p/>
+ * A {@link #CREATE_ONLY} write also stamps the record it creates with its creation time, in
+ * the {@link #CREATED_AT_BIN} bin, so a cart which is deleted and created again can be told apart
+ * from the old one even though its generation starts again from 1.
+ */
+public interface CartStore {
+
+    /**
+     * Write generation for a record which must not exist yet
+     */
+    int CREATE_ONLY = 0;
+
+    /**
+     * Write generation for a write which is not checked against the record
+     */
+    int ANY_GENERATION = -1;
+
+    /**
+     * The bin holding the time the cart record was created, in milliseconds
+     */
+    String CREATED_AT_BIN = "createdAt";
+
+    /**
+     * @return The cart record with its bins, or null if the user has no cart
+     */
+    Record get(String userId);
+
+    /**
+     * @return The cart record with only its {@link #CREATED_AT_BIN} bin, or null if the user
+     *         has no cart
+     */
+    Record getHeader(String userId);
+
+    /**
+     * Apply the changes to the cart record in one operation
+     *
+     * @param generation The generation the record must still have, or {@link #CREATE_ONLY} or
+     *        {@link #ANY_GENERATION}
+     */
+    void write(String userId, int generation, List<CartChange> changes);
+}
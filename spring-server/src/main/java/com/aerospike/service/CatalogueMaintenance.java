@@ -0,0 +1,85 @@
+package com.aerospike.service;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import com.aerospike.model.Product;
+import com.aerospike.model.SnapshotRecord;
+
+/**
+ * The operations which maintain the catalogue in bulk: changing and deleting products, waiting
+ * for index builds, scanning partition ranges and snapshots. Implementations which provide them
+ * implement this as well as {@link KeyValueServiceInterface}, so callers can check before they
+ * start rather than fail part way through.
+ */
+public interface CatalogueMaintenance extends KeyValueServiceInterface {
+
+    /**
+     * The key value service as catalogue maintenance
+     * @param operation What needs it, for the message if it is not supported
+     * @throws UnsupportedOperationException if the implementation does not maintain the catalogue
+     */
+    static CatalogueMaintenance of(KeyValueServiceInterface keyValueService, String operation) {
+        if (keyValueService instanceof CatalogueMaintenance maintenance) {
+            return maintenance;
+        }
+        throw new UnsupportedOperationException(operation + " is not supported by this implementation");
+    }
+
+    /**
+     * How far the build of a secondary index has got. An index is built in the background after
+     * it is created, and only answers queries over all the records once it is built.
+     * @param indexName Name of the index
+     * @return The lowest build percentage over the nodes, 100 once built on every node, or -1 if
+     * the index does not exist on some node
+     */
+    int getIndexLoadPercent(String indexName);
+
+    /**
+     * Stores a product record, replacing the record if the product is already stored
+     * @param product Product data
+     */
+    void replaceProduct(Product product);
+
+    /**
+     * Deletes a product record
+     * @param productId Product identifier
+     * @return Whether the product was stored
+     */
+    boolean deleteProduct(String productId);
+
+    /**
+     * Takes a deleted or changed product out of the metadata, dropping any of its names which
+     * no other product has
+     * @param category Category name
+     * @param subCategory Subcategory name
+     * @param articleType Article type
+     * @param usage Usage type
+     * @param brandName Brand name
+     */
+    void unloadCategories(String category, String subCategory, String articleType, String usage, String brandName);
+
+    /**
+     * Reads every product in a range of partitions, so a full scan can be split into ranges
+     * read at the same time
+     * @param partitionBegin First partition to read
+     * @param partitionCount Number of partitions to read
+     * @param consumer Called with each product, on the calling thread
+     */
+    void scanProductPartitions(int partitionBegin, int partitionCount, Consumer<Product> consumer);
+
+    /**
+     * Reads every product and metadata record in a range of partitions, for a snapshot
+     * @param partitionBegin First partition to read
+     * @param partitionCount Number of partitions to read
+     * @param consumer Called with each record, on the calling thread
+     */
+    void scanSnapshotPartitions(int partitionBegin, int partitionCount, Consumer<SnapshotRecord> consumer);
+
+    /**
+     * Writes a batch of snapshot records, replacing any existing record with the same key
+     * @param records The records to write
+     * @return The number of records which failed to write
+     */
+    int restoreSnapshotRecords(List<SnapshotRecord> records);
+}
@@ -0,0 +1,52 @@
+package com.aerospike.service;
+
+import com.aerospike.client.Operation;
+import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.ExpOperation;
+import com.aerospike.client.exp.ExpWriteFlags;
+
+/**
+ * The catalogue version, kept as a sequence lock over the products shared by every instance:
+ * it is moved to the next odd number when a change to the products starts and to the next even
+ * number when it ends. A facet index built while the version was even, and which finds it
+ * unchanged afterwards, saw no change in progress.
+ * <p/>
+ * Each move reads the counter and writes the new value in one expression, so a change started
+ * while the version is already odd, after another instance failed part way through or while
+ * it is still writing, keeps it odd.
+ */
+public final class CatalogueVersion {
+
+    private CatalogueVersion() {
+    }
+
+    /**
+     * @return Whether no change was in progress at this version. -1, for an implementation
+     * which keeps no version, always is.
+     */
+    public static boolean isStable(long version) {
+        return version < 0 || version % 2 == 0;
+    }
+
+    /**
+     * The operation moving the version to the next odd number, to start a change
+     */
+    public static Operation begin(String binName) {
+        Exp version = current(binName);
+        return ExpOperation.write(binName, Exp.build(Exp.add(version, Exp.val(1), Exp.mod(version, Exp.val(2)))),
+                ExpWriteFlags.DEFAULT);
+    }
+
+    /**
+     * The operation moving the version to the next even number, to end a change
+     */
+    public static Operation end(String binName) {
+        Exp version = current(binName);
+        return ExpOperation.write(binName, Exp.build(Exp.sub(Exp.add(version, Exp.val(2)), Exp.mod(version, Exp.val(2)))),
+                ExpWriteFlags.DEFAULT);
+    }
+
+    private static Exp current(String binName) {
+        return Exp.cond(Exp.binExists(binName), Exp.intBin(binName), Exp.val(0));
+    }
+}
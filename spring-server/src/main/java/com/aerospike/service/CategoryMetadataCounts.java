@@ -0,0 +1,85 @@
+package com.aerospike.service;
+
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.Value;
+import com.aerospike.client.cdt.CTX;
+import com.aerospike.client.cdt.MapOperation;
+import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapReturnType;
+import com.aerospike.client.cdt.MapWriteFlags;
+import com.aerospike.client.exp.Exp;
+import com.aerospike.client.exp.ExpOperation;
+import com.aerospike.client.exp.ExpWriteFlags;
+import com.aerospike.client.exp.ListExp;
+import com.aerospike.client.exp.MapExp;
+
+/**
+ * Counts of the products behind the category metadata, so a product which is deleted or
+ * changed can be taken out of the metadata again.
+ * <p/>
+ * The names in a shard's lists are unique, so each shard also keeps a count of the products
+ * with each of its names, in the {@link #COUNTS_BIN} map keyed by list bin and then name. A
+ * name is dropped from its list when its count goes down to 0. The sub-category counts on the
+ * category records were always kept, and a sub-category is dropped in the same way.
+ */
+public final class CategoryMetadataCounts {
+
+    public static final String COUNTS_BIN = "counts";
+    public static final String SUB_CATEGORIES_BIN = "subCategories";
+
+    private static final MapPolicy COUNT_POLICY = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
+
+    /**
+     * Applies operations to one record of the metadata set
+     */
+    @FunctionalInterface
+    public interface Operator {
+        Record operate(String userKey, Operation... operations);
+    }
+
+    private CategoryMetadataCounts() {
+    }
+
+    /**
+     * The operation counting one more product with this name, to go with the append of the
+     * name to its shard
+     */
+    public static Operation countUp(String binName, String value) {
+        return MapOperation.increment(COUNT_POLICY, COUNTS_BIN, Value.get(value), Value.get(1),
+                CTX.mapKeyCreate(Value.get(binName), MapOrder.KEY_ORDERED));
+    }
+
+    /**
+     * Take a product out of the metadata: count its sub-category and names down, and drop any
+     * that no product has any more. Each record is changed in one call, so a product loaded at
+     * the same time cannot see a name dropped after its count went back up.
+     */
+    public static void unload(Operator operator, String category, String subCategory, String articleType,
+            String usage, String brandName) {
+        operator.operate(CategoryMetadataKeys.categoryRecord(category),
+                MapOperation.increment(COUNT_POLICY, SUB_CATEGORIES_BIN, Value.get(subCategory), Value.get(-1)),
+                MapOperation.removeByValue(SUB_CATEGORIES_BIN, Value.get(0), MapReturnType.NONE));
+        unloadName(operator, "categories", category);
+        unloadName(operator, "articleTypes", articleType);
+        unloadName(operator, "usage", usage);
+        unloadName(operator, "brandNames", brandName);
+    }
+
+    /**
+     * Count a name down, drop it from its list if the count is now 0, then drop the 0 count. The
+     * list is written by an expression reading the count the increment left.
+     */
+    private static void unloadName(Operator operator, String binName, String value) {
+        CTX names = CTX.mapKey(Value.get(binName));
+        Exp count = MapExp.getByKey(MapReturnType.VALUE, Exp.Type.INT, Exp.val(value), Exp.mapBin(COUNTS_BIN), names);
+        Exp list = Exp.listBin(binName);
+        Exp remaining = Exp.cond(Exp.eq(count, Exp.val(0)), ListExp.removeByValue(Exp.val(value), list), list);
+        operator.operate(CategoryMetadataKeys.shardFor(value),
+                MapOperation.increment(COUNT_POLICY, COUNTS_BIN, Value.get(value), Value.get(-1),
+                        CTX.mapKeyCreate(Value.get(binName), MapOrder.KEY_ORDERED)),
+                ExpOperation.write(binName, Exp.build(remaining), ExpWriteFlags.DEFAULT),
+                MapOperation.removeByValue(COUNTS_BIN, Value.get(0), MapReturnType.NONE, names));
+    }
+}
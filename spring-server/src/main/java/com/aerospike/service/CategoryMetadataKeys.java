@@ -0,0 +1,50 @@
+package com.aerospike.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * User keys of the category metadata records in the cat_index set.
+ * <p/>
+ * Category, article type, usage and brand names are spread over {@link #SHARD_COUNT} shard
+ * records by a hash of the value, and each category has its own record holding its
+ * sub-category counts. Writes for different values land on different records (and so
+ * different partitions), and reads fan in with one batch get of the shards, rather than
+ * every reader and writer going through a single hot record.
+ */
+public final class CategoryMetadataKeys {
+
+    public static final int SHARD_COUNT = 16;
+
+    private static final String SHARD_PREFIX = "product_meta_";
+    private static final String CATEGORY_PREFIX = "category_";
+
+    private CategoryMetadataKeys() {
+    }
+
+    /**
+     * The shard record which holds this value. String.hashCode is fixed by the language
+     * specification, so every instance picks the same shard.
+     */
+    public static String shardFor(String value) {
+        return SHARD_PREFIX + Math.floorMod(value.hashCode(), SHARD_COUNT);
+    }
+
+    /**
+     * All the shard records, for reading the metadata back
+     */
+    public static List<String> allShards() {
+        List<String> shards = new ArrayList<>(SHARD_COUNT);
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            shards.add(SHARD_PREFIX + i);
+        }
+        return shards;
+    }
+
+    /**
+     * The record which holds the sub-category counts of this category
+     */
+    public static String categoryRecord(String category) {
+        return CATEGORY_PREFIX + category;
+    }
+}
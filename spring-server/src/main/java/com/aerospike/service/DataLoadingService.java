@@ -1,9 +1,18 @@
 package com.aerospike.service;
 
 import java.io.IOException;
-import java.util.HashMap;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.stereotype.Service;
@@ -17,12 +26,27 @@ import com.aerospike.model.Product;
 @Service
 public class DataLoadingService {
 
+    private static final long INDEX_BUILD_TIMEOUT_MS = 30 * 60 * 1000;
+    private static final long INDEX_BUILD_POLL_MS = 250;
+
     private final JsonParsingService jsonParsingService;
     private final KeyValueServiceInterface keyValueService;
+    private final FacetIndex facetIndex;
+    private final QueryResultCache queryResultCache;
+    private final LoadThrottle loadThrottle;
+    private final BulkLoadBehavior bulkLoadBehavior;
+    private final PartitionScanner partitionScanner;
 
-    public DataLoadingService(JsonParsingService jsonParsingService, KeyValueServiceInterface keyValueService) {
+    public DataLoadingService(JsonParsingService jsonParsingService, KeyValueServiceInterface keyValueService,
+            FacetIndex facetIndex, QueryResultCache queryResultCache, LoadThrottle loadThrottle,
+            BulkLoadBehavior bulkLoadBehavior, PartitionScanner partitionScanner) {
         this.jsonParsingService = jsonParsingService;
         this.keyValueService = keyValueService;
+        this.facetIndex = facetIndex;
+        this.queryResultCache = queryResultCache;
+        this.loadThrottle = loadThrottle;
+        this.bulkLoadBehavior = bulkLoadBehavior;
+        this.partitionScanner = partitionScanner;
     }
 
     /**
@@ -33,28 +57,240 @@ public class DataLoadingService {
      * @throws IOException if files cannot be read
      */
     public LoadResult loadAllData(String dataRootPath) throws IOException {
-        // Create secondary indexes first
-        createSecondaryIndexes();
+        return loadAllData(dataRootPath, false, LoadProgress.NONE);
+    }
+
+    /**
+     * Load all product data from the specified data root directory, reporting progress as
+     * each file is loaded and stopping early if the load is cancelled.
+     * <p/>
+     * Normally the secondary indexes are created first, so every product write also updates
+     * them. A bulk load can instead defer creating them until the products are written, and then
+     * wait for them to be built, which indexes each record once in a single pass. Queries using
+     * the indexes do not work until the load finishes.
+     * <p/>
+     * Like the other loads, the products are written with the bulk load settings rather than
+     * those of shopper traffic.
+     * 
+     * @param dataRootPath Root path to the data directory
+     * @param deferIndexes Whether to create the secondary indexes after the products are written
+     * @param progress Receives the progress of the load
+     * @return LoadResult containing statistics about the loading process
+     * @throws IOException if files cannot be read
+     */
+    public LoadResult loadAllData(String dataRootPath, boolean deferIndexes, LoadProgress progress) throws IOException {
+        bulkLoadBehavior.begin();
+        try {
+            return writeAllData(dataRootPath, deferIndexes, progress);
+        } finally {
+            bulkLoadBehavior.end();
+        }
+    }
+
+    private LoadResult writeAllData(String dataRootPath, boolean deferIndexes, LoadProgress progress) throws IOException {
+        // Create secondary indexes first, unless deferred until the data is written
+        deferIndexes = canDeferIndexes(deferIndexes);
+        long indexMs = deferIndexes ? 0 : timeIndexBuild(false, progress);
+        long dataStart = System.currentTimeMillis();
+        progress.phase("writing products");
+        loadThrottle.reset();
+        
+        // Rebuild the facet index from what this load stores
+        long startVersion = beginCatalogueChange();
+        facetIndex.clear();
         
         // Get all JSON files
         List<String> jsonFiles = jsonParsingService.getStyleFiles(dataRootPath);
+        progress.setTotal(jsonFiles.size());
         
         AtomicInteger successCount = new AtomicInteger(0);
         AtomicInteger errorCount = new AtomicInteger(0);
+        Path dataRoot = Paths.get(dataRootPath);
+        LoadManifest manifest = new LoadManifest();
         
         // Process each file
         for (String filePath : jsonFiles) {
+            if (progress.isCancelled()) {
+                break;
+            }
             try {
-                loadSingleProduct(filePath);
+                StyleFile styleFile = StyleFile.read(filePath);
+                storeStyleFile(styleFile, false, progress);
                 successCount.incrementAndGet();
+                manifest.put(relativePath(dataRoot, filePath), styleFile.describe());
             } catch (Exception e) {
                 errorCount.incrementAndGet();
+                progress.error();
                 System.err.println("Error loading file " + filePath + ": " + e.getMessage());
             }
             
         }
         
-        return new LoadResult(successCount.get(), errorCount.get(), jsonFiles.size());
+        // Only if every product was stored does the index hold the whole catalogue
+        endCatalogueChange(startVersion, errorCount.get() == 0 && !progress.isCancelled());
+        
+        // Drop any results cached while the load was running
+        queryResultCache.invalidateAll();
+        
+        long dataMs = System.currentTimeMillis() - dataStart;
+        
+        if (deferIndexes && !progress.isCancelled()) {
+            indexMs = timeIndexBuild(true, progress);
+        }
+        
+        // Record what was stored, so the next incremental load only touches what changed
+        writeManifest(manifest, dataRoot);
+        
+        return new LoadResult(successCount.get(), errorCount.get(), jsonFiles.size(), dataMs, indexMs);
+    }
+
+    /**
+     * Load only the style files which were added or changed since the last load, and delete the
+     * products whose style files were removed. What the last load stored is read from the
+     * manifest in the data root. If there is no manifest, or the catalogue has been cleared since,
+     * every file is loaded.
+     * <p/>
+     * A file which fails to load is left out of the manifest, or keeps its old entry, so it is
+     * tried again by the next load.
+     * 
+     * @param dataRootPath Root path to the data directory
+     * @return Counts of the files added, changed, deleted, unchanged and in error
+     * @throws IOException if the files or the manifest cannot be read
+     */
+    public IncrementalLoadResult loadChangedData(String dataRootPath) throws IOException {
+        return loadChangedData(dataRootPath, LoadProgress.NONE);
+    }
+
+    /**
+     * Load only the style files which were added or changed since the last load, reporting
+     * progress as each file is handled and stopping early if the load is cancelled. A cancelled
+     * load still deletes the products whose files were removed.
+     * 
+     * @param dataRootPath Root path to the data directory
+     * @param progress Receives the progress of the load
+     * @return Counts of the files added, changed, deleted, unchanged and in error
+     * @throws IOException if the files or the manifest cannot be read
+     */
+    public IncrementalLoadResult loadChangedData(String dataRootPath, LoadProgress progress) throws IOException {
+        bulkLoadBehavior.begin();
+        try {
+            return writeChangedData(dataRootPath, progress);
+        } finally {
+            bulkLoadBehavior.end();
+        }
+    }
+
+    private IncrementalLoadResult writeChangedData(String dataRootPath, LoadProgress progress) throws IOException {
+        // Checked before anything is written
+        maintenance("Incremental loading");
+        Path dataRoot = Paths.get(dataRootPath);
+        LoadManifest manifest = LoadManifest.read(dataRoot);
+        if (!manifest.getEntries().isEmpty() && !keyValueService.hasProducts()) {
+            manifest = new LoadManifest();
+        }
+        createSecondaryIndexes();
+        loadThrottle.reset();
+        // The index is kept up to date with the changes, so it stays complete if it was before
+        boolean wasCurrent = facetIndex.isCurrent(keyValueService.getCatalogueVersion());
+        long startVersion = beginCatalogueChange();
+        
+        int added = 0;
+        int changed = 0;
+        int deleted = 0;
+        int unchanged = 0;
+        int errors = 0;
+        Set<String> seen = new HashSet<>();
+        List<String> jsonFiles = jsonParsingService.getStyleFiles(dataRootPath);
+        progress.setTotal(jsonFiles.size());
+        
+        for (String filePath : jsonFiles) {
+            String relativePath = relativePath(dataRoot, filePath);
+            seen.add(relativePath);
+            if (progress.isCancelled()) {
+                // Not looked at, so keep what the manifest knows about it
+                continue;
+            }
+            LoadManifest.Entry known = manifest.get(relativePath);
+            try {
+                if (LoadManifest.isUnchanged(Paths.get(filePath), known)) {
+                    unchanged++;
+                    progress.skipped();
+                    continue;
+                }
+                StyleFile styleFile = StyleFile.read(filePath);
+                LoadManifest.Entry current = styleFile.describe();
+                if (known != null && known.getHash().equals(current.getHash())) {
+                    // Keep the new modified time, so the file is not read again next time
+                    manifest.put(relativePath, current);
+                    unchanged++;
+                    progress.skipped();
+                    continue;
+                }
+                storeStyleFile(styleFile, true, progress);
+                manifest.put(relativePath, current);
+                if (known == null) {
+                    added++;
+                } else {
+                    changed++;
+                }
+            } catch (Exception e) {
+                errors++;
+                progress.error();
+                System.err.println("Error loading file " + filePath + ": " + e.getMessage());
+            }
+        }
+        
+        for (String relativePath : List.copyOf(manifest.getEntries().keySet())) {
+            if (seen.contains(relativePath)) {
+                continue;
+            }
+            String productId = jsonParsingService.extractProductId(relativePath);
+            try {
+                loadThrottle.acquire(0);
+                long writeStart = System.nanoTime();
+                try {
+                    Optional<Product> stored = keyValueService.getProduct(productId);
+                    maintenance("Deleting products").deleteProduct(productId);
+                    stored.ifPresent(this::unloadProductCategories);
+                } catch (RuntimeException e) {
+                    loadThrottle.recordFailure(e);
+                    throw e;
+                }
+                long writeNanos = System.nanoTime() - writeStart;
+                loadThrottle.recordWrite(writeNanos);
+                progress.written(writeNanos);
+                facetIndex.remove(productId);
+                manifest.remove(relativePath);
+                deleted++;
+            } catch (Exception e) {
+                errors++;
+                progress.error();
+                System.err.println("Error deleting product " + productId + ": " + e.getMessage());
+            }
+        }
+        
+        endCatalogueChange(startVersion, wasCurrent);
+        queryResultCache.invalidateAll();
+        writeManifest(manifest, dataRoot);
+        
+        return new IncrementalLoadResult(added, changed, deleted, unchanged, errors);
+    }
+
+    /**
+     * Write the manifest after a load. The products are stored by then, so a manifest which
+     * cannot be written is reported and leaves the next incremental load to compare against the
+     * old one.
+     */
+    private static void writeManifest(LoadManifest manifest, Path dataRoot) {
+        try {
+            manifest.write(dataRoot);
+        } catch (IOException e) {
+            System.err.println("Failed to write the load manifest in " + dataRoot + ": " + e.getMessage());
+        }
+    }
+
+    private static String relativePath(Path dataRoot, String filePath) {
+        return dataRoot.relativize(Paths.get(filePath)).toString();
     }
 
     /**
@@ -64,37 +300,278 @@ public class DataLoadingService {
      * @throws IOException if the file cannot be processed
      */
     public void loadSingleProduct(String filePath) throws IOException {
-        // Parse the JSON file
-        Map<String, Object> rawData = jsonParsingService.parseProductFile(filePath);
+        StyleFile styleFile = StyleFile.read(filePath);
+        // The index stays complete if it was, as it gets the product too
+        boolean wasCurrent = facetIndex.isCurrent(keyValueService.getCatalogueVersion());
+        long startVersion = beginCatalogueChange();
+        boolean stored = false;
+        try {
+            storeStyleFile(styleFile, false, LoadProgress.NONE);
+            stored = true;
+        } finally {
+            endCatalogueChange(startVersion, wasCurrent && stored);
+            queryResultCache.invalidateAll();
+        }
+    }
+
+    /**
+     * Parse and store the product of a style file
+     * 
+     * @param replace Whether to replace the product if it is already stored
+     */
+    private void storeStyleFile(StyleFile styleFile, boolean replace, LoadProgress progress) throws IOException {
+        Map<String, Object> rawData = jsonParsingService.parseProductRecord(ByteBuffer.wrap(styleFile.content));
         
         // Extract product ID from filename
-        String productId = jsonParsingService.extractProductId(filePath);
+        String productId = jsonParsingService.extractProductId(styleFile.path);
+        
+        storeParsedProduct(rawData, productId, replace, styleFile.content.length, styleFile.readStart, progress);
+    }
+
+    /**
+     * A style file read into memory, so it is read once to be both hashed for the manifest
+     * and parsed
+     */
+    private static class StyleFile {
+        private final String path;
+        private final byte[] content;
+        private final long modifiedMs;
+        private final long readStart;
+
+        private StyleFile(String path, byte[] content, long modifiedMs, long readStart) {
+            this.path = path;
+            this.content = content;
+            this.modifiedMs = modifiedMs;
+            this.readStart = readStart;
+        }
+
+        static StyleFile read(String filePath) throws IOException {
+            long readStart = System.nanoTime();
+            Path file = Paths.get(filePath);
+            long modifiedMs = Files.getLastModifiedTime(file).toMillis();
+            return new StyleFile(filePath, Files.readAllBytes(file), modifiedMs, readStart);
+        }
+
+        LoadManifest.Entry describe() {
+            return LoadManifest.describe(content, modifiedMs);
+        }
+    }
+
+    /**
+     * Load all product data from a packed catalogue: newline delimited JSON of style files, or a
+     * zip of style files. The file is memory mapped and split into products as they are loaded,
+     * so no file is opened per product.
+     * 
+     * @param packedFilePath Path to the packed catalogue
+     * @return LoadResult containing statistics about the loading process
+     * @throws IOException if the packed catalogue cannot be read
+     */
+    public LoadResult loadPackedData(String packedFilePath) throws IOException {
+        return loadPackedData(packedFilePath, false, LoadProgress.NONE);
+    }
+
+    /**
+     * Load all product data from a packed catalogue, reporting progress as each record is
+     * loaded and stopping early if the load is cancelled. The number of records is not known
+     * until the end, so no total is reported.
+     * 
+     * @param packedFilePath Path to the packed catalogue
+     * @param deferIndexes Whether to create the secondary indexes after the products are written
+     * @param progress Receives the progress of the load
+     * @return LoadResult containing statistics about the loading process
+     * @throws IOException if the packed catalogue cannot be read
+     */
+    public LoadResult loadPackedData(String packedFilePath, boolean deferIndexes, LoadProgress progress) throws IOException {
+        bulkLoadBehavior.begin();
+        try {
+            return writePackedData(packedFilePath, deferIndexes, progress);
+        } finally {
+            bulkLoadBehavior.end();
+        }
+    }
+
+    private LoadResult writePackedData(String packedFilePath, boolean deferIndexes, LoadProgress progress) throws IOException {
+        deferIndexes = canDeferIndexes(deferIndexes);
+        long indexMs = deferIndexes ? 0 : timeIndexBuild(false, progress);
+        long dataStart = System.currentTimeMillis();
+        progress.phase("writing products");
+        loadThrottle.reset();
+        long startVersion = beginCatalogueChange();
+        facetIndex.clear();
+        
+        int successCount = 0;
+        int errorCount = 0;
+        try (PackedCatalogue catalogue = PackedCatalogue.open(Paths.get(packedFilePath))) {
+            while (!progress.isCancelled() && catalogue.hasNext()) {
+                long parseStart = System.nanoTime();
+                PackedCatalogue.Entry entry = catalogue.next();
+                try {
+                    Map<String, Object> rawData = jsonParsingService.parseProductRecord(entry.getContent());
+                    String productId = entry.getProductId();
+                    if (productId == null) {
+                        Object id = rawData.get("id");
+                        if (id == null) {
+                            throw new IOException("Record has no 'data.id'");
+                        }
+                        productId = id.toString();
+                    }
+                    storeParsedProduct(rawData, productId, false, entry.getContent().remaining(), parseStart, progress);
+                    successCount++;
+                } catch (Exception e) {
+                    errorCount++;
+                    progress.error();
+                    System.err.println("Error loading record " + (successCount + errorCount) + " of " + packedFilePath + ": " + e.getMessage());
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        
+        endCatalogueChange(startVersion, errorCount == 0 && !progress.isCancelled());
+        queryResultCache.invalidateAll();
+        long dataMs = System.currentTimeMillis() - dataStart;
+        
+        if (deferIndexes && !progress.isCancelled()) {
+            indexMs = timeIndexBuild(true, progress);
+        }
         
+        return new LoadResult(successCount, errorCount, successCount + errorCount, dataMs, indexMs);
+    }
+
+    /**
+     * Format and store a parsed product, with its category metadata. The write waits for the
+     * load throttle, and its latency or failure is passed back to the throttle.
+     * 
+     * @param replace Whether to replace the product if it is already stored
+     * @param bytes The size of the product's style file, for pacing by bytes
+     * @param parseStart When reading the product started, to report the time spent parsing
+     */
+    private void storeParsedProduct(Map<String, Object> rawData, String productId, boolean replace,
+            long bytes, long parseStart, LoadProgress progress) {
         // Format the product data
         Map<String, Object> productMap = jsonParsingService.formatProductData(rawData, productId);
+        progress.parsed(System.nanoTime() - parseStart);
+        Product product = Product.fromMap(productMap);
         
-        // Load categories metadata
-        loadProductCategories(productMap);
+        loadThrottle.acquire(bytes);
+        long writeStart = System.nanoTime();
+        try {
+            // Store the product in Aerospike, then count it in the categories metadata, so a
+            // failed write leaves the counts as they were. What it replaced is taken out last,
+            // so names the two share are not dropped in between.
+            if (replace) {
+                Optional<Product> stored = keyValueService.getProduct(productId);
+                maintenance("Replacing products").replaceProduct(product);
+                loadProductCategories(productMap);
+                stored.ifPresent(this::unloadProductCategories);
+            } else {
+                keyValueService.storeProduct(product);
+                loadProductCategories(productMap);
+            }
+        } catch (RuntimeException e) {
+            loadThrottle.recordFailure(e);
+            throw e;
+        }
+        long writeNanos = System.nanoTime() - writeStart;
+        loadThrottle.recordWrite(writeNanos);
         
-        // Store the product in Aerospike
-        keyValueService.storeProduct(Product.fromMap(productMap));
+        if (replace) {
+            facetIndex.remove(productId);
+        }
+        facetIndex.add(product);
+        progress.written(writeNanos);
     }
 
     /**
      * Create the necessary secondary indexes
      */
-    private void createSecondaryIndexes() {
-        Map<String, String> indexes = new HashMap<>();
-        indexes.put("category", "cat_idx");
-        indexes.put("subCategory", "subCat_idx");
-        indexes.put("usage", "usage_idx");
-        indexes.put("brandName", "brand_idx");
-        indexes.put("gender", "gender_idx");
-        indexes.put("season", "season_idx");
-        
-        for (Map.Entry<String, String> entry : indexes.entrySet()) {
+    public void createSecondaryIndexes() {
+        for (Map.Entry<String, String> entry : stringIndexes().entrySet()) {
             keyValueService.createStringIndex(entry.getKey(), entry.getValue());
         }
+        for (Map.Entry<String, String> entry : numericIndexes().entrySet()) {
+            keyValueService.createNumericIndex(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Waiting for deferred indexes needs their build status. Without it they are created before
+     * the products are written instead, as the load would otherwise return before they are built.
+     */
+    private boolean canDeferIndexes(boolean deferIndexes) {
+        return deferIndexes && keyValueService instanceof CatalogueMaintenance;
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the key value service does not maintain the
+     * catalogue, which this operation needs
+     */
+    private CatalogueMaintenance maintenance(String operation) {
+        return CatalogueMaintenance.of(keyValueService, operation);
+    }
+
+    /**
+     * Create the secondary indexes, optionally waiting for them to be built
+     * 
+     * @param wait Whether to wait until every index is built on every node
+     * @return The time taken
+     */
+    private long timeIndexBuild(boolean wait, LoadProgress progress) {
+        long startTime = System.currentTimeMillis();
+        progress.phase(wait ? "building indexes" : "creating indexes");
+        createSecondaryIndexes();
+        if (wait) {
+            waitForIndexBuild(progress);
+        }
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Wait until every secondary index reports it is fully built, or the load is cancelled
+     */
+    private void waitForIndexBuild(LoadProgress progress) {
+        List<String> indexNames = new ArrayList<>(stringIndexes().values());
+        indexNames.addAll(numericIndexes().values());
+        long deadline = System.currentTimeMillis() + INDEX_BUILD_TIMEOUT_MS;
+        
+        while (!progress.isCancelled()) {
+            indexNames.removeIf(indexName -> maintenance("Index build status").getIndexLoadPercent(indexName) == 100);
+            if (indexNames.isEmpty()) {
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new RuntimeException("Failed to build secondary indexes in " + INDEX_BUILD_TIMEOUT_MS + "ms: " + indexNames);
+            }
+            try {
+                Thread.sleep(INDEX_BUILD_POLL_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for secondary indexes: " + indexNames, e);
+            }
+        }
+    }
+
+    /**
+     * The string indexes used by the category and search queries, bin name to index name
+     */
+    public static Map<String, String> stringIndexes() {
+        return Map.of(
+                "category", "cat_idx",
+                "subCategory", "subCat_idx",
+                "usage", "usage_idx",
+                "brandName", "brand_idx",
+                "gender", "gender_idx",
+                "season", "season_idx");
+    }
+
+    /**
+     * The numeric indexes used by the price and date range filters, bin name to index name
+     */
+    public static Map<String, String> numericIndexes() {
+        return Map.of(
+                "price", "price_idx",
+                "salePrice", "salePrice_idx",
+                "added", "added_idx");
     }
 
     /**
@@ -112,6 +589,17 @@ public class DataLoadingService {
         }
     }
 
+    /**
+     * Take a deleted or replaced product out of the category metadata, as it was stored
+     */
+    private void unloadProductCategories(Product product) {
+        if (product.getCategory() != null && product.getSubCategory() != null && product.getArticleType() != null
+                && product.getUsage() != null && product.getBrandName() != null) {
+            maintenance("Removing category metadata").unloadCategories(product.getCategory(), product.getSubCategory(),
+                    product.getArticleType(), product.getUsage(), product.getBrandName());
+        }
+    }
+
     /**
      * Get count of products currently in the database
      * 
@@ -131,12 +619,90 @@ public class DataLoadingService {
         keyValueService.createStringIndex(binName, indexName);
     }
 
+    /**
+     * Create a single numeric secondary index
+     * 
+     * @param binName Name of the bin to index
+     * @param indexName Name of the index to create
+     */
+    public void createSingleNumericIndex(String binName, String indexName) {
+        keyValueService.createNumericIndex(binName, indexName);
+    }
+
+    /**
+     * Rebuild the facet index from the products stored rather than from the style files, for
+     * example after a restart. The partition ranges are scanned at the same time, and the index
+     * is only complete if the scan was not cancelled and no products were being written, before
+     * or during the scan.
+     * 
+     * @param progress Receives the progress of the rebuild, a record parsed per product indexed
+     * @return The number of products indexed
+     */
+    public int rebuildFacetIndex(LoadProgress progress) {
+        CatalogueMaintenance maintenance = maintenance("Rebuilding the facet index");
+        progress.phase("indexing products");
+        facetIndex.clear();
+        // A change in progress, here or on another instance, may already have written products
+        // the scan misses, so only an even version unchanged over the scan makes it complete
+        long version = keyValueService.getCatalogueVersion();
+        int[] indexed = {0};
+        try {
+            partitionScanner.forEach(maintenance::scanProductPartitions, 0, product -> {
+                if (progress.isCancelled()) {
+                    throw new CancellationException("Facet index rebuild cancelled");
+                }
+                facetIndex.add(product);
+                progress.parsed(0);
+                indexed[0]++;
+            });
+            if (CatalogueVersion.isStable(version) && keyValueService.getCatalogueVersion() == version) {
+                facetIndex.markComplete(version);
+            }
+        } catch (CancellationException e) {
+            // Keep what was indexed, the index stays incomplete
+        }
+        queryResultCache.invalidateAll();
+        return indexed[0];
+    }
+
     /**
      * Clear all product data (for testing purposes)
      * WARNING: This will delete all data in the products set
      */
     public void clearAllData() {
+        long startVersion = beginCatalogueChange();
         keyValueService.clearAllData();
+        facetIndex.clear();
+        // Nothing stored, so the empty index is the whole catalogue
+        endCatalogueChange(startVersion, true);
+    }
+
+    /**
+     * Move the catalogue version to odd before writing products, so no instance takes its facet
+     * index as complete while the products are changing
+     *
+     * @return The version the change started at
+     */
+    public long beginCatalogueChange() {
+        return keyValueService.beginCatalogueChange();
+    }
+
+    /**
+     * Move the catalogue version to even after writing products. The facet index is marked complete
+     * at the new version only if it holds the whole catalogue and nothing else changed the
+     * catalogue while these products were written.
+     *
+     * @param startVersion The version returned by {@link #beginCatalogueChange()}
+     * @param complete Whether the facet index now holds the whole catalogue
+     */
+    public void endCatalogueChange(long startVersion, boolean complete) {
+        long endVersion = keyValueService.endCatalogueChange();
+        if (complete && (endVersion < 0 || endVersion == startVersion + 1)) {
+            facetIndex.markComplete(endVersion);
+        }
+        else {
+            facetIndex.markIncomplete();
+        }
     }
 
     /**
@@ -146,11 +712,15 @@ public class DataLoadingService {
         private final int successCount;
         private final int errorCount;
         private final int totalFiles;
+        private final long dataMs;
+        private final long indexMs;
 
-        public LoadResult(int successCount, int errorCount, int totalFiles) {
+        public LoadResult(int successCount, int errorCount, int totalFiles, long dataMs, long indexMs) {
             this.successCount = successCount;
             this.errorCount = errorCount;
             this.totalFiles = totalFiles;
+            this.dataMs = dataMs;
+            this.indexMs = indexMs;
         }
 
         public int getSuccessCount() {
@@ -165,14 +735,74 @@ public class DataLoadingService {
             return totalFiles;
         }
 
+        /**
+         * @return The time spent writing products
+         */
+        public long getDataMs() {
+            return dataMs;
+        }
+
+        /**
+         * @return The time spent creating secondary indexes, including waiting for them to be
+         *     built if they were deferred
+         */
+        public long getIndexMs() {
+            return indexMs;
+        }
+
         public double getSuccessRate() {
             return totalFiles > 0 ? (double) successCount / totalFiles * 100 : 0;
         }
 
         @Override
         public String toString() {
-            return String.format("LoadResult{total=%d, success=%d, errors=%d, successRate=%.2f%%}", 
-                    totalFiles, successCount, errorCount, getSuccessRate());
+            return String.format("LoadResult{total=%d, success=%d, errors=%d, successRate=%.2f%%, dataMs=%d, indexMs=%d}", 
+                    totalFiles, successCount, errorCount, getSuccessRate(), dataMs, indexMs);
+        }
+    }
+
+    /**
+     * Result class for incremental data loads
+     */
+    public static class IncrementalLoadResult {
+        private final int addedCount;
+        private final int changedCount;
+        private final int deletedCount;
+        private final int unchangedCount;
+        private final int errorCount;
+
+        public IncrementalLoadResult(int addedCount, int changedCount, int deletedCount, int unchangedCount, int errorCount) {
+            this.addedCount = addedCount;
+            this.changedCount = changedCount;
+            this.deletedCount = deletedCount;
+            this.unchangedCount = unchangedCount;
+            this.errorCount = errorCount;
+        }
+
+        public int getAddedCount() {
+            return addedCount;
+        }
+
+        public int getChangedCount() {
+            return changedCount;
+        }
+
+        public int getDeletedCount() {
+            return deletedCount;
+        }
+
+        public int getUnchangedCount() {
+            return unchangedCount;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("IncrementalLoadResult{added=%d, changed=%d, deleted=%d, unchanged=%d, errors=%d}", 
+                    addedCount, changedCount, deletedCount, unchangedCount, errorCount);
         }
     }
 }
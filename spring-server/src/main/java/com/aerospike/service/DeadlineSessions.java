@@ -0,0 +1,54 @@
+package com.aerospike.service;
+
+import java.time.Duration;
+
+import com.aerospike.Cluster;
+import com.aerospike.Session;
+import com.aerospike.policy.Behavior;
+
+/**
+ * Sessions for the fluent client which keep database calls within the request deadline.
+ * <p/>
+ * The fluent client takes its timeouts from the Behavior of a session, and behaviors are
+ * registered for the life of the process, so one cannot be derived per request. Instead a
+ * fixed ladder of behaviors is derived up front, each abandoning calls after a different
+ * total timeout, and each call uses the session with the longest timeout which still fits in
+ * what is left of the deadline.
+ */
+public class DeadlineSessions {
+
+    private static final long[] TIMEOUTS_MS = {10, 25, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private final Session defaultSession;
+    private final Session[] deadlineSessions = new Session[TIMEOUTS_MS.length];
+
+    public DeadlineSessions(Cluster cluster, Behavior behavior) {
+        this.defaultSession = cluster.createSession(behavior);
+        for (int i = 0; i < TIMEOUTS_MS.length; i++) {
+            Duration timeout = Duration.ofMillis(TIMEOUTS_MS[i]);
+            Behavior deadlineBehavior = behavior.deriveWithChanges(behavior.getName() + "-deadline-" + TIMEOUTS_MS[i] + "ms",
+                    builder -> builder.forAllOperations().abandonCallAfter(timeout).done());
+            deadlineSessions[i] = cluster.createSession(deadlineBehavior);
+        }
+    }
+
+    /**
+     * The session for a call made now on this thread: the default session if there is no
+     * request deadline, otherwise the one with the longest timeout within what is left of it
+     * @throws RequestDeadline.ExceededException if what is left is shorter than the shortest
+     *         timeout, as a call could not finish in time
+     */
+    public Session current() {
+        if (!RequestDeadline.isSet()) {
+            return defaultSession;
+        }
+        int remainingMs = RequestDeadline.remainingMs();
+        for (int i = TIMEOUTS_MS.length - 1; i >= 0; i--) {
+            if (TIMEOUTS_MS[i] <= remainingMs) {
+                return deadlineSessions[i];
+            }
+        }
+        throw new RequestDeadline.ExceededException("Request deadline exceeded: " + remainingMs
+                + "ms left is less than the shortest call timeout of " + TIMEOUTS_MS[0] + "ms");
+    }
+}
@@ -0,0 +1,471 @@
+package com.aerospike.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.springframework.stereotype.Component;
+
+import com.aerospike.model.NumericRange;
+import com.aerospike.model.Product;
+
+/**
+ * In-process bitmap index over the product catalogue for the advanced search attributes.
+ * <p/>
+ * Every product gets an ordinal as it is added, and each attribute value keeps the set of
+ * ordinals of the products with that value. Like a roaring bitmap, a set is held as a sorted
+ * array while it is sparse and switches to a bitmap once that is smaller. A search intersects
+ * the sets of the selected values, returns the first ids to fetch with a batch get, and in
+ * the same pass counts the matches for every value of every attribute.
+ * <p/>
+ * The numeric bins are kept as a column per bin, indexed by ordinal, so range filters are
+ * applied to the candidates by a scan of the column. The sizes of the sets and the number of
+ * values in a range also give the query planner exact selectivities to pick an index with.
+ * <p/>
+ * A removed product keeps its ordinal, which is marked removed and left out of every result.
+ * A changed product is removed and added again under a new ordinal. Once a quarter of the
+ * ordinals are removed, the live products are given new ordinals in the same order and the
+ * removed ones are dropped.
+ * <p/>
+ * The index is only used while it describes the whole catalogue. It is marked complete with the
+ * catalogue version it was built at, when a load stored every product without error or all the
+ * data was cleared, and searches check that version against the one in the database. Every load,
+ * import or clear by any instance moves the catalogue version on, so an instance whose index
+ * does not hold those products stops using it until it is rebuilt.
+ */
+@Component
+public class FacetIndex {
+
+    public static final List<String> ATTRIBUTES = List.of("category", "articleType", "usage", "brandName");
+
+    private static final long INCOMPLETE = Long.MIN_VALUE;
+    private static final int MIN_REMOVED_TO_COMPACT = 64;
+
+    private final List<String> productIds = new ArrayList<>();
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final Map<String, Map<String, Postings>> postings = new HashMap<>();
+    private final Map<String, long[]> numericColumns = new HashMap<>();
+    private final BitSet removed = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile long completeVersion = INCOMPLETE;
+
+    /**
+     * The ordinals of the products with one attribute value
+     */
+    private static class Postings {
+        private int[] array = new int[4];
+        private int size = 0;
+        private BitSet bitmap = null;
+
+        void add(int ordinal, int universe) {
+            if (bitmap != null) {
+                bitmap.set(ordinal);
+                return;
+            }
+            // Ordinals are handed out in increasing order, so appending keeps the array sorted
+            if (size == array.length) {
+                array = Arrays.copyOf(array, size * 2);
+            }
+            array[size++] = ordinal;
+            // An int per entry is larger than a bit per product past 1/32 of the catalogue
+            if (size * 32L > universe && size > 64) {
+                bitmap = new BitSet(universe);
+                for (int i = 0; i < size; i++) {
+                    bitmap.set(array[i]);
+                }
+                array = null;
+            }
+        }
+
+        void andInto(BitSet target) {
+            if (bitmap != null) {
+                target.and(bitmap);
+                return;
+            }
+            BitSet matches = new BitSet();
+            for (int i = 0; i < size; i++) {
+                if (target.get(array[i])) {
+                    matches.set(array[i]);
+                }
+            }
+            target.and(matches);
+        }
+
+        int size() {
+            return bitmap != null ? bitmap.cardinality() : size;
+        }
+
+        /**
+         * The postings with each ordinal mapped to its new ordinal, leaving out those mapped to -1.
+         * New ordinals are in the same order as the old, so the array stays sorted.
+         */
+        Postings remap(int[] newOrdinals, int universe) {
+            Postings result = new Postings();
+            if (bitmap != null) {
+                for (int i = bitmap.nextSetBit(0); i >= 0; i = bitmap.nextSetBit(i + 1)) {
+                    if (newOrdinals[i] >= 0) {
+                        result.add(newOrdinals[i], universe);
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (newOrdinals[array[i]] >= 0) {
+                        result.add(newOrdinals[array[i]], universe);
+                    }
+                }
+            }
+            return result;
+        }
+
+        int cardinalityAnd(BitSet base, BitSet scratch) {
+            if (bitmap != null) {
+                scratch.clear();
+                scratch.or(bitmap);
+                scratch.and(base);
+                return scratch.cardinality();
+            }
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (base.get(array[i])) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The result of a search: the first ids to fetch, how many products matched in total,
+     * and per attribute the number of matches for each of its values
+     */
+    public static class Result {
+        private final List<String> productIds;
+        private final int totalMatches;
+        private final Map<String, Map<String, Integer>> facetCounts;
+
+        Result(List<String> productIds, int totalMatches, Map<String, Map<String, Integer>> facetCounts) {
+            this.productIds = productIds;
+            this.totalMatches = totalMatches;
+            this.facetCounts = facetCounts;
+        }
+
+        public List<String> getProductIds() {
+            return productIds;
+        }
+
+        public int getTotalMatches() {
+            return totalMatches;
+        }
+
+        public Map<String, Map<String, Integer>> getFacetCounts() {
+            return facetCounts;
+        }
+    }
+
+    public FacetIndex() {
+        for (String attribute : ATTRIBUTES) {
+            postings.put(attribute, new HashMap<>());
+        }
+        for (String binName : NumericRange.BINS) {
+            numericColumns.put(binName, new long[1024]);
+        }
+    }
+
+    /**
+     * Whether the index held the whole catalogue at some version, so its sizes can guide the
+     * query planner even if it is out of date
+     */
+    public boolean isComplete() {
+        return completeVersion != INCOMPLETE;
+    }
+
+    /**
+     * Whether the index holds the whole catalogue at this version, so searches can be answered
+     * from it
+     */
+    public boolean isCurrent(long catalogueVersion) {
+        long version = completeVersion;
+        return version != INCOMPLETE && version == catalogueVersion;
+    }
+
+    /**
+     * Mark the index as holding the whole catalogue at this version
+     */
+    public void markComplete(long catalogueVersion) {
+        this.completeVersion = catalogueVersion;
+    }
+
+    public void markIncomplete() {
+        this.completeVersion = INCOMPLETE;
+    }
+
+    /**
+     * Remove all products, leaving the index incomplete until it is marked complete again
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            productIds.clear();
+            ordinals.clear();
+            postings.values().forEach(Map::clear);
+            removed.clear();
+            completeVersion = INCOMPLETE;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void add(Product product) {
+        lock.writeLock().lock();
+        try {
+            // A changed product is removed first, so there is nothing to do if it is known
+            if (ordinals.containsKey(product.getId())) {
+                return;
+            }
+            int ordinal = productIds.size();
+            productIds.add(product.getId());
+            ordinals.put(product.getId(), ordinal);
+            addValue("category", product.getCategory(), ordinal);
+            addValue("articleType", product.getArticleType(), ordinal);
+            addValue("usage", product.getUsage(), ordinal);
+            addValue("brandName", product.getBrandName(), ordinal);
+            for (String binName : NumericRange.BINS) {
+                long[] column = numericColumns.get(binName);
+                if (ordinal == column.length) {
+                    column = Arrays.copyOf(column, column.length * 2);
+                    numericColumns.put(binName, column);
+                }
+                column[ordinal] = NumericRange.valueOf(product, binName);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove a product, for example one that was deleted or is about to be added again with changes
+     */
+    public void remove(String productId) {
+        lock.writeLock().lock();
+        try {
+            Integer ordinal = ordinals.remove(productId);
+            if (ordinal != null) {
+                removed.set(ordinal);
+                int removedCount = removed.cardinality();
+                if (removedCount >= MIN_REMOVED_TO_COMPACT && removedCount * 4L >= productIds.size()) {
+                    compact();
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Give the live products new ordinals in the same order, dropping the removed ones. Called
+     * with the write lock held.
+     */
+    private void compact() {
+        int size = productIds.size();
+        int[] newOrdinals = new int[size];
+        List<String> liveIds = new ArrayList<>(size - removed.cardinality());
+        for (int i = 0; i < size; i++) {
+            if (removed.get(i)) {
+                newOrdinals[i] = -1;
+            } else {
+                newOrdinals[i] = liveIds.size();
+                liveIds.add(productIds.get(i));
+            }
+        }
+        int liveSize = liveIds.size();
+
+        for (Map<String, Postings> values : postings.values()) {
+            values.replaceAll((value, valuePostings) -> valuePostings.remap(newOrdinals, liveSize));
+            values.values().removeIf(valuePostings -> valuePostings.size() == 0);
+        }
+        for (Entry<String, long[]> column : numericColumns.entrySet()) {
+            long[] values = column.getValue();
+            long[] liveValues = new long[Math.max(1024, values.length)];
+            for (int i = 0; i < size; i++) {
+                if (newOrdinals[i] >= 0) {
+                    liveValues[newOrdinals[i]] = values[i];
+                }
+            }
+            column.setValue(liveValues);
+        }
+        productIds.clear();
+        productIds.addAll(liveIds);
+        ordinals.clear();
+        for (int i = 0; i < liveSize; i++) {
+            ordinals.put(liveIds.get(i), i);
+        }
+        removed.clear();
+    }
+
+    private void addValue(String attribute, String value, int ordinal) {
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        postings.get(attribute)
+                .computeIfAbsent(value, v -> new Postings())
+                .add(ordinal, productIds.size());
+    }
+
+    /**
+     * Find the products matching all the passed attribute values. Empty values are not filtered on.
+     * The facet counts of an attribute apply the filters on the other attributes only, so they
+     * show how many products each value would give if it was selected instead.
+     *
+     * @param filters Attribute name to required value
+     * @param count Maximum number of product ids to return
+     * @return The matching product ids and the facet counts
+     */
+    public Result search(Map<String, String> filters, int count) {
+        return search(filters, List.of(), count);
+    }
+
+    /**
+     * Find the products matching all the passed attribute values and in all the passed ranges.
+     * The ranges apply to the facet counts of every attribute.
+     *
+     * @param filters Attribute name to required value
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of product ids to return
+     * @return The matching product ids and the facet counts
+     */
+    public Result search(Map<String, String> filters, List<NumericRange> ranges, int count) {
+        lock.readLock().lock();
+        try {
+            BitSet inRanges = inRanges(ranges);
+            BitSet matches = intersect(filters, null, inRanges);
+            List<String> ids = new ArrayList<>();
+            for (int i = matches.nextSetBit(0); i >= 0 && ids.size() < count; i = matches.nextSetBit(i + 1)) {
+                ids.add(productIds.get(i));
+            }
+
+            Map<String, Map<String, Integer>> facetCounts = new HashMap<>();
+            BitSet scratch = new BitSet(productIds.size());
+            for (String attribute : ATTRIBUTES) {
+                BitSet base = isFiltered(filters, attribute) ? intersect(filters, attribute, inRanges) : matches;
+                Map<String, Integer> counts = new TreeMap<>();
+                for (Entry<String, Postings> entry : postings.get(attribute).entrySet()) {
+                    int valueCount = entry.getValue().cardinalityAnd(base, scratch);
+                    if (valueCount > 0) {
+                        counts.put(entry.getKey(), valueCount);
+                    }
+                }
+                facetCounts.put(attribute, counts);
+            }
+            return new Result(ids, matches.cardinality(), facetCounts);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The number of products with this attribute value, or -1 if the index is not complete
+     */
+    public int estimateMatches(String attribute, String value) {
+        lock.readLock().lock();
+        try {
+            if (!isComplete()) {
+                return -1;
+            }
+            Postings valuePostings = postings.get(attribute).get(value);
+            if (valuePostings == null) {
+                return 0;
+            }
+            if (!removed.isEmpty()) {
+                return valuePostings.cardinalityAnd(live(), new BitSet(productIds.size()));
+            }
+            return valuePostings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The number of products in this range, or -1 if the index is not complete
+     */
+    public int estimateMatches(NumericRange range) {
+        lock.readLock().lock();
+        try {
+            if (!isComplete()) {
+                return -1;
+            }
+            long[] column = numericColumns.get(range.getBinName());
+            int count = 0;
+            for (int i = 0; i < productIds.size(); i++) {
+                if (range.matches(column[i]) && !removed.get(i)) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The products in all the ranges, or null if there are no ranges
+     */
+    private BitSet inRanges(List<NumericRange> ranges) {
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        BitSet result = live();
+        for (NumericRange range : ranges) {
+            long[] column = numericColumns.get(range.getBinName());
+            for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+                if (!range.matches(column[i])) {
+                    result.clear(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The ordinals of the products which have not been removed
+     */
+    private BitSet live() {
+        BitSet result = new BitSet(productIds.size());
+        result.set(0, productIds.size());
+        result.andNot(removed);
+        return result;
+    }
+
+    private boolean isFiltered(Map<String, String> filters, String attribute) {
+        String value = filters.get(attribute);
+        return value != null && !value.isEmpty();
+    }
+
+    /**
+     * Intersect the sets of all the filtered values and the ranges, leaving out the filter on one attribute
+     */
+    private BitSet intersect(Map<String, String> filters, String excludedAttribute, BitSet inRanges) {
+        BitSet result = live();
+        if (inRanges != null) {
+            result.and(inRanges);
+        }
+        for (String attribute : ATTRIBUTES) {
+            if (attribute.equals(excludedAttribute) || !isFiltered(filters, attribute)) {
+                continue;
+            }
+            Postings valuePostings = postings.get(attribute).get(filters.get(attribute));
+            if (valuePostings == null) {
+                result.clear();
+                return result;
+            }
+            valuePostings.andInto(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,193 @@
+package com.aerospike.service;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.Replica;
+
+/**
+ * Speculative hedged reads for single record lookups.
+ * <p/>
+ * The first read is sent as normal. If it has not answered within a percentile of the recent
+ * first read latencies, a second read is sent and whichever answers first wins. The second
+ * read uses the {@link #hedgePolicy(Policy) hedge policy}, which moves on to the replica when
+ * the master does not answer. A slow node, for example one in a GC pause or migrating, then only costs the threshold
+ * rather than the full read time. The threshold is not known until enough reads have been
+ * timed, so no read is hedged before that.
+ * <p/>
+ * The reads run on virtual threads so the caller can stop waiting for the first one. Each
+ * read must carry its own timeout, as the request deadline of the calling thread is not seen
+ * by the virtual thread. Hedging is off unless enabled, in which case every read is passed
+ * straight through.
+ */
+public class HedgedReads {
+
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final int RECOMPUTE_EVERY = 128;
+
+    private final boolean enabled;
+    private final double percentile;
+    private final long minDelayNanos;
+    private final ExecutorService executor;
+    private final long[] latencies = new long[SAMPLES];
+    private long sampleCount = 0;
+    private volatile long thresholdNanos = -1;
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+
+    /**
+     * @param enabled Whether to hedge reads at all
+     * @param percentile The percentile of the first read latency to hedge after, for example 95
+     * @param minDelayMs The shortest time to wait before hedging, whatever the percentile is
+     */
+    public HedgedReads(boolean enabled, double percentile, long minDelayMs) {
+        this.enabled = enabled;
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMs);
+        this.executor = enabled ? Executors.newVirtualThreadPerTaskExecutor() : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Make a copy of a read policy into the policy for a hedge. SEQUENCE sends each attempt to
+     * the next copy of the record, so the hedge is given a retry for it to go to the replica
+     * if the master does not answer. The key is not sent, as a read does not need it.
+     */
+    public static Policy hedgePolicy(Policy policy) {
+        policy.replica = Replica.SEQUENCE;
+        policy.maxRetries = Math.max(policy.maxRetries, 1);
+        policy.sendKey = false;
+        return policy;
+    }
+
+    /**
+     * Run the read, hedging it if it is slow
+     * @param primary The first read
+     * @param hedge The read to send to a replica if the first one is slow
+     * @return The first successful answer
+     */
+    public <T> T read(Supplier<T> primary, Supplier<T> hedge) {
+        if (!enabled) {
+            return primary.get();
+        }
+        reads.increment();
+        long startTime = System.nanoTime();
+        CompletableFuture<T> first = CompletableFuture.supplyAsync(primary, executor);
+        first.whenComplete((result, e) -> {
+            if (e == null) {
+                recordLatency(System.nanoTime() - startTime);
+            }
+        });
+
+        long threshold = thresholdNanos;
+        if (threshold < 0) {
+            return join(first);
+        }
+        try {
+            return first.get(Math.max(threshold, minDelayNanos), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Slow, so hedge below
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for read", e);
+        }
+
+        hedges.increment();
+        CompletableFuture<T> second = CompletableFuture.supplyAsync(hedge, executor);
+        // Take the first successful answer, failing only if both reads fail
+        CompletableFuture<T> winner = new CompletableFuture<>();
+        AtomicInteger failures = new AtomicInteger();
+        first.whenComplete((result, e) -> {
+            if (e == null) {
+                winner.complete(result);
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(e);
+            }
+        });
+        second.whenComplete((result, e) -> {
+            if (e == null) {
+                if (winner.complete(result)) {
+                    hedgeWins.increment();
+                }
+            } else if (failures.incrementAndGet() == 2) {
+                winner.completeExceptionally(e);
+            }
+        });
+        return join(winner);
+    }
+
+    private <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    private RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new RuntimeException("Failed to read: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Keep the latency of a first read, re-working out the threshold every so often
+     */
+    private synchronized void recordLatency(long latencyNanos) {
+        latencies[(int) (sampleCount % SAMPLES)] = latencyNanos;
+        sampleCount++;
+        if (sampleCount == MIN_SAMPLES || (sampleCount > MIN_SAMPLES && sampleCount % RECOMPUTE_EVERY == 0)) {
+            long[] sorted = Arrays.copyOf(latencies, (int) Math.min(sampleCount, SAMPLES));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            thresholdNanos = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+        }
+    }
+
+    public void close() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /**
+     * @return The current time to wait before hedging in milliseconds, or -1 until it is known
+     */
+    public double getThresholdMs() {
+        long threshold = thresholdNanos;
+        return threshold < 0 ? -1 : Math.max(threshold, minDelayNanos) / 1_000_000.0;
+    }
+}
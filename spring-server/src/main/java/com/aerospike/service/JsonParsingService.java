@@ -2,10 +2,12 @@ package com.aerospike.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -29,8 +31,23 @@ public class JsonParsingService {
      * @throws IOException if file cannot be read or parsed
      */
     public Map<String, Object> parseProductFile(String filePath) throws IOException {
-        JsonNode rootNode = objectMapper.readTree(new File(filePath));
-        JsonNode dataNode = rootNode.get("data");
+        return parseProductNode(objectMapper.readTree(new File(filePath)));
+    }
+
+    /**
+     * Parse a single product from the JSON of a style file held in memory, for example a
+     * record of a packed catalogue
+     * 
+     * @param json The JSON of the style file
+     * @return Map containing product data
+     * @throws IOException if the JSON cannot be parsed
+     */
+    public Map<String, Object> parseProductRecord(ByteBuffer json) throws IOException {
+        return parseProductNode(objectMapper.readTree(new ByteBufferBackedInputStream(json.duplicate())));
+    }
+
+    private Map<String, Object> parseProductNode(JsonNode rootNode) throws IOException {
+        JsonNode dataNode = rootNode == null ? null : rootNode.get("data");
         
         if (dataNode == null) {
             throw new IOException("Invalid JSON structure - missing 'data' node");
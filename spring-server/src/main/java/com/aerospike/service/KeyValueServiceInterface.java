@@ -1,11 +1,16 @@
 package com.aerospike.service;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import com.aerospike.model.Cart;
+import com.aerospike.model.NumericRange;
 import com.aerospike.model.Product;
+import com.aerospike.model.ProductMetadata;
+import com.aerospike.model.ProductSort;
 
 /**
  * Interface for KeyValue operations
@@ -31,6 +36,47 @@ public interface KeyValueServiceInterface {
      */
     QueryResult query(String index, String filterValue, int count);
 
+    /**
+     * Performs a secondary index query, passing each product to the consumer as it is read
+     * rather than holding the whole result in memory
+     * @param index Index name to query
+     * @param filterValue Value to filter on
+     * @param count Maximum number of results to return, or 0 for all of them
+     * @param consumer Called with each product, on the calling thread
+     */
+    default void streamQuery(String index, String filterValue, int count, Consumer<Product> consumer) {
+        query(index, filterValue, count).getProducts().forEach(consumer);
+    }
+
+    /**
+     * Starts a secondary index query, returning a cursor which reads the products as they are
+     * pulled. This default runs the whole query first; implementations should read as pulled.
+     * @param index Index name to query
+     * @param filterValue Value to filter on
+     * @param count Maximum number of results to return, or 0 for all of them
+     * @return The products, which must be closed
+     */
+    default ProductCursor openQuery(String index, String filterValue, int count) {
+        return ProductCursor.of(query(index, filterValue, count).getProducts());
+    }
+
+    /**
+     * Performs a secondary index query and returns the first products in the given sort order.
+     * The products are streamed through a bounded heap, so this is O(n log count) and only
+     * holds count products, rather than reading and sorting the whole result.
+     * @param index Index name to query
+     * @param filterValue Value to filter on
+     * @param sort The order to return the products in
+     * @param count Maximum number of results to return
+     * @return QueryResult containing the first products in sort order and execution time
+     */
+    default QueryResult sortedQuery(String index, String filterValue, ProductSort sort, int count) {
+        long startTime = System.currentTimeMillis();
+        TopK<Product> topProducts = new TopK<>(count, sort.getSortKey(), sort.isDescending());
+        streamQuery(index, filterValue, 0, topProducts);
+        return new QueryResult(topProducts.toList(), System.currentTimeMillis() - startTime);
+    }
+
     /**
      * Loads categories, subcategories, article types, usage, and brand names into metadata
      * @param category Category name
@@ -48,6 +94,13 @@ public interface KeyValueServiceInterface {
      */
     void createStringIndex(String binName, String indexName);
 
+    /**
+     * Creates a secondary index on an integer bin, for range queries
+     * @param binName Name of the bin to index
+     * @param indexName Name of the index to create
+     */
+    void createNumericIndex(String binName, String indexName);
+
     /**
      * Stores a product record in Aerospike
      * @param product Product data
@@ -55,6 +108,12 @@ public interface KeyValueServiceInterface {
      */
     void storeProduct(Product product);
 
+    /**
+     * Gets the categories, article types, usage types and brand names in one snapshot
+     * @return ProductMetadata containing all four lists
+     */
+    ProductMetadata getMetadata();
+
     /**
      * Gets all available categories
      * @return List of category names
@@ -91,12 +150,132 @@ public interface KeyValueServiceInterface {
      */
     QueryResult advancedSearch(String category, String articleType, String usage, String brandName, String searchText, int count);
 
+    /**
+     * Performs advanced search with multiple filters, passing each product to the consumer as
+     * it is read rather than holding the whole result in memory
+     * @param category Category filter
+     * @param articleType Article type filter
+     * @param usage Usage filter
+     * @param brandName Brand name filter
+     * @param searchText Text search filter
+     * @param count Maximum number of results, or 0 for all of them
+     * @param consumer Called with each product, on the calling thread
+     */
+    default void streamAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            int count, Consumer<Product> consumer) {
+        advancedSearch(category, articleType, usage, brandName, searchText, count).getProducts().forEach(consumer);
+    }
+
+    /**
+     * Performs advanced search with multiple filters, including ranges on the numeric bins.
+     * This default has no server side range filter, so it reads every match of the other
+     * filters and applies the ranges here. Implementations should push the ranges to the server.
+     * @param category Category filter
+     * @param articleType Article type filter
+     * @param usage Usage filter
+     * @param brandName Brand name filter
+     * @param searchText Text search filter
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results
+     * @return QueryResult containing matching products
+     */
+    default QueryResult advancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count) {
+        if (ranges.isEmpty()) {
+            return advancedSearch(category, articleType, usage, brandName, searchText, count);
+        }
+        long startTime = System.currentTimeMillis();
+        List<Product> products = new ArrayList<>();
+        streamAdvancedSearch(category, articleType, usage, brandName, searchText, ranges, count, products::add);
+        return new QueryResult(products, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Performs advanced search with multiple filters, including ranges on the numeric bins, passing
+     * each product to the consumer as it is read. Like the list version, this default applies the
+     * ranges here rather than on the server.
+     * @param category Category filter
+     * @param articleType Article type filter
+     * @param usage Usage filter
+     * @param brandName Brand name filter
+     * @param searchText Text search filter
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results, or 0 for all of them
+     * @param consumer Called with each product, on the calling thread
+     */
+    default void streamAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count, Consumer<Product> consumer) {
+        if (ranges.isEmpty()) {
+            streamAdvancedSearch(category, articleType, usage, brandName, searchText, count, consumer);
+            return;
+        }
+        int[] matched = {0};
+        streamAdvancedSearch(category, articleType, usage, brandName, searchText, 0, product -> {
+            if ((count <= 0 || matched[0] < count) && ranges.stream().allMatch(range -> range.matches(product))) {
+                matched[0]++;
+                consumer.accept(product);
+            }
+        });
+    }
+
+    /**
+     * Starts an advanced search with multiple filters, including ranges on the numeric bins,
+     * returning a cursor which reads the products as they are pulled. This default runs the
+     * whole search first; implementations should read as pulled.
+     * @param category Category filter
+     * @param articleType Article type filter
+     * @param usage Usage filter
+     * @param brandName Brand name filter
+     * @param searchText Text search filter
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results, or 0 for all of them
+     * @return The products, which must be closed
+     */
+    default ProductCursor openAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count) {
+        return ProductCursor.of(advancedSearch(category, articleType, usage, brandName, searchText, ranges, count).getProducts());
+    }
+
     /**
      * Gets the total number of products in the database
      * @return Total product count
      */
     int getProductCount();
 
+    /**
+     * Whether any product is stored. Unlike the product count, which may be estimated or
+     * cached, this is always read from the database.
+     */
+    default boolean hasProducts() {
+        return getProductCount() > 0;
+    }
+
+    /**
+     * Gets the catalogue version, which every load, import or clear of the products moves on,
+     * so an instance can tell whether products were written since it built its facet index.
+     * It is odd while a change is being written, see {@link CatalogueVersion}.
+     * @return The version, or -1 if this implementation does not keep one
+     */
+    default long getCatalogueVersion() {
+        return -1;
+    }
+
+    /**
+     * Moves the catalogue version to the next odd number, before writing products
+     * @return The new version, or -1 if this implementation does not keep one
+     */
+    default long beginCatalogueChange() {
+        return -1;
+    }
+
+    /**
+     * Moves the catalogue version to the next even number, after writing products
+     * @return The new version, or -1 if this implementation does not keep one
+     */
+    default long endCatalogueChange() {
+        return -1;
+    }
+
     // Cart operations
     /**
      * Gets the shopping cart for a user
@@ -114,6 +293,14 @@ public interface KeyValueServiceInterface {
      */
     Cart addToCart(String userId, String productId, int quantity);
 
+    /**
+     * Adds several items to the shopping cart in a single cart write
+     * @param userId User identifier
+     * @param items Map of product identifier to quantity to add
+     * @return CartResponse with updated cart
+     */
+    Cart addItemsToCart(String userId, Map<String, Integer> items);
+
     /**
      * Updates the quantity of an item in the cart
      * @param userId User identifier
@@ -144,10 +331,16 @@ public interface KeyValueServiceInterface {
     class QueryResult {
         private final List<Product> products;
         private final Long timeMs;
+        private final Map<String, Map<String, Integer>> facetCounts;
 
         public QueryResult(List<Product> products, Long timeMs) {
+            this(products, timeMs, null);
+        }
+
+        public QueryResult(List<Product> products, Long timeMs, Map<String, Map<String, Integer>> facetCounts) {
             this.products = products;
             this.timeMs = timeMs;
+            this.facetCounts = facetCounts;
         }
 
         public List<Product> getProducts() {
@@ -157,6 +350,14 @@ public interface KeyValueServiceInterface {
         public Long getTimeMs() {
             return timeMs;
         }
+
+        /**
+         * Per attribute, the number of matching products for each value, or null if the
+         * search was not answered from the facet index
+         */
+        public Map<String, Map<String, Integer>> getFacetCounts() {
+            return facetCounts;
+        }
     }
     
     default String asNonNullString(String orig) {
@@ -1,5 +1,6 @@
 package com.aerospike.service;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,7 +12,9 @@ import org.springframework.stereotype.Service;
 import com.aerospike.Cluster;
 import com.aerospike.ClusterDefinition;
 import com.aerospike.DataSet;
+import com.aerospike.OperationBuilder;
 import com.aerospike.RecordMapper;
+import com.aerospike.RecordStream;
 import com.aerospike.RecordStream.ObjectWithMetadata;
 import com.aerospike.Session;
 import com.aerospike.TypeSafeDataSet;
@@ -22,12 +25,12 @@ import com.aerospike.client.Record;
 import com.aerospike.client.Value;
 import com.aerospike.client.cdt.MapOrder;
 import com.aerospike.client.query.IndexType;
-import com.aerospike.client.query.KeyRecord;
 import com.aerospike.config.ClientConfiguration;
 import com.aerospike.exception.GenerationException;
 import com.aerospike.model.Cart;
 import com.aerospike.model.CartItem;
 import com.aerospike.model.Product;
+import com.aerospike.model.ProductMetadata;
 import com.aerospike.policy.Behavior;
 
 import jakarta.annotation.PreDestroy;
@@ -46,7 +49,6 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
     private static final String PRODUCT_SET = "products";
     private static final String CARTS_SET = "shopping_carts";
     private static final String CATEGORY_SET = "cat_index";
-    private static final String CATEGORY_KEY = "product_meta";
 
     private final Cluster aerospikeCluster;
     
@@ -57,6 +59,7 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
     private final ProductMapper productMapper = new ProductMapper();
     private final CartItemMapper cartItemMapper = new CartItemMapper();
     private final CartMapper cartMapper = new CartMapper();
+    private volatile ProductMetadata metadata = ProductMetadata.EMPTY;
     
     public KeyValueServiceNewClient(ClientConfiguration config) {
         // =================================================================================
@@ -396,10 +399,38 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
             return resultCart;
         }  catch (Exception e) {
             System.err.println("Error adding to cart: " + e.getMessage());
-            throw new RuntimeException("Failed to add item to cart: " + e.getMessage());
+            throw new RuntimeException("Failed to add item to cart: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Add several products to the cart at once
+     * 
+     * @param userId - the user whose cart is to be updated
+     * @param items - map of productId -> quantity to add
+     * @return the updated cart
+     */
+    public Cart addItemsToCart(String userId, Map<String, Integer> items) {
+        // =================================================================================
+        // TODO: EXTENSION: ADD SEVERAL ITEMS IN ONE OPERATION
+        // =================================================================================
+        // This adds the items one at a time, which is one read and one write per item.
+        //
+        // Your goal is to:
+        //  - Read all the products in one batch read
+        //  - Read the cart once, then apply every increment / put to the ITEMS_BIN in a single
+        //    operation, checking the generation as in STEP 7
+        //  - Retry if another request changed (or created) the cart in between
+        // =================================================================================
+        Cart cart = getCart(userId);
+        if (items != null) {
+            for (Entry<String, Integer> entry : items.entrySet()) {
+                cart = addToCart(userId, entry.getKey(), entry.getValue());
+            }
+        }
+        return cart;
+    }
+
     /**
      * Remove all items from the cart of the passed userid
      * @param userId - the user whose cart is to be cleared
@@ -412,7 +443,7 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
             return new Cart();
         } catch (Exception e) {
             System.err.println("Error clearing cart: " + e.getMessage());
-            throw new RuntimeException("Failed to clear cart: " + e.getMessage());
+            throw new RuntimeException("Failed to clear cart: " + e.getMessage(), e);
         }
     }
     
@@ -448,7 +479,7 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
                     });
         } catch (Exception e) {
             System.err.println("Error updating cart item: " + e.getMessage());
-            throw new RuntimeException("Failed to update cart item: " + e.getMessage());
+            throw new RuntimeException("Failed to update cart item: " + e.getMessage(), e);
         }
     }
 
@@ -473,7 +504,41 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
     public void clearAllData() {
         session.truncate(cartDataSet);
         session.truncate(productDataSet);
-        session.delete(categoryDataSet.id(CATEGORY_KEY));
+        session.truncate(categoryDataSet);
+        metadata = ProductMetadata.EMPTY;
+    }
+
+    /**
+     * Get the product metadata snapshot. A batch header-only read of the metadata shards
+     * gives their version, and the shards are only read and merged again if it has changed
+     * since the snapshot held by this instance was built.
+     * 
+     * @return The current product metadata
+     */
+    public ProductMetadata getMetadata() {
+        List<Key> keys = categoryDataSet.ids(CategoryMetadataKeys.allShards());
+        int[] version = ProductMetadata.versionOf(inShardOrder(keys, session.query(keys).withNoBins().execute()));
+        if (ProductMetadata.isMissing(version)) {
+            metadata = ProductMetadata.EMPTY;
+            return metadata;
+        }
+        ProductMetadata current = metadata;
+        if (current.hasVersion(version)) {
+            return current;
+        }
+        current = ProductMetadata.fromShards(inShardOrder(keys, session.query(keys).execute()));
+        metadata = current;
+        return current;
+    }
+
+    /**
+     * The shard records in shard order, with a null for a shard which does not exist, as the
+     * stream leaves out the records it did not find. The version then lines up shard by shard.
+     */
+    private Record[] inShardOrder(List<Key> keys, RecordStream stream) {
+        Record[] shards = new Record[keys.size()];
+        stream.stream().forEach(kr -> shards[keys.indexOf(kr.key)] = kr.record);
+        return shards;
     }
 
     /**
@@ -481,36 +546,17 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
      * 
      * @return List of category names
      */
-    @SuppressWarnings("unchecked")
     public List<String> getCategories() {
-        Optional<KeyRecord> result = session.upsert(categoryDataSet.id(CATEGORY_KEY))
-                .bin("categories").onMapKeyRange("A", "Z").getKeys()
-                .execute()
-                .getFirst();
-        return result.map(kr -> (List<String>)kr.record.getList("categories"))
-                .orElseGet(List::of);
+        return getMetadata().getCategories();
     }
 
-    @SuppressWarnings("unchecked")
-    private List<String> getCategoryPart(String bin) {
-        return session.query(categoryDataSet.id(CATEGORY_KEY))
-                .readingOnlyBins(bin)
-                .execute()
-                .getFirst()
-                .map(kr -> ((List<String>)kr.record.getList(bin))
-                        .stream()
-                        .filter(cat -> !cat.isEmpty() && !cat.equals("NA"))
-                        .toList()
-                )
-                .orElseGet(List::of);
-    }
     /**
      * Get all article types from the category metadata record
      * 
      * @return List of article type names
      */
     public List<String> getArticleTypes() {
-        return getCategoryPart("articleTypes");
+        return getMetadata().getArticleTypes();
     }
     
     /**
@@ -519,7 +565,7 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
      * @return List of usage names
      */
     public List<String> getUsage() {
-        return getCategoryPart("usage");
+        return getMetadata().getUsage();
     }
 
     /**
@@ -528,11 +574,13 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
      * @return List of brand names
      */
     public List<String> getBrandNames() {
-        return getCategoryPart("brandNames");
+        return getMetadata().getBrandNames();
     }
 
     /**
-     * Load categories and article types to a meta record
+     * Load categories and article types to the sharded metadata records. The sub-category
+     * count goes to the record of its category, and each name is appended to the shard its
+     * hash maps to and counted there, see {@link CategoryMetadataCounts}.
      * 
      * @param category Category name
      * @param subCategory Subcategory name
@@ -541,12 +589,22 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
      * @param brandName Brand name
      */
     public void loadCategories(String category, String subCategory, String articleType, String usage, String brandName) {
-        session.upsert(categoryDataSet.id(CATEGORY_KEY))
-            .bin("categories").onMapKey(category,MapOrder.KEY_ORDERED).onMapKey(subCategory).add(1)
-            .bin("articleTypes").listAppendUnique(articleType, true)
-            .bin("usage").listAppendUnique(usage, true)
-            .bin("brandNames").listAppendUnique(brandName, true)
-            .execute();
+        // Group the operations by the record they go to, as several names can hash to the same shard
+        Map<String, OperationBuilder> writes = new LinkedHashMap<>();
+        String categoryRecord = CategoryMetadataKeys.categoryRecord(category);
+        writes.put(categoryRecord, session.upsert(categoryDataSet.id(categoryRecord)));
+        writes.get(categoryRecord).bin("subCategories").onMapKey(subCategory).add(1);
+        appendToShard(writes, "categories", category);
+        appendToShard(writes, "articleTypes", articleType);
+        appendToShard(writes, "usage", usage);
+        appendToShard(writes, "brandNames", brandName);
+        writes.values().forEach(OperationBuilder::execute);
+    }
+
+    private void appendToShard(Map<String, OperationBuilder> writes, String binName, String value) {
+        writes.computeIfAbsent(CategoryMetadataKeys.shardFor(value), shard -> session.upsert(categoryDataSet.id(shard)))
+            .bin(binName).listAppendUnique(value, true)
+            .bin(CategoryMetadataCounts.COUNTS_BIN).onMapKey(binName, MapOrder.KEY_ORDERED).onMapKey(value).add(1);
     }
 
     /**
@@ -563,6 +621,21 @@ public class KeyValueServiceNewClient implements KeyValueServiceInterface {
             System.out.println("Index " + indexName + " already exists or failed to create: " + e.getMessage());
         }
     }
+
+    /**
+     * Create a numeric secondary index on the specified bin, for range queries
+     * 
+     * @param binName Name of the bin to index
+     * @param indexName Name of the index to create
+     */
+    public void createNumericIndex(String binName, String indexName) {
+        try {
+            session.info().createIndex(null, NAMESPACE, PRODUCT_SET, indexName, binName, IndexType.NUMERIC);
+        } catch (AerospikeException e) {
+            // Index already exists or other error - fail gracefully
+            System.out.println("Index " + indexName + " already exists or failed to create: " + e.getMessage());
+        }
+    }
     
     /**
      * Cleanup method called when the service is destroyed
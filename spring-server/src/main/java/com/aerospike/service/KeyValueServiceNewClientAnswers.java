@@ -1,9 +1,13 @@
 package com.aerospike.service;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
@@ -11,24 +15,51 @@ import org.springframework.stereotype.Service;
 import com.aerospike.Cluster;
 import com.aerospike.ClusterDefinition;
 import com.aerospike.DataSet;
-import com.aerospike.RecordMapper;
+import com.aerospike.OperationBuilder;
+import com.aerospike.RecordStream;
 import com.aerospike.Session;
 import com.aerospike.TypeSafeDataSet;
 import com.aerospike.RecordStream.ObjectWithMetadata;
 import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.BatchWrite;
+import com.aerospike.client.Bin;
 import com.aerospike.client.Key;
-import com.aerospike.client.Log;
 import com.aerospike.client.Log.Level;
+import com.aerospike.client.Operation;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
 import com.aerospike.client.Value;
+import com.aerospike.client.cdt.ListOperation;
+import com.aerospike.client.cdt.ListOrder;
+import com.aerospike.client.cdt.ListPolicy;
+import com.aerospike.client.cdt.ListWriteFlags;
+import com.aerospike.client.cdt.MapOperation;
 import com.aerospike.client.cdt.MapOrder;
+import com.aerospike.client.cdt.MapPolicy;
+import com.aerospike.client.cdt.MapWriteFlags;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.BatchWritePolicy;
+import com.aerospike.client.policy.Policy;
+import com.aerospike.client.policy.RecordExistsAction;
+import com.aerospike.client.policy.WritePolicy;
 import com.aerospike.client.query.IndexType;
 import com.aerospike.client.query.KeyRecord;
 import com.aerospike.config.ClientConfiguration;
-import com.aerospike.exception.GenerationException;
+import com.aerospike.info.classes.SindexDetail;
 import com.aerospike.model.Cart;
 import com.aerospike.model.CartItem;
+import com.aerospike.model.CartItemMapper;
+import com.aerospike.model.CartMapper;
+import com.aerospike.model.NumericRange;
 import com.aerospike.model.Product;
+import com.aerospike.model.ProductMapper;
+import com.aerospike.model.ProductMetadata;
+import com.aerospike.model.ProductSort;
+import com.aerospike.model.SnapshotRecord;
 import com.aerospike.policy.Behavior;
+import com.aerospike.policy.Behavior.CommandType;
+import com.aerospike.query.QueryBuilder;
 
 import jakarta.annotation.PreDestroy;
 
@@ -39,26 +70,44 @@ import jakarta.annotation.PreDestroy;
  */
 @Service
 @Profile("new-client-answers")
-public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface {
+public class KeyValueServiceNewClientAnswers implements CatalogueMaintenance {
 
     private static final String ITEMS_BIN = "items";
+    private static final String CREATED_AT_BIN = "createdAt";
     private static final String NAMESPACE = "test";
     private static final String PRODUCT_SET = "products";
     private static final String CARTS_SET = "shopping_carts";
     private static final String CATEGORY_SET = "cat_index";
-    private static final String CATEGORY_KEY = "product_meta";
+    private static final String CATALOGUE_SET = "catalogue";
+    private static final String CATALOGUE_VERSION_KEY = "version";
+    private static final String VERSION_BIN = "version";
+    private static final String[] QUERY_BINS = {"id", "name", "images", "brandName"};
 
     private final Cluster aerospikeCluster;
     
     private final TypeSafeDataSet<Product> productDataSet = new TypeSafeDataSet<>(NAMESPACE, PRODUCT_SET, Product.class);
     private final TypeSafeDataSet<CartItem> cartDataSet = new TypeSafeDataSet<>(NAMESPACE, CARTS_SET, CartItem.class);
     private final DataSet categoryDataSet = DataSet.of(NAMESPACE, CATEGORY_SET);
-    private final Session session;
+    private final DataSet catalogueDataSet = DataSet.of(NAMESPACE, CATALOGUE_SET);
+    private final DeadlineSessions sessions;
     private final ProductMapper productMapper = new ProductMapper();
     private final CartItemMapper cartItemMapper = new CartItemMapper();
     private final CartMapper cartMapper = new CartMapper();
+    private volatile ProductMetadata metadata = ProductMetadata.EMPTY;
+    private final CartCache cartCache;
+    private final FacetIndex facetIndex;
+    private final QueryResultCache queryResultCache;
+    private final HedgedReads hedgedReads;
+    private final BulkLoadBehavior bulkLoadBehavior;
+    private volatile Session bulkLoadSession;
     
-    public KeyValueServiceNewClientAnswers(ClientConfiguration config) {
+    public KeyValueServiceNewClientAnswers(ClientConfiguration config, CartCache cartCache, FacetIndex facetIndex,
+            QueryResultCache queryResultCache, HedgedReads hedgedReads, BulkLoadBehavior bulkLoadBehavior) {
+        this.cartCache = cartCache;
+        this.facetIndex = facetIndex;
+        this.queryResultCache = queryResultCache;
+        this.hedgedReads = hedgedReads;
+        this.bulkLoadBehavior = bulkLoadBehavior;
         ClusterDefinition definition = new ClusterDefinition(config.getHostname(), config.getPort())
                 .withNativeCredentials(config.getUserName(), config.getPassword())
                 .withLogLevel(Level.DEBUG);
@@ -71,7 +120,32 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
         }
         aerospikeCluster = definition.connect();
         
-        session = aerospikeCluster.createSession(Behavior.DEFAULT);
+        sessions = new DeadlineSessions(aerospikeCluster, Behavior.DEFAULT);
+    }
+
+    /**
+     * The session to make a call with, which keeps the call within the request deadline. Calls
+     * made by a catalogue load use the bulk load behavior instead.
+     */
+    private Session session() {
+        if (bulkLoadBehavior.isActive()) {
+            return bulkLoadSession();
+        }
+        return sessions.current();
+    }
+
+    /**
+     * The session for catalogue loads, made again when the bulk load behavior is reloaded from
+     * the behaviors file, as a reload registers a new behavior under the same name
+     */
+    private Session bulkLoadSession() {
+        Behavior behavior = bulkLoadBehavior.getBehavior();
+        Session session = bulkLoadSession;
+        if (session == null || session.getBehavior() != behavior) {
+            session = aerospikeCluster.createSession(behavior);
+            bulkLoadSession = session;
+        }
+        return session;
     }
 
     /**
@@ -82,9 +156,20 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * @return Map containing the product data
      */
     public Optional<Product> getProduct(String productId) {
-        return session.query(productDataSet.id(productId))
-                .execute()
-                .getFirst(productMapper);
+        if (!hedgedReads.isEnabled()) {
+            return session().query(productDataSet.id(productId))
+                    .execute()
+                    .getFirst(productMapper);
+        }
+        // Pick the session here, the reads run on other threads which do not see the request deadline
+        Session current = session();
+        Key key = productDataSet.id(productId);
+        // The hedge is a read with the client under the session, so it can have its own replica policy
+        Policy replicaPolicy = HedgedReads.hedgePolicy(current.getBehavior().getMutablePolicy(CommandType.READ_AP));
+        return hedgedReads.read(
+                () -> current.query(key).execute().getFirst(productMapper),
+                () -> Optional.ofNullable(current.getClient().get(replicaPolicy, key))
+                        .map(record -> productMapper.fromMap(record.bins, key, record.generation)));
     }
 
     /**
@@ -100,16 +185,80 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
     public KeyValueServiceInterface.QueryResult query(String index, String filterValue, int count) {
         long startTime = System.currentTimeMillis();
 
-        List<Product> products = session.query(productDataSet)
+        Optional<List<Product>> cachedProducts = queryResultCache.get(index, filterValue, count, QUERY_BINS);
+        if (cachedProducts.isPresent()) {
+            return new KeyValueServiceInterface.QueryResult(cachedProducts.get(), System.currentTimeMillis() - startTime);
+        }
+        long cacheEpoch = queryResultCache.getEpoch();
+
+        List<Product> products = session().query(productDataSet)
                 .where("$.%s == '%s'", index, filterValue)
-                .readingOnlyBins("id", "name", "images", "brandName")
+                .readingOnlyBins(QUERY_BINS)
                 .limit(count)
                 .execute()
                 .toObjectLlist(productMapper);
+        queryResultCache.put(cacheEpoch, index, filterValue, count, products, QUERY_BINS);
         
         return new KeyValueServiceInterface.QueryResult(products, System.currentTimeMillis() - startTime);
     }
 
+    /**
+     * Secondary index query on a specified index and filter, passing each product to the 
+     * consumer as it is read
+     * 
+     * @param index Index name to query
+     * @param filterValue Filter value to match
+     * @param count Maximum number of records to return, or 0 for all of them
+     * @param consumer Called with each product
+     */
+    public void streamQuery(String index, String filterValue, int count, Consumer<Product> consumer) {
+        streamProducts(indexQuery(index, filterValue, count), consumer);
+    }
+
+    /**
+     * Start a secondary index query on a specified index and filter, reading the products as
+     * they are pulled from the cursor
+     * 
+     * @param index Index name to query
+     * @param filterValue Filter value to match
+     * @param count Maximum number of records to return, or 0 for all of them
+     * @return The products, which must be closed
+     */
+    public ProductCursor openQuery(String index, String filterValue, int count) {
+        return productCursor(indexQuery(index, filterValue, count));
+    }
+
+    private QueryBuilder indexQuery(String index, String filterValue, int count) {
+        QueryBuilder query = session().query(productDataSet).where("$.%s == '%s'", index, filterValue);
+        if (count > 0) {
+            query.limit(count);
+        }
+        return query;
+    }
+
+    /**
+     * Secondary index query returning the first products in the given sort order. The records
+     * are kept in a bounded heap by their sort bin, compiled once per sort, and only the records
+     * kept are turned into products.
+     * 
+     * @param index Index name to query
+     * @param filterValue Filter value to match
+     * @param sort The order to return the products in
+     * @param count Maximum number of results to return
+     * @return QueryResult containing the first products in sort order and execution time
+     */
+    @Override
+    public KeyValueServiceInterface.QueryResult sortedQuery(String index, String filterValue, ProductSort sort, int count) {
+        long startTime = System.currentTimeMillis();
+        List<Product> products = new ArrayList<>();
+        try (RecordStream results = indexQuery(index, filterValue, 0).execute()) {
+            for (KeyRecord keyRecord : RecordSorter.of(sort).first(results, count)) {
+                products.add(productMapper.fromMap(keyRecord.record.bins, keyRecord.key, keyRecord.record.generation));
+            }
+        }
+        return new KeyValueServiceInterface.QueryResult(products, System.currentTimeMillis() - startTime);
+    }
+
 
     /**
      * Advanced search with multiple filters
@@ -123,6 +272,23 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * @return QueryResult containing filtered products
      */
     public KeyValueServiceInterface.QueryResult advancedSearch(String category, String articleType, String usage, String brandName, String searchText, int count) {
+        return advancedSearch(category, articleType, usage, brandName, searchText, List.of(), count);
+    }
+
+    /**
+     * Advanced search with multiple filters and ranges on the numeric bins
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results
+     * @return QueryResult containing filtered products
+     */
+    public KeyValueServiceInterface.QueryResult advancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count) {
         long startTime = System.currentTimeMillis();
 
         Map<String, String> indexes = Map.of(
@@ -131,19 +297,23 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
                 "usage", asNonNullString(usage), 
                 "brandName", asNonNullString(brandName));
 
-        String dsl = "";
-        for (Entry<String, String> thisEntry : indexes.entrySet()) {
-            if (!thisEntry.getValue().isEmpty()) {
-                if (!dsl.isEmpty()) {
-                    dsl += " and ";
-                }
-                dsl += String.format("$.%s == '%s'", thisEntry.getKey(), thisEntry.getValue());
-            }
+        if (facetIndex.isCurrent(getCatalogueVersion())) {
+            // Answer the filters from the in-process bitmaps and fetch just the products to show
+            FacetIndex.Result result = facetIndex.search(indexes, ranges, count);
+            List<Product> products = result.getProductIds().isEmpty() ? List.of() :
+                    session().query(productDataSet.ids(result.getProductIds()))
+                        .readingOnlyBins("id", "name", "images", "brandName")
+                        .execute()
+                        .toObjectLlist(productMapper);
+            return new KeyValueServiceInterface.QueryResult(products, System.currentTimeMillis() - startTime, 
+                    result.getFacetCounts());
         }
+
+        String dsl = advancedSearchDsl(indexes, ranges);
         
         System.out.println("DSL: " + dsl);
         
-        List<Product> products = session.query(productDataSet)
+        List<Product> products = session().query(productDataSet)
                 .where(dsl)
                 .limit(count)
                 .execute()
@@ -153,6 +323,120 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
         return new KeyValueServiceInterface.QueryResult(products, endTime);
     }
 
+    /**
+     * Advanced search with multiple filters, passing each product to the consumer as it is read
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param count Maximum number of results, or 0 for all of them
+     * @param consumer Called with each product
+     */
+    public void streamAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            int count, Consumer<Product> consumer) {
+        streamAdvancedSearch(category, articleType, usage, brandName, searchText, List.of(), count, consumer);
+    }
+
+    /**
+     * Advanced search with multiple filters and ranges on the numeric bins, passing each product 
+     * to the consumer as it is read
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results, or 0 for all of them
+     * @param consumer Called with each product
+     */
+    public void streamAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count, Consumer<Product> consumer) {
+        streamProducts(advancedSearchQuery(category, articleType, usage, brandName, ranges, count), consumer);
+    }
+
+    /**
+     * Start an advanced search with multiple filters and ranges on the numeric bins, reading
+     * the products as they are pulled from the cursor
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results, or 0 for all of them
+     * @return The products, which must be closed
+     */
+    public ProductCursor openAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count) {
+        return productCursor(advancedSearchQuery(category, articleType, usage, brandName, ranges, count));
+    }
+
+    private QueryBuilder advancedSearchQuery(String category, String articleType, String usage, String brandName,
+            List<NumericRange> ranges, int count) {
+        Map<String, String> indexes = Map.of(
+                "category", asNonNullString(category), 
+                "articleType", asNonNullString(articleType), 
+                "usage", asNonNullString(usage), 
+                "brandName", asNonNullString(brandName));
+
+        QueryBuilder query = session().query(productDataSet).where(advancedSearchDsl(indexes, ranges));
+        if (count > 0) {
+            query.limit(count);
+        }
+        return query;
+    }
+
+    /**
+     * Form a DSL string of the non-empty index filters passed. For example,
+     * if category == 'Footware' and brandName == 'Adidas' this will form
+     * "$.category == 'Footware' and $.brandName == 'Adidas'"
+     * Ranges add bounds like "$.price >= 100 and $.price <= 500". The DSL parser is given the 
+     * cluster's indexes with their cardinality, so it drives the query from whichever indexed
+     * bin is most selective, numeric or string, and filters on the rest.
+     */
+    private String advancedSearchDsl(Map<String, String> indexes, List<NumericRange> ranges) {
+        List<String> terms = new ArrayList<>();
+        for (Entry<String, String> thisEntry : indexes.entrySet()) {
+            if (!thisEntry.getValue().isEmpty()) {
+                terms.add(String.format("$.%s == '%s'", thisEntry.getKey(), thisEntry.getValue()));
+            }
+        }
+        for (NumericRange range : ranges) {
+            if (range.getMin() != null) {
+                terms.add(String.format("$.%s >= %d", range.getBinName(), range.getMin()));
+            }
+            if (range.getMax() != null) {
+                terms.add(String.format("$.%s <= %d", range.getBinName(), range.getMax()));
+            }
+        }
+        return String.join(" and ", terms);
+    }
+
+    /**
+     * Pass each product of the query to the consumer as it is read. Without a sort the
+     * RecordStream reads through a bounded queue, so a slow consumer holds back the reads
+     * from the server rather than the results building up in memory.
+     */
+    private void streamProducts(QueryBuilder query, Consumer<Product> consumer) {
+        try (ProductCursor cursor = productCursor(query)) {
+            cursor.forEachRemaining(consumer);
+        }
+    }
+
+    /**
+     * Run the query, reading the products as they are pulled from the cursor
+     */
+    private ProductCursor productCursor(QueryBuilder query) {
+        RecordStream results = query.execute();
+        return ProductCursor.of(results,
+                keyRecord -> productMapper.fromMap(keyRecord.record.bins, keyRecord.key, keyRecord.record.generation),
+                results::close);
+    }
+
     /**
      * Store a product record in Aerospike
      * 
@@ -160,25 +444,78 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * @param productId Product identifier
      */
     public void storeProduct(Product product) {
-        session.insertInto(productDataSet)
+        session().insertInto(productDataSet)
+                .object(product)
+                .using(productMapper)
+                .execute();
+        queryResultCache.invalidateAll();
+    }
+
+    /**
+     * Store a product, overwriting the mapped bins if it is already stored
+     * @param product Product data
+     */
+    public void replaceProduct(Product product) {
+        session().upsert(productDataSet)
                 .object(product)
                 .using(productMapper)
                 .execute();
+        queryResultCache.invalidateAll();
+    }
+
+    /**
+     * Delete a product
+     * @param productId Product identifier
+     * @return Whether the product was stored
+     */
+    public boolean deleteProduct(String productId) {
+        List<Boolean> deleted = session().delete(productDataSet.id(productId)).execute();
+        queryResultCache.invalidateAll();
+        return !deleted.isEmpty() && deleted.get(0);
     }
 
     // Cart operations
     /**
      * Get the user's shopping cart. If the cart does not exist in the database, return 
      * a new cart.
+     * <p/>
+     * If this instance has already deserialized the cart, a read of just the creation time bin
+     * checks the record generation and creation time, and the cached cart is returned if the
+     * record has not changed since.
      * @param userId - THe user whose cart is to be returned.
      * @return the Cart of the user. Guaranteed to be non-null
      */
     public Cart getCart(String userId) {
         try {
-            return session.query(cartDataSet.id(userId))
+            Key key = cartDataSet.id(userId);
+            if (cartCache.contains(userId)) {
+                Optional<KeyRecord> header = session().query(key)
+                        .readingOnlyBins(CREATED_AT_BIN)
+                        .execute()
+                        .getFirst();
+                if (header.isEmpty()) {
+                    cartCache.invalidate(userId);
+                    return new Cart();
+                }
+                Record headerRecord = header.get().record;
+                Optional<Cart> cachedCart = cartCache.validate(userId, headerRecord.generation, createdAt(headerRecord));
+                if (cachedCart.isPresent()) {
+                    return cachedCart.get();
+                }
+            }
+            return session().query(key)
                 .execute()
-                .getFirst(cartMapper)
+                .getFirst()
+                .map(keyRecord -> {
+                    Record record = keyRecord.record;
+                    Cart cart = cartMapper.fromMap(record.bins, key, record.generation);
+                    cartCache.put(userId, record.generation, createdAt(record), cart);
+                    return cart;
+                })
                 .orElseGet(() -> new Cart());
+        } catch (RequestDeadline.ExceededException | AerospikeException.Timeout e) {
+            // Out of time, which must not look like an empty cart
+            throw e;
         } catch (Exception e) {
             e.printStackTrace();
             System.err.println("Error getting cart: " + e.getMessage());
@@ -186,6 +523,11 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
         }
     }
 
+    private static long createdAt(Record record) {
+        Object createdAt = record.bins == null ? null : record.bins.get(CREATED_AT_BIN);
+        return createdAt instanceof Number ? ((Number) createdAt).longValue() : 0;
+    }
+
     public Cart addToCart(String userId, String productId, int quantity) {
         try {
             // Get product details first
@@ -199,59 +541,125 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
             
             // Get product image
             String image = extractProductImage(product);
-            Cart resultCart = null;
-            while (resultCart == null) {
-                try {
-                    Optional<ObjectWithMetadata<Cart>> cartAndMetadata = session.query(key)
-                            .execute()
-                            .getFirstWithMetadata(cartMapper);
-                    
-
-                    resultCart = cartAndMetadata
-                        .map(cartWithMetadata -> {
-                            Cart cart = cartWithMetadata.get();
-                            cart.findItem(productId)
-                                .ifPresentOrElse(item -> {
-                                    
-                                    // The item exists in the record, just update the quantity
-                                    item.setQuantity(item.getQuantity() + quantity);
-                                    
-                                    session.update(key)
-                                        .bin(ITEMS_BIN).onMapKey(productId).onMapKey("quantity").add(quantity)
-                                        .ensureGenerationIs(cartWithMetadata.getGeneration())
-                                        .execute();
-                                },
-                                () -> {
-                                    // Record exists but item is not there, just add it
-                                    CartItem newItem = new CartItem(userId, quantity, image, product);
-                                    cart.add(newItem);
-                                    session.update(key)
-                                        .bin(ITEMS_BIN).onMapKey(productId).setTo(newItem, cartItemMapper)
-                                        .ensureGenerationIs(cartWithMetadata.getGeneration())
-                                        .execute();
-                                });
-                            return cart;
-                        })
-                        .orElseGet(() -> {
-                            // New record
-                            Cart cart = new Cart();
-                            CartItem newItem = new CartItem(userId, quantity, image, product);
-                            cart.add(newItem);
-                            session.insertInto(key)
-                                .bin(ITEMS_BIN).onMapKey(productId).setTo(newItem, cartItemMapper)
-                                .execute();
-                            return cart;
-                        });
-                }
-                catch (GenerationException ge) {
-                    Log.info("Lost race condition when adding product " + productId);
-                    // Continue to retry 
+            // Another request may create (or change) the cart between the read and the write, so retry from the read
+            return CartOperations.retryLostRaces("adding product " + productId, () -> {
+                Optional<ObjectWithMetadata<Cart>> cartAndMetadata = session().query(key)
+                        .execute()
+                        .getFirstWithMetadata(cartMapper);
+                
+
+                return cartAndMetadata
+                    .map(cartWithMetadata -> {
+                        Cart cart = cartWithMetadata.get();
+                        cart.findItem(productId)
+                            .ifPresentOrElse(item -> {
+                                
+                                // The item exists in the record, just update the quantity
+                                item.setQuantity(item.getQuantity() + quantity);
+                                
+                                session().update(key)
+                                    .bin(ITEMS_BIN).onMapKey(productId).onMapKey("quantity").add(quantity)
+                                    .ensureGenerationIs(cartWithMetadata.getGeneration())
+                                    .execute();
+                            },
+                            () -> {
+                                // Record exists but item is not there, just add it
+                                CartItem newItem = new CartItem(userId, quantity, image, product);
+                                cart.add(newItem);
+                                session().update(key)
+                                    .bin(ITEMS_BIN).onMapKey(productId).setTo(newItem, cartItemMapper)
+                                    .ensureGenerationIs(cartWithMetadata.getGeneration())
+                                    .execute();
+                            });
+                        return cart;
+                    })
+                    .orElseGet(() -> {
+                        // New record
+                        Cart cart = new Cart();
+                        CartItem newItem = new CartItem(userId, quantity, image, product);
+                        cart.add(newItem);
+                        session().insertInto(key)
+                            .bin(ITEMS_BIN).onMapKey(productId).setTo(newItem, cartItemMapper)
+                            .bin(CREATED_AT_BIN).setTo(System.currentTimeMillis())
+                            .execute();
+                        return cart;
+                    });
+            });
+        }  catch (Exception e) {
+            System.err.println("Error adding to cart: " + e.getMessage());
+            throw new RuntimeException("Failed to add item to cart: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Add several products to the cart at once. The products are fetched with a single batch
+     * read and every map increment / put is applied to the cart in one operation, guarded by
+     * the generation of the cart that was read.
+     * 
+     * @param userId - the user whose cart is to be updated
+     * @param items - map of productId -> quantity to add
+     * @return the updated cart
+     */
+    public Cart addItemsToCart(String userId, Map<String, Integer> items) {
+        try {
+            if (items == null || items.isEmpty()) {
+                return getCart(userId);
+            }
+
+            // Get all the product details in one batch read
+            Map<String, Product> products = new HashMap<>();
+            session().query(productDataSet.ids(new ArrayList<>(items.keySet())))
+                    .execute()
+                    .toObjectLlist(productMapper)
+                    .forEach(product -> products.put(product.getId(), product));
+            for (String productId : items.keySet()) {
+                if (!products.containsKey(productId)) {
+                    throw new RuntimeException("Product not found: " + productId);
                 }
             }
-            return resultCart;
+
+            Key key = cartDataSet.id(userId);
+            // Another request may create (or change) the cart between the read and the write, so retry from the read
+            return CartOperations.retryLostRaces("adding products " + items.keySet(), () -> {
+                Optional<ObjectWithMetadata<Cart>> cartAndMetadata = session().query(key)
+                        .execute()
+                        .getFirstWithMetadata(cartMapper);
+
+                Cart cart;
+                OperationBuilder operation;
+                if (cartAndMetadata.isPresent()) {
+                    cart = cartAndMetadata.get().get();
+                    operation = session().update(key).ensureGenerationIs(cartAndMetadata.get().getGeneration());
+                }
+                else {
+                    // New record
+                    cart = new Cart();
+                    operation = session().insertInto(key)
+                            .bin(CREATED_AT_BIN).setTo(System.currentTimeMillis());
+                }
+
+                for (Entry<String, Integer> entry : items.entrySet()) {
+                    String productId = entry.getKey();
+                    int quantity = entry.getValue();
+                    Optional<CartItem> existingItem = cart.findItem(productId);
+                    if (existingItem.isPresent()) {
+                        CartItem item = existingItem.get();
+                        item.setQuantity(item.getQuantity() + quantity);
+                        operation.bin(ITEMS_BIN).onMapKey(productId).onMapKey("quantity").add(quantity);
+                    }
+                    else {
+                        Product product = products.get(productId);
+                        CartItem newItem = new CartItem(userId, quantity, extractProductImage(product), product);
+                        cart.add(newItem);
+                        operation.bin(ITEMS_BIN).onMapKey(productId).setTo(newItem, cartItemMapper);
+                    }
+                }
+                operation.execute();
+                return cart;
+            });
         }  catch (Exception e) {
-            System.err.println("Error adding to cart: " + e.getMessage());
-            throw new RuntimeException("Failed to add item to cart: " + e.getMessage());
+            System.err.println("Error adding items to cart: " + e.getMessage());
+            throw new RuntimeException("Failed to add items to cart: " + e.getMessage(), e);
         }
     }
 
@@ -263,11 +671,11 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
     public Cart clearCart(String userId) {
         try {
             Key key = cartDataSet.id(userId);
-            session.upsert(key).bin(ITEMS_BIN).mapClear().execute();
+            session().upsert(key).bin(ITEMS_BIN).mapClear().execute();
             return new Cart();
         } catch (Exception e) {
             System.err.println("Error clearing cart: " + e.getMessage());
-            throw new RuntimeException("Failed to clear cart: " + e.getMessage());
+            throw new RuntimeException("Failed to clear cart: " + e.getMessage(), e);
         }
     }
     
@@ -275,12 +683,12 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
     public Cart updateCartItem(String userId, String productId, int quantity) {
         try {
             Key key = cartDataSet.id(userId);
-            return session.query(key)
+            return session().query(key)
                     .execute()
                     .getFirst(cartMapper)
                     .map(cart -> {
                         if (quantity <= 0) {
-                            session.update(key)
+                            session().update(key)
                                 .bin(ITEMS_BIN).onMapKey(productId).remove()
                                 .execute();
                             cart.remove(productId);
@@ -290,7 +698,7 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
                             cart.findItem(productId)
                             .ifPresent(item -> {
                                 item.setQuantity(quantity);
-                                session.update(key)
+                                session().update(key)
                                     .bin(ITEMS_BIN).onMapKey(productId).onMapKey("quantity").setTo(quantity)
                                     .execute();
                             });
@@ -303,7 +711,7 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
                     });
         } catch (Exception e) {
             System.err.println("Error updating cart item: " + e.getMessage());
-            throw new RuntimeException("Failed to update cart item: " + e.getMessage());
+            throw new RuntimeException("Failed to update cart item: " + e.getMessage(), e);
         }
     }
 
@@ -311,24 +719,176 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
         return updateCartItem(userId, productId, 0);
     }
 
+    /**
+     * The catalogue version is a counter in a record of its own set, which is not truncated
+     * or exported with the catalogue, so it only ever moves forward
+     */
+    public long getCatalogueVersion() {
+        return session().query(catalogueDataSet.id(CATALOGUE_VERSION_KEY))
+                .readingOnlyBins(VERSION_BIN)
+                .execute()
+                .getFirst()
+                .map(keyRecord -> keyRecord.record.getLong(VERSION_BIN))
+                .orElse(0L);
+    }
+
+    public long beginCatalogueChange() {
+        return moveCatalogueVersion(CatalogueVersion.begin(VERSION_BIN));
+    }
+
+    public long endCatalogueChange() {
+        return moveCatalogueVersion(CatalogueVersion.end(VERSION_BIN));
+    }
+
+    /**
+     * Moving the counter and reading it back is one operation, which an OperationBuilder
+     * cannot express, so this uses the client under the session
+     */
+    private long moveCatalogueVersion(Operation move) {
+        Session current = session();
+        WritePolicy writePolicy = current.getBehavior().getMutablePolicy(CommandType.WRITE_NON_RETRYABLE);
+        Record record = current.getClient().operate(writePolicy, catalogueDataSet.id(CATALOGUE_VERSION_KEY),
+                move, Operation.get(VERSION_BIN));
+        return record.getLong(VERSION_BIN);
+    }
+
     /**
      * Get a count of all the products in the database
      * @return The number of products stored. 
      */
     public int getProductCount() {
-        int replicationFactor = session.info().namespaceDetails(NAMESPACE)
+        int replicationFactor = session().info().namespaceDetails(NAMESPACE)
                 .map(nsDetails -> nsDetails.getEffectiveReplicationFactor())
                 .orElseGet(() -> 1);
-        return session.info()
+        return session().info()
                 .set(PRODUCT_SET)
                 .map(set->(int)set.getObjects() / replicationFactor)
                 .orElseGet(() -> 0);
     }
 
+    /**
+     * Read at most one product, without its bins, to see if there are any
+     */
+    public boolean hasProducts() {
+        try (RecordStream results = session().query(productDataSet)
+                .withNoBins()
+                .limit(1)
+                .execute()) {
+            return results.hasNext();
+        }
+    }
+
+    /**
+     * Read every product in the partition range
+     * 
+     * @param partitionBegin First partition to read
+     * @param partitionCount Number of partitions to read
+     * @param consumer Called with each product
+     */
+    public void scanProductPartitions(int partitionBegin, int partitionCount, Consumer<Product> consumer) {
+        try (RecordStream results = session().query(productDataSet)
+                .onPartitionRange(partitionBegin, partitionBegin + partitionCount)
+                .execute()) {
+            results.forEach(keyRecord -> consumer.accept(
+                    productMapper.fromMap(keyRecord.record.bins, keyRecord.key, keyRecord.record.generation)));
+        }
+    }
+
+    /**
+     * Read every product and metadata record in the partition range, for a snapshot
+     * 
+     * @param partitionBegin First partition to read
+     * @param partitionCount Number of partitions to read
+     * @param consumer Called with each record
+     */
+    public void scanSnapshotPartitions(int partitionBegin, int partitionCount, Consumer<SnapshotRecord> consumer) {
+        scanSnapshotSet(productDataSet, SnapshotRecord.Kind.PRODUCT, partitionBegin, partitionCount, consumer);
+        scanSnapshotSet(categoryDataSet, SnapshotRecord.Kind.METADATA, partitionBegin, partitionCount, consumer);
+    }
+
+    private void scanSnapshotSet(DataSet dataSet, SnapshotRecord.Kind kind, int partitionBegin, int partitionCount, 
+            Consumer<SnapshotRecord> consumer) {
+        try (RecordStream results = session().query(dataSet)
+                .onPartitionRange(partitionBegin, partitionBegin + partitionCount)
+                .execute()) {
+            results.forEach(keyRecord -> {
+                Object userKey = keyRecord.key.userKey == null ? null : keyRecord.key.userKey.getObject();
+                consumer.accept(new SnapshotRecord(kind, keyRecord.key.digest, userKey, keyRecord.record.bins));
+            });
+        }
+    }
+
+    /**
+     * Write a batch of snapshot records in one batch call, replacing any existing records.
+     * Each record has its own bins, which an OperationBuilder over several keys cannot express,
+     * so this uses the client under the session with the session's batch policy.
+     * 
+     * @param records The records to write
+     * @return The number of records which failed to write
+     */
+    public int restoreSnapshotRecords(List<SnapshotRecord> records) {
+        Session current = session();
+        BatchPolicy batchPolicy = current.getBehavior().getMutablePolicy(CommandType.BATCH_WRITE);
+        BatchWritePolicy writePolicy = new BatchWritePolicy();
+        writePolicy.recordExistsAction = RecordExistsAction.REPLACE;
+        writePolicy.sendKey = true;
+
+        List<BatchRecord> batchRecords = new ArrayList<>(records.size());
+        for (SnapshotRecord record : records) {
+            String setName = record.getKind() == SnapshotRecord.Kind.PRODUCT ? PRODUCT_SET : CATEGORY_SET;
+            Value userKey = record.getUserKey() == null ? null : Value.get(record.getUserKey());
+            Key key = new Key(NAMESPACE, record.getDigest(), setName, userKey);
+            Operation[] operations = record.getBins().entrySet()
+                    .stream()
+                    .map(bin -> Operation.put(new Bin(bin.getKey(), Value.get(bin.getValue()))))
+                    .toArray(Operation[]::new);
+            batchRecords.add(new BatchWrite(writePolicy, key, operations));
+        }
+        current.getClient().operate(batchPolicy, batchRecords);
+
+        int failures = 0;
+        for (BatchRecord batchRecord : batchRecords) {
+            if (batchRecord.resultCode != ResultCode.OK) {
+                failures++;
+            }
+        }
+        return failures;
+    }
+
     public void clearAllData() {
-        session.truncate(cartDataSet);
-        session.truncate(productDataSet);
-        session.delete(categoryDataSet.id(CATEGORY_KEY));
+        session().truncate(cartDataSet);
+        session().truncate(productDataSet);
+        session().truncate(categoryDataSet);
+        metadata = ProductMetadata.EMPTY;
+        cartCache.clear();
+        queryResultCache.invalidateAll();
+    }
+
+    /**
+     * Get the product metadata snapshot. A batch header-only read of the metadata shards
+     * gives their version, and the shards are only read and merged again if it has changed
+     * since the snapshot held by this instance was built. The shards are read with the client
+     * under the session, which returns them in shard order with a null for a missing shard,
+     * so the version lines up shard by shard.
+     * 
+     * @return The current product metadata
+     */
+    public ProductMetadata getMetadata() {
+        Session current = session();
+        BatchPolicy batchPolicy = current.getBehavior().getMutablePolicy(CommandType.BATCH_READ);
+        Key[] keys = categoryDataSet.ids(CategoryMetadataKeys.allShards()).toArray(new Key[0]);
+        int[] version = ProductMetadata.versionOf(current.getClient().getHeader(batchPolicy, keys));
+        if (ProductMetadata.isMissing(version)) {
+            metadata = ProductMetadata.EMPTY;
+            return metadata;
+        }
+        ProductMetadata snapshot = metadata;
+        if (snapshot.hasVersion(version)) {
+            return snapshot;
+        }
+        snapshot = ProductMetadata.fromShards(current.getClient().get(batchPolicy, keys));
+        metadata = snapshot;
+        return snapshot;
     }
 
     /**
@@ -336,36 +896,17 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * 
      * @return List of category names
      */
-    @SuppressWarnings("unchecked")
     public List<String> getCategories() {
-        Optional<KeyRecord> result = session.upsert(categoryDataSet.id(CATEGORY_KEY))
-                .bin("categories").onMapKeyRange("A", "Z").getKeys()
-                .execute()
-                .getFirst();
-        return result.map(kr -> (List<String>)kr.record.getList("categories"))
-                .orElseGet(List::of);
+        return getMetadata().getCategories();
     }
 
-    @SuppressWarnings("unchecked")
-    private List<String> getCategoryPart(String bin) {
-        return session.query(categoryDataSet.id(CATEGORY_KEY))
-                .readingOnlyBins(bin)
-                .execute()
-                .getFirst()
-                .map(kr -> ((List<String>)kr.record.getList(bin))
-                        .stream()
-                        .filter(cat -> !cat.isEmpty() && !cat.equals("NA"))
-                        .toList()
-                )
-                .orElseGet(List::of);
-    }
     /**
      * Get all article types from the category metadata record
      * 
      * @return List of article type names
      */
     public List<String> getArticleTypes() {
-        return getCategoryPart("articleTypes");
+        return getMetadata().getArticleTypes();
     }
     
     /**
@@ -374,7 +915,7 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * @return List of usage names
      */
     public List<String> getUsage() {
-        return getCategoryPart("usage");
+        return getMetadata().getUsage();
     }
 
     /**
@@ -383,11 +924,15 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * @return List of brand names
      */
     public List<String> getBrandNames() {
-        return getCategoryPart("brandNames");
+        return getMetadata().getBrandNames();
     }
 
     /**
-     * Load categories and article types to a meta record
+     * Load categories and article types to the sharded metadata records. The sub-category
+     * count goes to the record of its category, and each name is appended to the shard its
+     * hash maps to. The writes go to different records with different operations, which an
+     * OperationBuilder cannot express, so they are sent together in one batch with the client
+     * under the session.
      * 
      * @param category Category name
      * @param subCategory Subcategory name
@@ -396,12 +941,53 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      * @param brandName Brand name
      */
     public void loadCategories(String category, String subCategory, String articleType, String usage, String brandName) {
-        session.upsert(categoryDataSet.id(CATEGORY_KEY))
-            .bin("categories").onMapKey(category,MapOrder.KEY_ORDERED).onMapKey(subCategory).add(1)
-            .bin("articleTypes").listAppendUnique(articleType, true)
-            .bin("usage").listAppendUnique(usage, true)
-            .bin("brandNames").listAppendUnique(brandName, true)
-            .execute();
+        // Sub-category counts are kept in a key ordered map on the category's own record
+        MapPolicy mapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
+        ListPolicy listPolicy = new ListPolicy(ListOrder.ORDERED, ListWriteFlags.ADD_UNIQUE | ListWriteFlags.NO_FAIL);
+
+        // Group the operations by the record they go to, as several names can hash to the same shard
+        Map<String, List<Operation>> operations = new LinkedHashMap<>();
+        operations.computeIfAbsent(CategoryMetadataKeys.categoryRecord(category), k -> new ArrayList<>())
+            .add(MapOperation.increment(mapPolicy, "subCategories", Value.get(subCategory), Value.get(1)));
+        appendToShard(operations, listPolicy, "categories", category);
+        appendToShard(operations, listPolicy, "articleTypes", articleType);
+        appendToShard(operations, listPolicy, "usage", usage);
+        appendToShard(operations, listPolicy, "brandNames", brandName);
+
+        List<BatchRecord> records = new ArrayList<>(operations.size());
+        for (Entry<String, List<Operation>> entry : operations.entrySet()) {
+            records.add(new BatchWrite(categoryDataSet.id(entry.getKey()), entry.getValue().toArray(new Operation[0])));
+        }
+        // The counts are not retried, as a batch which timed out may still have been applied
+        Session current = session();
+        BatchPolicy batchPolicy = current.getBehavior().getMutablePolicy(CommandType.BATCH_WRITE);
+        batchPolicy.maxRetries = 0;
+        if (!current.getClient().operate(batchPolicy, records)) {
+            for (BatchRecord record : records) {
+                if (record.resultCode != ResultCode.OK) {
+                    throw new AerospikeException(record.resultCode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take a product out of the metadata records, see {@link CategoryMetadataCounts}. Each record
+     * is changed in one call, with the client under the session.
+     */
+    public void unloadCategories(String category, String subCategory, String articleType, String usage, String brandName) {
+        Session current = session();
+        CategoryMetadataCounts.unload((userKey, operations) -> {
+                    WritePolicy writePolicy = current.getBehavior().getMutablePolicy(CommandType.WRITE_NON_RETRYABLE);
+                    return current.getClient().operate(writePolicy, categoryDataSet.id(userKey), operations);
+                },
+                category, subCategory, articleType, usage, brandName);
+    }
+
+    private void appendToShard(Map<String, List<Operation>> operations, ListPolicy listPolicy, String binName, String value) {
+        List<Operation> shardOperations = operations.computeIfAbsent(CategoryMetadataKeys.shardFor(value), shard -> new ArrayList<>());
+        shardOperations.add(ListOperation.append(listPolicy, binName, Value.get(value)));
+        shardOperations.add(CategoryMetadataCounts.countUp(binName, value));
     }
 
     /**
@@ -412,13 +998,45 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
      */
     public void createStringIndex(String binName, String indexName) {
         try {
-            session.info().createIndex(null, NAMESPACE, PRODUCT_SET, indexName, binName, IndexType.STRING);
+            session().info().createIndex(null, NAMESPACE, PRODUCT_SET, indexName, binName, IndexType.STRING);
+        } catch (AerospikeException e) {
+            // Index already exists or other error - fail gracefully
+            System.out.println("Index " + indexName + " already exists or failed to create: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create a numeric secondary index on the specified bin, for range queries
+     * 
+     * @param binName Name of the bin to index
+     * @param indexName Name of the index to create
+     */
+    public void createNumericIndex(String binName, String indexName) {
+        try {
+            session().info().createIndex(null, NAMESPACE, PRODUCT_SET, indexName, binName, IndexType.NUMERIC);
         } catch (AerospikeException e) {
             // Index already exists or other error - fail gracefully
             System.out.println("Index " + indexName + " already exists or failed to create: " + e.getMessage());
         }
     }
 
+    /**
+     * How far the build of a secondary index has got, from the index statistics of each node
+     * 
+     * @param indexName Name of the index
+     * @return The lowest build percentage over the nodes, or -1 if a node gave no statistics
+     */
+    public int getIndexLoadPercent(String indexName) {
+        int lowest = 100;
+        for (Optional<SindexDetail> detail : session().info().secondaryIndexDetailsPerNode(NAMESPACE, indexName).values()) {
+            if (detail.isEmpty()) {
+                return -1;
+            }
+            lowest = Math.min(lowest, detail.get().getLoadPct());
+        }
+        return lowest;
+    }
+
     /**
      * Cleanup method called when the service is destroyed
      * Properly closes the AerospikeClient connection
@@ -470,52 +1088,5 @@ public class KeyValueServiceNewClientAnswers implements KeyValueServiceInterface
         Object result = current.get(path[path.length - 1]);
         return result instanceof String ? (String) result : null;
     }
-
-    private static class ProductMapper implements RecordMapper<Product> {
-        @Override
-        public Product fromMap(Map<String, Object> map, Key recordKey, int generation) {
-            return Product.fromMap(map);
-        }
-        @Override
-        public Map<String, Value> toMap(Product element) {
-            return Product.toMap(element);
-        }
-        @Override
-        public Object id(Product product) {
-            return product.getId();
-        }
-    }
-    
-    private static class CartMapper implements RecordMapper<Cart> {
-
-        @Override
-        public Cart fromMap(Map<String, Object> map, Key recordKey, int generation) {
-            return Cart.fromMap(map);
-        }
-        @Override
-        public Map<String, Value> toMap(Cart element) {
-            return Cart.toMap(element);
-        }
-        @Override
-        public Object id(Cart element) {
-            return null;
-        }
-    }
-    
-    private static class CartItemMapper implements RecordMapper<CartItem> {
-        @Override
-        public CartItem fromMap(Map<String, Object> map, Key recordKey, int generation) {
-            return CartItem.fromMap(map);
-        }
-        @Override
-        public Map<String, Value> toMap(CartItem element) {
-            return CartItem.toMap(element);
-        }
-        @Override
-        public Object id(CartItem element) {
-            return element.getUserId();
-        }
-    }
-
     
 } 
\ No newline at end of file
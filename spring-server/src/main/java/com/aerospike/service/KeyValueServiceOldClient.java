@@ -2,25 +2,28 @@ package com.aerospike.service;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 
 import com.aerospike.client.AerospikeClient;
 import com.aerospike.client.AerospikeException;
+import com.aerospike.client.BatchRecord;
+import com.aerospike.client.BatchWrite;
 import com.aerospike.client.Bin;
 import com.aerospike.client.Host;
+import com.aerospike.client.Info;
 import com.aerospike.client.Key;
 import com.aerospike.client.Operation;
 import com.aerospike.client.Record;
 import com.aerospike.client.ResultCode;
 import com.aerospike.client.Value;
-import com.aerospike.client.cdt.CTX;
 import com.aerospike.client.cdt.ListOperation;
 import com.aerospike.client.cdt.ListOrder;
 import com.aerospike.client.cdt.ListPolicy;
@@ -28,23 +31,31 @@ import com.aerospike.client.cdt.ListWriteFlags;
 import com.aerospike.client.cdt.MapOperation;
 import com.aerospike.client.cdt.MapOrder;
 import com.aerospike.client.cdt.MapPolicy;
-import com.aerospike.client.cdt.MapReturnType;
 import com.aerospike.client.cdt.MapWriteFlags;
+import com.aerospike.client.cluster.Node;
 import com.aerospike.client.exp.Exp;
 import com.aerospike.client.exp.Expression;
+import com.aerospike.client.policy.BatchPolicy;
+import com.aerospike.client.policy.BatchWritePolicy;
 import com.aerospike.client.policy.ClientPolicy;
-import com.aerospike.client.policy.GenerationPolicy;
+import com.aerospike.client.policy.Policy;
 import com.aerospike.client.policy.QueryPolicy;
 import com.aerospike.client.policy.RecordExistsAction;
+import com.aerospike.client.policy.Replica;
 import com.aerospike.client.policy.WritePolicy;
 import com.aerospike.client.query.Filter;
 import com.aerospike.client.query.IndexType;
+import com.aerospike.client.query.KeyRecord;
+import com.aerospike.client.query.PartitionFilter;
 import com.aerospike.client.query.RecordSet;
 import com.aerospike.client.query.Statement;
 import com.aerospike.config.ClientConfiguration;
 import com.aerospike.model.Cart;
-import com.aerospike.model.CartItem;
+import com.aerospike.model.NumericRange;
 import com.aerospike.model.Product;
+import com.aerospike.model.ProductMetadata;
+import com.aerospike.model.ProductSort;
+import com.aerospike.model.SnapshotRecord;
 
 import jakarta.annotation.PreDestroy;
 
@@ -55,24 +66,96 @@ import jakarta.annotation.PreDestroy;
  */
 @Service
 @Profile("old-client")
-public class KeyValueServiceOldClient implements KeyValueServiceInterface {
+public class KeyValueServiceOldClient implements CatalogueMaintenance {
 
-    private static final String ITEMS_BIN = "items";
     private static final String NAMESPACE = "test";
     private static final String PRODUCT_SET = "products";
     private static final String CARTS_SET = "shopping_carts";
     private static final String CATEGORY_SET = "cat_index";
-    private static final String CATEGORY_KEY = "product_meta";
+    private static final String CATALOGUE_SET = "catalogue";
+    private static final String CATALOGUE_VERSION_KEY = "version";
+    private static final String VERSION_BIN = "version";
+    private static final String[] QUERY_BINS = {"id", "name", "images", "brandName"};
 
     private final AerospikeClient aerospikeClient;
-
-    public KeyValueServiceOldClient(ClientConfiguration config) {
+    private final CartCache cartCache;
+    private final FacetIndex facetIndex;
+    private final QueryResultCache queryResultCache;
+    private final HedgedReads hedgedReads;
+    private final ProductCountCache productCountCache;
+    private final BulkLoadBehavior bulkLoadBehavior;
+    private final PartitionScanner partitionScanner;
+    private final CartOperations cartOperations;
+    private volatile ProductMetadata metadata = ProductMetadata.EMPTY;
+
+    public KeyValueServiceOldClient(ClientConfiguration config, CartCache cartCache, FacetIndex facetIndex,
+            QueryResultCache queryResultCache, HedgedReads hedgedReads, ProductCountCache productCountCache,
+            BulkLoadBehavior bulkLoadBehavior, PartitionScanner partitionScanner) {
+        this.cartCache = cartCache;
+        this.facetIndex = facetIndex;
+        this.queryResultCache = queryResultCache;
+        this.hedgedReads = hedgedReads;
+        this.productCountCache = productCountCache;
+        this.bulkLoadBehavior = bulkLoadBehavior;
+        this.partitionScanner = partitionScanner;
         ClientPolicy clientPolicy = new ClientPolicy();
         if (!(config.getUserName() == null || config.getUserName().isEmpty())) {
             clientPolicy.setUser(config.getUserName());
             clientPolicy.setPassword(config.getPassword());
         }
         aerospikeClient = new AerospikeClient(clientPolicy, new Host(config.getHostname(), config.getPort()));
+        cartOperations = new CartOperations(
+                new AerospikeCartStore(aerospikeClient, NAMESPACE, CARTS_SET, this::readPolicy, this::writePolicy),
+                cartCache, this::getProducts);
+    }
+
+    /**
+     * Policies for each call, copied from the client defaults with the total timeout cut to 
+     * what is left of the request deadline
+     */
+    private Policy readPolicy() {
+        return RequestDeadline.applyTo(aerospikeClient.copyReadPolicyDefault());
+    }
+
+    private BatchPolicy batchPolicy() {
+        return RequestDeadline.applyTo(aerospikeClient.copyBatchPolicyDefault());
+    }
+
+    /**
+     * Writes made by a catalogue load take the bulk load settings instead
+     */
+    private WritePolicy writePolicy() {
+        if (bulkLoadBehavior.isActive()) {
+            return bulkLoadBehavior.writePolicy();
+        }
+        return RequestDeadline.applyTo(aerospikeClient.copyWritePolicyDefault());
+    }
+
+    private BatchPolicy batchWritePolicy() {
+        if (bulkLoadBehavior.isActive()) {
+            return bulkLoadBehavior.batchPolicy();
+        }
+        return batchPolicy();
+    }
+
+    /**
+     * Counter writes are not retried, as a write which timed out may still have been applied
+     * and a retry would count it twice
+     */
+    private WritePolicy counterWritePolicy() {
+        WritePolicy policy = writePolicy();
+        policy.maxRetries = 0;
+        return policy;
+    }
+
+    private BatchPolicy counterBatchPolicy() {
+        BatchPolicy policy = batchWritePolicy();
+        policy.maxRetries = 0;
+        return policy;
+    }
+
+    private QueryPolicy queryPolicy() {
+        return RequestDeadline.applyTo(aerospikeClient.copyQueryPolicyDefault());
     }
 
     /**
@@ -89,7 +172,11 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
     public void clearAllData() {
         aerospikeClient.truncate(null, NAMESPACE, PRODUCT_SET, null);
         aerospikeClient.truncate(null, NAMESPACE, CARTS_SET, null);
-        aerospikeClient.delete(null, new Key(NAMESPACE, CATEGORY_SET, CATEGORY_KEY));
+        aerospikeClient.truncate(null, NAMESPACE, CATEGORY_SET, null);
+        cartCache.clear();
+        productCountCache.invalidate();
+        queryResultCache.invalidateAll();
+        metadata = ProductMetadata.EMPTY;
     }
     
     /**
@@ -101,7 +188,18 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      */
     public Optional<Product> getProduct(String productId) {
         Key key = new Key(NAMESPACE, PRODUCT_SET, productId);
-        Record record = aerospikeClient.get(null, key);
+        Record record;
+        if (hedgedReads.isEnabled()) {
+            // The first read goes to the master, a hedge can move on to the replica
+            Policy masterPolicy = readPolicy();
+            masterPolicy.replica = Replica.MASTER;
+            Policy replicaPolicy = HedgedReads.hedgePolicy(readPolicy());
+            record = hedgedReads.read(() -> aerospikeClient.get(masterPolicy, key), 
+                    () -> aerospikeClient.get(replicaPolicy, key));
+        }
+        else {
+            record = aerospikeClient.get(readPolicy(), key);
+        }
         if (record == null) {
             return Optional.empty();
         }
@@ -121,20 +219,21 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
     public KeyValueServiceInterface.QueryResult query(String index, String filterValue, int count) {
         long startTime = System.currentTimeMillis();
         
+        Optional<List<Product>> cachedProducts = queryResultCache.get(index, filterValue, count, QUERY_BINS);
+        if (cachedProducts.isPresent()) {
+            return new KeyValueServiceInterface.QueryResult(cachedProducts.get(), System.currentTimeMillis() - startTime);
+        }
+        long cacheEpoch = queryResultCache.getEpoch();
+        
         Statement statement = new Statement();
         statement.setNamespace(NAMESPACE);
         statement.setSetName(PRODUCT_SET);
         statement.setFilter(Filter.equal(index, filterValue));
         statement.setMaxRecords(count);
         
-        List<String> binNames = new ArrayList<>();
-        binNames.add("id");
-        binNames.add("name");
-        binNames.add("images");
-        binNames.add("brandName");
-        statement.setBinNames(binNames.toArray(new String[0]));
+        statement.setBinNames(QUERY_BINS);
         
-        QueryPolicy queryPolicy = aerospikeClient.copyQueryPolicyDefault();
+        QueryPolicy queryPolicy = queryPolicy();
         RecordSet recordSet = aerospikeClient.query(queryPolicy, statement);
         
         List<Product> products = new ArrayList<>();
@@ -142,20 +241,112 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
             Record record = recordSet.getRecord();
             products.add(Product.fromMap(record.bins));
         }
+        queryResultCache.put(cacheEpoch, index, filterValue, count, products, QUERY_BINS);
         
         return new KeyValueServiceInterface.QueryResult(products, System.currentTimeMillis() - startTime);
     }
 
+    /**
+     * Secondary index query on a specified index and filter, passing each product to the 
+     * consumer as it is read. The RecordSet queue is bounded, so a slow consumer holds back
+     * the reads from the server rather than the results building up in memory.
+     * 
+     * @param index Index name to query
+     * @param filterValue Filter value to match
+     * @param count Maximum number of records to return, or 0 for all of them
+     * @param consumer Called with each product
+     */
+    public void streamQuery(String index, String filterValue, int count, Consumer<Product> consumer) {
+        try (ProductCursor cursor = openQuery(index, filterValue, count)) {
+            cursor.forEachRemaining(consumer);
+        }
+    }
+
+    /**
+     * Start a secondary index query on a specified index and filter, reading the products as
+     * they are pulled from the cursor
+     * 
+     * @param index Index name to query
+     * @param filterValue Filter value to match
+     * @param count Maximum number of records to return, or 0 for all of them
+     * @return The products, which must be closed
+     */
+    public ProductCursor openQuery(String index, String filterValue, int count) {
+        Statement statement = new Statement();
+        statement.setNamespace(NAMESPACE);
+        statement.setSetName(PRODUCT_SET);
+        statement.setFilter(Filter.equal(index, filterValue));
+        statement.setMaxRecords(count);
+        
+        return productCursor(aerospikeClient.query(queryPolicy(), statement));
+    }
+
+    private ProductCursor productCursor(RecordSet recordSet) {
+        return ProductCursor.of(recordSet.iterator(), keyRecord -> Product.fromMap(keyRecord.record.bins), recordSet::close);
+    }
+
+    /**
+     * Secondary index query returning the first products in the given sort order. The records
+     * are kept in a bounded heap by their sort bin, compiled once per sort, and only the records
+     * kept are turned into products.
+     * 
+     * @param index Index name to query
+     * @param filterValue Filter value to match
+     * @param sort The order to return the products in
+     * @param count Maximum number of results to return
+     * @return QueryResult containing the first products in sort order and execution time
+     */
+    @Override
+    public KeyValueServiceInterface.QueryResult sortedQuery(String index, String filterValue, ProductSort sort, int count) {
+        long startTime = System.currentTimeMillis();
+        
+        Statement statement = new Statement();
+        statement.setNamespace(NAMESPACE);
+        statement.setSetName(PRODUCT_SET);
+        statement.setFilter(Filter.equal(index, filterValue));
+        
+        List<Product> products = new ArrayList<>();
+        try (RecordSet recordSet = aerospikeClient.query(queryPolicy(), statement)) {
+            for (KeyRecord keyRecord : RecordSorter.of(sort).first(recordSet.iterator(), count)) {
+                products.add(Product.fromMap(keyRecord.record.bins));
+            }
+        }
+        return new KeyValueServiceInterface.QueryResult(products, System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Get the product metadata snapshot. A batch header-only read of the metadata shards
+     * gives their version, and the shards are only read and merged again if it has changed
+     * since the snapshot held by this instance was built.
+     * 
+     * @return The current product metadata
+     */
+    public ProductMetadata getMetadata() {
+        Key[] keys = CategoryMetadataKeys.allShards()
+                .stream()
+                .map(shard -> new Key(NAMESPACE, CATEGORY_SET, shard))
+                .toArray(Key[]::new);
+        int[] version = ProductMetadata.versionOf(aerospikeClient.getHeader(batchPolicy(), keys));
+        if (ProductMetadata.isMissing(version)) {
+            metadata = ProductMetadata.EMPTY;
+            return metadata;
+        }
+        ProductMetadata current = metadata;
+        if (current.hasVersion(version)) {
+            return current;
+        }
+        current = ProductMetadata.fromShards(aerospikeClient.get(batchPolicy(), keys));
+        metadata = current;
+        return current;
+    }
+
     /**
      * Get all categories from the category metadata record
      * 
      * @return List of category names
      */
-    @SuppressWarnings("unchecked")
     public List<String> getCategories() {
-        Key key = new Key(NAMESPACE, CATEGORY_SET, CATEGORY_KEY);
-        Record categories = aerospikeClient.operate(null, key, MapOperation.getByKeyRange("categories", Value.get("A"), Value.get("Z"), MapReturnType.KEY));
-        return (List<String>) categories.getList("categories");
+        return getMetadata().getCategories();
     }
 
     /**
@@ -163,11 +354,8 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      * 
      * @return List of article type names
      */
-    @SuppressWarnings("unchecked")
     public List<String> getArticleTypes() {
-        Key key = new Key(NAMESPACE, CATEGORY_SET, CATEGORY_KEY);
-        Record categories = aerospikeClient.get(null, key, "articleTypes");
-        return (List<String>) categories.getList("articleTypes");
+        return getMetadata().getArticleTypes();
     }
     
     /**
@@ -175,14 +363,8 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      * 
      * @return List of usage names
      */
-    @SuppressWarnings("unchecked")
     public List<String> getUsage() {
-        Key key = new Key(NAMESPACE, CATEGORY_SET, CATEGORY_KEY);
-        Record categories = aerospikeClient.get(null, key, "usage");
-        return ((List<String>) categories.getList("usage"))
-                .stream()
-                .filter(cat -> !cat.isEmpty() && !cat.equals("NA"))
-                .toList();
+        return getMetadata().getUsage();
     }
 
     /**
@@ -190,18 +372,14 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      * 
      * @return List of brand names
      */
-    @SuppressWarnings("unchecked")
     public List<String> getBrandNames() {
-        Key key = new Key(NAMESPACE, CATEGORY_SET, CATEGORY_KEY);
-        Record categories = aerospikeClient.get(null, key, "brandNames");
-        return ((List<String>) categories.getList("brandNames"))
-                .stream()
-                .filter(brand -> !brand.isEmpty() && !brand.equals("NA"))
-                .toList();
+        return getMetadata().getBrandNames();
     }
 
     /**
-     * Load categories and article types to a meta record
+     * Load categories and article types to the sharded metadata records. The sub-category
+     * count goes to the record of its category, and each name is appended to the shard its
+     * hash maps to. All the writes are sent together in one batch.
      * 
      * @param category Category name
      * @param subCategory Subcategory name
@@ -210,13 +388,8 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      * @param brandName Brand name
      */
     public void loadCategories(String category, String subCategory, String articleType, String usage, String brandName) {
-        Key key = new Key(NAMESPACE, CATEGORY_SET, CATEGORY_KEY);
-        
-        // Define map policy for writing and order
-        MapPolicy mapPolicy = new MapPolicy(
-            MapOrder.KEY_ORDERED,
-            MapWriteFlags.CREATE_ONLY | MapWriteFlags.NO_FAIL
-        );
+        // Sub-category counts are kept in a key ordered map on the category's own record
+        MapPolicy mapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
         
         // Define list policy for writing and order
         ListPolicy listPolicy = new ListPolicy(
@@ -224,23 +397,41 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
             ListWriteFlags.ADD_UNIQUE | ListWriteFlags.NO_FAIL
         );
         
-        // Define the operations to perform on the map and list bins
-        Operation[] ops = {
-            // Adds new "category" key to the map with an empty map as the value
-            MapOperation.put(mapPolicy, "categories", Value.get(category), Value.get(new HashMap<>())),
-            
-            // Using the category as context, increment the subCategory count
-            MapOperation.increment(mapPolicy, "categories", Value.get(subCategory), Value.get(1), 
-                CTX.mapKey(Value.get(category))),
-            
-            // Append items to the "articleTypes", "usage", and "brandNames" lists
-            ListOperation.append(listPolicy, "articleTypes", Value.get(articleType)),
-            ListOperation.append(listPolicy, "usage", Value.get(usage)),
-            ListOperation.append(listPolicy, "brandNames", Value.get(brandName))
-        };
+        // Group the operations by the record they go to, as several names can hash to the same shard
+        Map<Key, List<Operation>> operations = new LinkedHashMap<>();
+        operations.computeIfAbsent(new Key(NAMESPACE, CATEGORY_SET, CategoryMetadataKeys.categoryRecord(category)), k -> new ArrayList<>())
+            .add(MapOperation.increment(mapPolicy, "subCategories", Value.get(subCategory), Value.get(1)));
+        appendToShard(operations, listPolicy, "categories", category);
+        appendToShard(operations, listPolicy, "articleTypes", articleType);
+        appendToShard(operations, listPolicy, "usage", usage);
+        appendToShard(operations, listPolicy, "brandNames", brandName);
         
-        // Perform the operations
-        aerospikeClient.operate(null, key, ops);
+        List<BatchRecord> records = new ArrayList<>();
+        for (Entry<Key, List<Operation>> entry : operations.entrySet()) {
+            records.add(new BatchWrite(entry.getKey(), entry.getValue().toArray(new Operation[0])));
+        }
+        if (!aerospikeClient.operate(counterBatchPolicy(), records)) {
+            for (BatchRecord record : records) {
+                if (record.resultCode != ResultCode.OK) {
+                    throw new AerospikeException(record.resultCode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Take a product out of the metadata records, see {@link CategoryMetadataCounts}
+     */
+    public void unloadCategories(String category, String subCategory, String articleType, String usage, String brandName) {
+        CategoryMetadataCounts.unload(
+                (userKey, operations) -> aerospikeClient.operate(counterWritePolicy(), new Key(NAMESPACE, CATEGORY_SET, userKey), operations),
+                category, subCategory, articleType, usage, brandName);
+    }
+
+    private void appendToShard(Map<Key, List<Operation>> operations, ListPolicy listPolicy, String binName, String value) {
+        List<Operation> shardOperations = operations.computeIfAbsent(new Key(NAMESPACE, CATEGORY_SET, CategoryMetadataKeys.shardFor(value)), k -> new ArrayList<>());
+        shardOperations.add(ListOperation.append(listPolicy, binName, Value.get(value)));
+        shardOperations.add(CategoryMetadataCounts.countUp(binName, value));
     }
 
     /**
@@ -259,6 +450,40 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
         }
     }
 
+    /**
+     * Create a numeric secondary index on the specified bin, for range queries
+     * 
+     * @param binName Name of the bin to index
+     * @param indexName Name of the index to create
+     */
+    public void createNumericIndex(String binName, String indexName) {
+        try {
+            aerospikeClient.createIndex(null, NAMESPACE, PRODUCT_SET, indexName, binName, IndexType.NUMERIC);
+        } catch (AerospikeException e) {
+            // Index already exists or other error - fail gracefully
+            System.out.println("Index " + indexName + " already exists or failed to create: " + e.getMessage());
+        }
+    }
+
+    /**
+     * How far the build of a secondary index has got, from the index statistics of each node
+     * 
+     * @param indexName Name of the index
+     * @return The lowest build percentage over the nodes, or -1 if a node does not have the index
+     */
+    public int getIndexLoadPercent(String indexName) {
+        int lowest = 100;
+        for (Node node : aerospikeClient.getNodes()) {
+            String response = Info.request(null, node, "sindex-stat:namespace=" + NAMESPACE + ";indexname=" + indexName);
+            if (response == null || response.startsWith("ERROR")) {
+                return -1;
+            }
+            String loadPct = parseInfo(response).get("load_pct");
+            lowest = Math.min(lowest, loadPct == null ? 0 : Integer.parseInt(loadPct));
+        }
+        return lowest;
+    }
+
     /**
      * Store a product record in Aerospike
      * 
@@ -267,9 +492,36 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      */
     public void storeProduct(Product product) {
         Key key = new Key(NAMESPACE, PRODUCT_SET, product.getId());
-        WritePolicy writePolicy = aerospikeClient.copyWritePolicyDefault();
+        WritePolicy writePolicy = writePolicy();
         writePolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
         aerospikeClient.put(writePolicy, key, getBins(Product.toMap(product)));
+        queryResultCache.invalidateAll();
+    }
+
+    /**
+     * Store a product record, replacing all its bins if it is already stored
+     * 
+     * @param product Product data
+     */
+    public void replaceProduct(Product product) {
+        Key key = new Key(NAMESPACE, PRODUCT_SET, product.getId());
+        WritePolicy writePolicy = writePolicy();
+        writePolicy.recordExistsAction = RecordExistsAction.REPLACE;
+        aerospikeClient.put(writePolicy, key, getBins(Product.toMap(product)));
+        queryResultCache.invalidateAll();
+    }
+
+    /**
+     * Delete a product record
+     * 
+     * @param productId Product identifier
+     * @return Whether the product was stored
+     */
+    public boolean deleteProduct(String productId) {
+        Key key = new Key(NAMESPACE, PRODUCT_SET, productId);
+        boolean existed = aerospikeClient.delete(writePolicy(), key);
+        queryResultCache.invalidateAll();
+        return existed;
     }
 
     /**
@@ -297,6 +549,23 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
      * @return QueryResult containing filtered products
      */
     public KeyValueServiceInterface.QueryResult advancedSearch(String category, String articleType, String usage, String brandName, String searchText, int count) {
+        return advancedSearch(category, articleType, usage, brandName, searchText, List.of(), count);
+    }
+
+    /**
+     * Advanced search with multiple filters and ranges on the numeric bins
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results
+     * @return QueryResult containing filtered products
+     */
+    public KeyValueServiceInterface.QueryResult advancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count) {
         long startTime = System.currentTimeMillis();
         
         Map<String, String> indexes = Map.of(
@@ -305,15 +574,162 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
                 "usage", asNonNullString(usage), 
                 "brandName", asNonNullString(brandName));
         
+        if (facetIndex.isCurrent(getCatalogueVersion())) {
+            // Answer the filters from the in-process bitmaps and fetch just the products to show
+            FacetIndex.Result result = facetIndex.search(indexes, ranges, count);
+            List<Product> products = new ArrayList<>();
+            if (!result.getProductIds().isEmpty()) {
+                Key[] keys = result.getProductIds()
+                        .stream()
+                        .map(id -> new Key(NAMESPACE, PRODUCT_SET, id))
+                        .toArray(Key[]::new);
+                for (Record record : aerospikeClient.get(batchPolicy(), keys, "id", "name", "images", "brandName")) {
+                    if (record != null) {
+                        products.add(Product.fromMap(record.bins));
+                    }
+                }
+            }
+            return new KeyValueServiceInterface.QueryResult(products, System.currentTimeMillis() - startTime, 
+                    result.getFacetCounts());
+        }
+        
+        RecordSet recordSet = runAdvancedSearch(indexes, ranges, count, "id", "name", "images", "brandName");
+        
+        List<Product> products = new ArrayList<>();
+        try {
+            while (recordSet.next()) {
+                Record record = recordSet.getRecord();
+                products.add(Product.fromMap(record.bins));
+            }
+        } finally {
+            recordSet.close();
+        }
+        
+        long endTime = System.currentTimeMillis() - startTime;
+        
+        return new KeyValueServiceInterface.QueryResult(products, endTime);
+    }
+
+    /**
+     * Advanced search with multiple filters, passing each product to the consumer as it is read
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param count Maximum number of results, or 0 for all of them
+     * @param consumer Called with each product
+     */
+    public void streamAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            int count, Consumer<Product> consumer) {
+        streamAdvancedSearch(category, articleType, usage, brandName, searchText, List.of(), count, consumer);
+    }
+
+    /**
+     * Advanced search with multiple filters and ranges on the numeric bins, passing each product 
+     * to the consumer as it is read
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results, or 0 for all of them
+     * @param consumer Called with each product
+     */
+    public void streamAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count, Consumer<Product> consumer) {
+        try (ProductCursor cursor = openAdvancedSearch(category, articleType, usage, brandName, searchText, ranges, count)) {
+            cursor.forEachRemaining(consumer);
+        }
+    }
+
+    /**
+     * Start an advanced search with multiple filters and ranges on the numeric bins, reading
+     * the products as they are pulled from the cursor
+     * 
+     * @param category Category filter (optional)
+     * @param articleType Article type filter (optional)
+     * @param usage Usage filter (optional)
+     * @param brandName Brand name filter (optional)
+     * @param searchText Text search query (optional)
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of results, or 0 for all of them
+     * @return The products, which must be closed
+     */
+    public ProductCursor openAdvancedSearch(String category, String articleType, String usage, String brandName, String searchText, 
+            List<NumericRange> ranges, int count) {
+        Map<String, String> indexes = Map.of(
+                "category", asNonNullString(category), 
+                "articleType", asNonNullString(articleType), 
+                "usage", asNonNullString(usage), 
+                "brandName", asNonNullString(brandName));
+        
+        return productCursor(runAdvancedSearch(indexes, ranges, count));
+    }
+
+    /**
+     * Start the query for an advanced search. One filter is run on its secondary index and 
+     * the others become a filter expression. When the facet index is complete it gives the
+     * exact number of matches of each filter, and the one matching fewest products is used,
+     * so a narrow price range drives the query rather than a broad category. Otherwise the 
+     * first equality filter present is used, and a range only if there are none.
+     * 
+     * @param indexes Bin name to required value, empty values are not filtered on
+     * @param ranges Ranges the numeric bins must be in, may be empty
+     * @param count Maximum number of records to return, or 0 for all of them
+     * @param binNames The bins to read, or none to read all bins
+     * @return The RecordSet of the query, which must be closed
+     */
+    private RecordSet runAdvancedSearch(Map<String, String> indexes, List<NumericRange> ranges, int count, String ... binNames) {
         String indexField = null;
+        NumericRange indexRange = null;
+        if (facetIndex.isComplete()) {
+            int fewestMatches = Integer.MAX_VALUE;
+            for (Entry<String, String> entry : indexes.entrySet()) {
+                if (!entry.getValue().isEmpty()) {
+                    int matches = facetIndex.estimateMatches(entry.getKey(), entry.getValue());
+                    if (matches < fewestMatches) {
+                        fewestMatches = matches;
+                        indexField = entry.getKey();
+                    }
+                }
+            }
+            for (NumericRange range : ranges) {
+                int matches = facetIndex.estimateMatches(range);
+                if (matches < fewestMatches) {
+                    fewestMatches = matches;
+                    indexField = null;
+                    indexRange = range;
+                }
+            }
+        }
+        else {
+            for (Entry<String, String> entry : indexes.entrySet()) {
+                if (!entry.getValue().isEmpty() && indexField == null) {
+                    indexField = entry.getKey();
+                }
+            }
+            if (indexField == null && !ranges.isEmpty()) {
+                indexRange = ranges.get(0);
+            }
+        }
+
         List<Exp> expParts = new ArrayList<>();
         for (Entry<String, String> entry : indexes.entrySet()) {
-            if (!entry.getValue().isEmpty()) {
-                if (indexField == null) {
-                    indexField = entry.getKey();
+            if (!entry.getValue().isEmpty() && !entry.getKey().equals(indexField)) {
+                expParts.add(Exp.eq(Exp.stringBin(entry.getKey()),Exp.val(entry.getValue())));
+            }
+        }
+        for (NumericRange range : ranges) {
+            if (range != indexRange) {
+                if (range.getMin() != null) {
+                    expParts.add(Exp.ge(Exp.intBin(range.getBinName()), Exp.val(range.getMin())));
                 }
-                else {
-                    expParts.add(Exp.eq(Exp.stringBin(entry.getKey()),Exp.val(entry.getValue())));
+                if (range.getMax() != null) {
+                    expParts.add(Exp.le(Exp.intBin(range.getBinName()), Exp.val(range.getMax())));
                 }
             }
         }
@@ -323,7 +739,13 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
         expParts.add(Exp.val(true));
 
         Expression filterExp = Exp.build(Exp.and(expParts.toArray(Exp[]::new)));
-        Filter filter = indexField == null ? null : Filter.equal(indexField, indexes.get(indexField));
+        Filter filter = null;
+        if (indexField != null) {
+            filter = Filter.equal(indexField, indexes.get(indexField));
+        }
+        else if (indexRange != null) {
+            filter = Filter.range(indexRange.getBinName(), indexRange.getMinOrLowest(), indexRange.getMaxOrHighest());
+        }
 
         Statement statement = new Statement();
         statement.setNamespace(NAMESPACE);
@@ -331,228 +753,260 @@ public class KeyValueServiceOldClient implements KeyValueServiceInterface {
         statement.setFilter(filter);
         statement.setMaxRecords(count);
         
-        List<String> binNames = new ArrayList<>();
-        binNames.add("id");
-        binNames.add("name");
-        binNames.add("images");
-        binNames.add("brandName");
-        statement.setBinNames(binNames.toArray(new String[0]));
-        
-        QueryPolicy queryPolicy = aerospikeClient.copyQueryPolicyDefault();
-        queryPolicy.filterExp = filterExp;
-        
-        RecordSet recordSet = aerospikeClient.query(queryPolicy, statement);
-        
-        List<Product> products = new ArrayList<>();
-        while (recordSet.next()) {
-            Record record = recordSet.getRecord();
-            products.add(Product.fromMap(record.bins));
+        if (binNames.length > 0) {
+            statement.setBinNames(binNames);
         }
         
-        long endTime = System.currentTimeMillis() - startTime;
+        QueryPolicy queryPolicy = queryPolicy();
+        queryPolicy.filterExp = filterExp;
         
-        return new KeyValueServiceInterface.QueryResult(products, endTime);
+        return aerospikeClient.query(queryPolicy, statement);
+    }
+
+    /**
+     * Get the number of products. By default this comes from the set statistics of each node,
+     * which costs one info call per node whatever the size of the catalogue, rather than a scan
+     * of every record. The statistics count every copy of a record, so the total is divided by
+     * the replication factor, and are approximate while partitions migrate. Set 
+     * aerospike.product-count.exact to count with a full scan instead. Either way the count is 
+     * cached for a few seconds.
+     */
+    /**
+     * The catalogue version is a counter in a record of its own set, which is not truncated
+     * or exported with the catalogue, so it only ever moves forward
+     */
+    public long getCatalogueVersion() {
+        Record record = aerospikeClient.get(readPolicy(), new Key(NAMESPACE, CATALOGUE_SET, CATALOGUE_VERSION_KEY), VERSION_BIN);
+        return record == null ? 0 : record.getLong(VERSION_BIN);
+    }
+
+    public long beginCatalogueChange() {
+        return moveCatalogueVersion(CatalogueVersion.begin(VERSION_BIN));
+    }
+
+    public long endCatalogueChange() {
+        return moveCatalogueVersion(CatalogueVersion.end(VERSION_BIN));
+    }
+
+    private long moveCatalogueVersion(Operation move) {
+        Record record = aerospikeClient.operate(counterWritePolicy(), new Key(NAMESPACE, CATALOGUE_SET, CATALOGUE_VERSION_KEY),
+                move, Operation.get(VERSION_BIN));
+        return record.getLong(VERSION_BIN);
     }
 
     public int getProductCount() {
+        return productCountCache.get(productCountCache.isExact() ? this::countProductsByScan : this::countProductsFromSetStats);
+    }
+
+    /**
+     * Read at most one product, without its bins, to see if there are any
+     */
+    public boolean hasProducts() {
         Statement stmt = new Statement();
         stmt.setNamespace(NAMESPACE);
         stmt.setSetName(PRODUCT_SET);
-        QueryPolicy qp = aerospikeClient.copyQueryPolicyDefault();
+        stmt.setMaxRecords(1);
+        QueryPolicy qp = queryPolicy();
         qp.setIncludeBinData(false);
-        
-        int count = 0;
+
         RecordSet results = aerospikeClient.query(qp, stmt);
-        while (results.next()) {
-            count++;
+        try {
+            return results.next();
+        } finally {
+            results.close();
         }
-        return count;
     }
 
-    // Cart operations
-    public Cart getCart(String userId) {
-        try {
-            Key key = new Key(NAMESPACE, CARTS_SET, userId);
-            Record record = aerospikeClient.get(null, key);
-            
-            if (record == null) {
-                return new Cart();
-            }
-            
-            return Cart.fromMap(record.bins);
-            
-        } catch (Exception e) {
-            System.err.println("Error getting cart: " + e.getMessage());
-            return new Cart();
+    private int countProductsFromSetStats() {
+        Node[] nodes = aerospikeClient.getNodes();
+        if (nodes.length == 0) {
+            return 0;
         }
+        long objects = 0;
+        for (Node node : nodes) {
+            Map<String, String> setStats = parseInfo(Info.request(null, node, "sets/" + NAMESPACE + "/" + PRODUCT_SET));
+            objects += Long.parseLong(setStats.getOrDefault("objects", "0"));
+        }
+        Map<String, String> namespaceStats = parseInfo(Info.request(null, nodes[0], "namespace/" + NAMESPACE));
+        int replicationFactor = Integer.parseInt(namespaceStats.getOrDefault("effective_replication_factor", 
+                namespaceStats.getOrDefault("replication-factor", "1")));
+        // There cannot be more copies of a record than there are nodes
+        replicationFactor = Math.max(1, Math.min(replicationFactor, nodes.length));
+        return (int) (objects / replicationFactor);
     }
 
-    public Cart addToCart(String userId, String productId, int quantity) {
-        try {
-            // Get product details first
-            Optional<Product> productOptional = getProduct(productId);
-            
-            Product product = productOptional
-                    .orElseThrow(() -> new RuntimeException("Product not found: " + productId));
-
-            Key key = new Key(NAMESPACE, CARTS_SET, userId);
-            Cart cart;
-            
-            // Get product image
-            String image = extractProductImage(product);
-            while (true) {
-                // Check if item already exists in cart
-                Record existingRecord = aerospikeClient.get(null, key);
-
-                WritePolicy writePolicy = aerospikeClient.copyWritePolicyDefault();
-
-                AtomicBoolean existing = new AtomicBoolean(false);
-                int totalQuantity = quantity;
-                cart = null;
-                CartItem thisItem;
-                if (existingRecord != null) {
-                    writePolicy.generation = existingRecord.generation;
-                    writePolicy.generationPolicy = GenerationPolicy.EXPECT_GEN_EQUAL;
-                    
-                    cart = Cart.fromMap(existingRecord.bins);
-                    thisItem = cart.findItem(productId)
-                        .map(item -> {
-                            item.setQuantity(item.getQuantity() + quantity);
-                            existing.set(true);
-                            return item;
-                        })
-                        .orElseGet(() -> {
-                            return new CartItem(userId, totalQuantity, image, product);
-                        });
-                }
-                else {
-                    writePolicy.recordExistsAction = RecordExistsAction.CREATE_ONLY;
-                    thisItem = new CartItem(userId, totalQuantity, image, product);
-                }
-                
-                MapPolicy mapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
-                try {
-                    if (existing.get()) {
-                        aerospikeClient.operate(writePolicy, key, 
-                                MapOperation.increment(mapPolicy, ITEMS_BIN, Value.get("quantity"), 
-                                        Value.get(quantity), CTX.mapKey(Value.get(productId))));
-                    }
-                    else {
-                        if (cart == null) {
-                            cart = new Cart();
-                        }
-                        cart.add(thisItem);
-                        aerospikeClient.operate(writePolicy, key,
-                                MapOperation.put(mapPolicy, ITEMS_BIN, 
-                                        Value.get(productId), Value.get(CartItem.toMap(thisItem))));
-                        
-                    }
-                    break;
-                }
-                catch (AerospikeException ae) {
-                    // If it's a generation error, retry
-                    if (ae.getResultCode() != ResultCode.GENERATION_ERROR) {
-                        throw ae;
-                    }
-                }
+    /**
+     * Parse an info response of the form "name1=value1:name2=value2;"
+     */
+    private Map<String, String> parseInfo(String response) {
+        Map<String, String> values = new HashMap<>();
+        if (response == null) {
+            return values;
+        }
+        for (String pair : response.split("[:;]")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                values.put(pair.substring(0, equals).trim(), pair.substring(equals + 1).trim());
             }
-
-            return cart;
-        } catch (Exception e) {
-            System.err.println("Error adding to cart: " + e.getMessage());
-            throw new RuntimeException("Failed to add item to cart: " + e.getMessage());
         }
+        return values;
     }
 
-    public Cart updateCartItem(String userId, String productId, int quantity) {
+    /**
+     * Count the products with a scan of each partition range at the same time
+     */
+    private int countProductsByScan() {
+        return (int) partitionScanner.count(this::countProductPartitions);
+    }
+
+    private long countProductPartitions(int partitionBegin, int partitionCount) {
+        Statement stmt = new Statement();
+        stmt.setNamespace(NAMESPACE);
+        stmt.setSetName(PRODUCT_SET);
+        QueryPolicy qp = queryPolicy();
+        qp.setIncludeBinData(false);
+        
+        long count = 0;
+        RecordSet results = aerospikeClient.queryPartitions(qp, stmt, PartitionFilter.range(partitionBegin, partitionCount));
         try {
-            Key key = new Key(NAMESPACE, CARTS_SET, userId);
-            Record record = aerospikeClient.get(null, key);
-            
-            if (record == null) {
-                return new Cart();
+            while (results.next()) {
+                count++;
             }
-            
-            Cart cart = Cart.fromMap(record.bins);
-
-            WritePolicy writePolicy = aerospikeClient.copyWritePolicyDefault();
+        } finally {
+            results.close();
+        }
+        return count;
+    }
 
-            if (quantity <= 0) {
-                cart.remove(productId);
-                aerospikeClient.operate(writePolicy, key, 
-                        MapOperation.removeByKey(ITEMS_BIN, Value.get(productId), MapReturnType.NONE));
-            }
-            else {
-                MapPolicy mapPolicy = new MapPolicy(MapOrder.KEY_ORDERED, MapWriteFlags.DEFAULT);
-                cart.findItem(productId)
-                    .ifPresent(item -> {
-                        item.setQuantity(quantity);
-                        aerospikeClient.operate(writePolicy, key,
-                                MapOperation.put(mapPolicy, ITEMS_BIN, Value.get("quantity"), Value.get(quantity), CTX.mapKey(Value.get(productId))));
-                    });
+    /**
+     * Read every product in the partition range
+     * 
+     * @param partitionBegin First partition to read
+     * @param partitionCount Number of partitions to read
+     * @param consumer Called with each product
+     */
+    public void scanProductPartitions(int partitionBegin, int partitionCount, Consumer<Product> consumer) {
+        Statement statement = new Statement();
+        statement.setNamespace(NAMESPACE);
+        statement.setSetName(PRODUCT_SET);
+        
+        RecordSet recordSet = aerospikeClient.queryPartitions(queryPolicy(), statement, 
+                PartitionFilter.range(partitionBegin, partitionCount));
+        try {
+            while (recordSet.next()) {
+                consumer.accept(Product.fromMap(recordSet.getRecord().bins));
             }
-            return cart;
-        } catch (Exception e) {
-            System.err.println("Error updating cart item: " + e.getMessage());
-            throw new RuntimeException("Failed to update cart item: " + e.getMessage());
+        } finally {
+            recordSet.close();
         }
     }
 
-    public Cart removeFromCart(String userId, String productId) {
-        return updateCartItem(userId, productId, 0);
+    /**
+     * Read every product and metadata record in the partition range, for a snapshot
+     * 
+     * @param partitionBegin First partition to read
+     * @param partitionCount Number of partitions to read
+     * @param consumer Called with each record
+     */
+    public void scanSnapshotPartitions(int partitionBegin, int partitionCount, Consumer<SnapshotRecord> consumer) {
+        scanSnapshotSet(PRODUCT_SET, SnapshotRecord.Kind.PRODUCT, partitionBegin, partitionCount, consumer);
+        scanSnapshotSet(CATEGORY_SET, SnapshotRecord.Kind.METADATA, partitionBegin, partitionCount, consumer);
     }
 
-    public Cart clearCart(String userId) {
+    private void scanSnapshotSet(String setName, SnapshotRecord.Kind kind, int partitionBegin, int partitionCount, 
+            Consumer<SnapshotRecord> consumer) {
+        Statement statement = new Statement();
+        statement.setNamespace(NAMESPACE);
+        statement.setSetName(setName);
+        
+        RecordSet recordSet = aerospikeClient.queryPartitions(queryPolicy(), statement, 
+                PartitionFilter.range(partitionBegin, partitionCount));
         try {
-            Key key = new Key(NAMESPACE, CARTS_SET, userId);
-            WritePolicy writePolicy = aerospikeClient.copyWritePolicyDefault();
-            aerospikeClient.operate(writePolicy, key, MapOperation.clear(ITEMS_BIN));
-            
-            return new Cart();
-        } catch (Exception e) {
-            System.err.println("Error clearing cart: " + e.getMessage());
-            throw new RuntimeException("Failed to clear cart: " + e.getMessage());
+            while (recordSet.next()) {
+                Key key = recordSet.getKey();
+                Object userKey = key.userKey == null ? null : key.userKey.getObject();
+                consumer.accept(new SnapshotRecord(kind, key.digest, userKey, recordSet.getRecord().bins));
+            }
+        } finally {
+            recordSet.close();
         }
     }
 
     /**
-     * Extracts product image URL from the product data structure
-     * Tries search/resolutions/125X161 first, then front/resolutions/125X161
+     * Write a batch of snapshot records in one batch call, replacing any existing records.
+     * Records are keyed by digest, so they do not need their user key.
+     * 
+     * @param records The records to write
+     * @return The number of records which failed to write
      */
-    private String extractProductImage(Product product) {
-        Map<String, Object> images = product.getImages();
-        if (images == null) {
-            return null;
+    public int restoreSnapshotRecords(List<SnapshotRecord> records) {
+        BatchWritePolicy writePolicy = new BatchWritePolicy();
+        writePolicy.recordExistsAction = RecordExistsAction.REPLACE;
+        writePolicy.sendKey = true;
+        
+        List<BatchRecord> batchRecords = new ArrayList<>(records.size());
+        for (SnapshotRecord record : records) {
+            String setName = record.getKind() == SnapshotRecord.Kind.PRODUCT ? PRODUCT_SET : CATEGORY_SET;
+            Value userKey = record.getUserKey() == null ? null : Value.get(record.getUserKey());
+            Key key = new Key(NAMESPACE, record.getDigest(), setName, userKey);
+            Operation[] operations = record.getBins().entrySet()
+                    .stream()
+                    .map(bin -> Operation.put(new Bin(bin.getKey(), Value.get(bin.getValue()))))
+                    .toArray(Operation[]::new);
+            batchRecords.add(new BatchWrite(writePolicy, key, operations));
         }
-
-        // Try search -> resolutions -> 125X161
-        String image = getImageFromPath(images, "search", "resolutions", "125X161");
-        if (image != null) {
-            return image;
+        aerospikeClient.operate(batchWritePolicy(), batchRecords);
+        
+        int failures = 0;
+        for (BatchRecord batchRecord : batchRecords) {
+            if (batchRecord.resultCode != ResultCode.OK) {
+                failures++;
+            }
         }
+        return failures;
+    }
+
+    // Cart operations
+    public Cart getCart(String userId) {
+        return cartOperations.getCart(userId);
+    }
 
-        // Fallback: try front -> resolutions -> 125X161
-        return getImageFromPath(images, "front", "resolutions", "125X161");
+    public Cart addToCart(String userId, String productId, int quantity) {
+        return cartOperations.addToCart(userId, productId, quantity);
+    }
+
+    public Cart addItemsToCart(String userId, Map<String, Integer> items) {
+        return cartOperations.addItemsToCart(userId, items);
+    }
+
+    public Cart updateCartItem(String userId, String productId, int quantity) {
+        return cartOperations.updateCartItem(userId, productId, quantity);
+    }
+
+    public Cart removeFromCart(String userId, String productId) {
+        return cartOperations.removeFromCart(userId, productId);
+    }
+
+    public Cart clearCart(String userId) {
+        return cartOperations.clearCart(userId);
     }
 
     /**
-     * Helper method to safely navigate nested map structure for image extraction
+     * Get the products with the passed ids in one batch read
      */
-    @SuppressWarnings("unchecked")
-    private String getImageFromPath(Map<String, Object> root, String... path) {
-        Map<String, Object> current = root;
-        
-        // Navigate through all path segments except the last one
-        for (int i = 0; i < path.length - 1; i++) {
-            Object next = current.get(path[i]);
-            if (!(next instanceof Map)) {
-                return null;
+    private Map<String, Product> getProducts(List<String> productIds) {
+        Key[] productKeys = productIds.stream()
+                .map(productId -> new Key(NAMESPACE, PRODUCT_SET, productId))
+                .toArray(Key[]::new);
+        Record[] productRecords = aerospikeClient.get(batchPolicy(), productKeys);
+
+        Map<String, Product> products = new HashMap<>();
+        for (int i = 0; i < productIds.size(); i++) {
+            if (productRecords[i] == null) {
+                throw new RuntimeException("Product not found: " + productIds.get(i));
             }
-            current = (Map<String, Object>) next;
+            products.put(productIds.get(i), Product.fromMap(productRecords[i].bins));
         }
-        
-        // Get the final value
-        Object result = current.get(path[path.length - 1]);
-        return result instanceof String ? (String) result : null;
+        return products;
     }
 }
@@ -0,0 +1,242 @@
+package com.aerospike.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A catalogue load run in the background, with live counts of its progress.
+ * <p/>
+ * The counts are updated by the loading thread and read by status requests, so they are
+ * adders rather than plain fields, and the times are taken as they are read.
+ */
+public class LoadJob implements LoadProgress {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        COMPLETED,
+        CANCELLED,
+        FAILED
+    }
+
+    private final String id;
+    private final String type;
+    private final String source;
+    private final long createdAt = System.currentTimeMillis();
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    private volatile Status status = Status.QUEUED;
+    private volatile String phase = null;
+    private volatile boolean cancelRequested = false;
+    private volatile int total = -1;
+    private volatile Object result = null;
+    private volatile String failure = null;
+    private final LongAdder parsedCount = new LongAdder();
+    private final LongAdder writtenCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder errorCount = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    final CompletableFuture<Object> future = new CompletableFuture<>();
+
+    /**
+     * @param id The job id
+     * @param type The kind of load, for example "full" or "incremental"
+     * @param source The directory or file being loaded
+     */
+    public LoadJob(String id, String type, String source) {
+        this.id = id;
+        this.type = type;
+        this.source = source;
+    }
+
+    // Progress from the loading thread
+
+    @Override
+    public void phase(String phase) {
+        this.phase = phase;
+    }
+
+    @Override
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    @Override
+    public void parsed(long nanos) {
+        parsedCount.increment();
+        parseNanos.add(nanos);
+    }
+
+    @Override
+    public void written(long nanos) {
+        writtenCount.increment();
+        writeNanos.add(nanos);
+    }
+
+    @Override
+    public void skipped() {
+        skippedCount.increment();
+    }
+
+    @Override
+    public void error() {
+        errorCount.increment();
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelRequested;
+    }
+
+    // Changes of state from the job service
+
+    void started() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void finished(Object result) {
+        this.result = result;
+        finishedAt = System.currentTimeMillis();
+        status = cancelRequested ? Status.CANCELLED : Status.COMPLETED;
+        future.complete(result);
+    }
+
+    void failed(Throwable cause) {
+        failure = cause.getMessage();
+        finishedAt = System.currentTimeMillis();
+        status = Status.FAILED;
+        future.completeExceptionally(cause);
+    }
+
+    /**
+     * Ask the job to stop. A running load stops before its next file and keeps what it has
+     * already stored.
+     * @return Whether the job was still queued or running
+     */
+    public boolean cancel() {
+        if (isFinished()) {
+            return false;
+        }
+        cancelRequested = true;
+        return true;
+    }
+
+    public boolean isFinished() {
+        return finishedAt != 0;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return The step the load is on, or null before the load reports one
+     */
+    public String getPhase() {
+        return phase;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return The number of files or records the load will handle, or -1 if not known
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public long getParsedCount() {
+        return parsedCount.sum();
+    }
+
+    public long getWrittenCount() {
+        return writtenCount.sum();
+    }
+
+    public long getSkippedCount() {
+        return skippedCount.sum();
+    }
+
+    public long getErrorCount() {
+        return errorCount.sum();
+    }
+
+    /**
+     * @return The number of files or records handled so far, whether loaded, skipped or in error
+     */
+    public long getProcessedCount() {
+        return getWrittenCount() + getSkippedCount() + getErrorCount();
+    }
+
+    public long getParseMs() {
+        return parseNanos.sum() / 1_000_000;
+    }
+
+    public long getWriteMs() {
+        return writeNanos.sum() / 1_000_000;
+    }
+
+    /**
+     * @return The time the job has been running, or ran for
+     */
+    public long getElapsedMs() {
+        if (startedAt == 0) {
+            return 0;
+        }
+        return (isFinished() ? finishedAt : System.currentTimeMillis()) - startedAt;
+    }
+
+    /**
+     * @return Products written per second since the job started
+     */
+    public double getRecordsPerSecond() {
+        long elapsedMs = getElapsedMs();
+        return elapsedMs > 0 ? getWrittenCount() * 1000.0 / elapsedMs : 0;
+    }
+
+    /**
+     * @return The estimated time to finish at the rate so far, or -1 if it cannot be estimated yet
+     */
+    public long getEtaMs() {
+        if (isFinished()) {
+            return 0;
+        }
+        long processed = getProcessedCount();
+        long elapsedMs = getElapsedMs();
+        if (total < 0 || processed == 0 || elapsedMs == 0) {
+            return -1;
+        }
+        long remaining = Math.max(0, total - processed);
+        return remaining * elapsedMs / processed;
+    }
+
+    /**
+     * @return The result of the load once it has finished, otherwise null
+     */
+    public Object getResult() {
+        return result;
+    }
+
+    /**
+     * @return Why the job failed, or null
+     */
+    public String getFailure() {
+        return failure;
+    }
+}
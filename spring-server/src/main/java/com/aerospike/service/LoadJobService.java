@@ -0,0 +1,132 @@
+package com.aerospike.service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Runs catalogue loads as background jobs, one at a time in the order they were submitted,
+ * and keeps them so their progress can be read by id. Loads share the facet index and clear
+ * or rebuild it, so they are not run side by side.
+ */
+@Service
+public class LoadJobService {
+
+    private static final int MAX_FINISHED_JOBS = 50;
+
+    /**
+     * The work of a load job, reporting its progress to the job
+     */
+    @FunctionalInterface
+    public interface LoadTask {
+        Object run(LoadJob job) throws Exception;
+    }
+
+    private final Map<String, LoadJob> jobs = new LinkedHashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "catalogue-load");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queue a load job
+     *
+     * @param type The kind of load, for example "full", "incremental" or "snapshot-import"
+     * @param source The directory or file being loaded
+     * @param task The load to run
+     * @return The queued job
+     */
+    public LoadJob submit(String type, String source, LoadTask task) {
+        LoadJob job = new LoadJob(UUID.randomUUID().toString(), type, source);
+        synchronized (jobs) {
+            jobs.put(job.getId(), job);
+            removeOldJobs();
+        }
+        executor.execute(() -> {
+            if (job.isCancelled()) {
+                job.finished(null);
+                return;
+            }
+            job.started();
+            try {
+                job.finished(task.run(job));
+            } catch (Exception e) {
+                System.err.println("Load job " + job.getId() + " failed: " + e.getMessage());
+                job.failed(e);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Wait for a job to finish
+     *
+     * @return The result of the load
+     * @throws IOException if the load failed to read its files
+     */
+    public Object await(LoadJob job) throws IOException {
+        try {
+            return job.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for load job " + job.getId(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException("Failed to load: " + cause.getMessage(), cause);
+        }
+    }
+
+    public Optional<LoadJob> getJob(String id) {
+        synchronized (jobs) {
+            return Optional.ofNullable(jobs.get(id));
+        }
+    }
+
+    /**
+     * @return All the jobs kept, oldest first
+     */
+    public List<LoadJob> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * Forget the oldest finished jobs past the number kept
+     */
+    private void removeOldJobs() {
+        long finished = jobs.values().stream().filter(LoadJob::isFinished).count();
+        Iterator<LoadJob> iterator = jobs.values().iterator();
+        while (finished > MAX_FINISHED_JOBS && iterator.hasNext()) {
+            if (iterator.next().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        getJobs().forEach(LoadJob::cancel);
+        executor.shutdown();
+    }
+}
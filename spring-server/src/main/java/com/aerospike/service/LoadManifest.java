@@ -0,0 +1,150 @@
+package com.aerospike.service;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The style files a catalogue load stored, with the content hash, size and modified time of
+ * each, so the next load can tell which files changed.
+ * <p/>
+ * A file whose size and modified time match is taken as unchanged without reading it. Otherwise
+ * the content read to load it is hashed as well, so a file which was only touched or copied is
+ * not stored again, and no file is read twice. The
+ * manifest is kept as a text file of one line per style file, with paths relative to the data
+ * root so the data can be moved.
+ */
+public class LoadManifest {
+
+    public static final String FILE_NAME = ".load-manifest";
+
+    /**
+     * What the manifest knows about one style file
+     */
+    public static class Entry {
+        private final String hash;
+        private final long size;
+        private final long modifiedMs;
+
+        public Entry(String hash, long size, long modifiedMs) {
+            this.hash = hash;
+            this.size = size;
+            this.modifiedMs = modifiedMs;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModifiedMs() {
+            return modifiedMs;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    public LoadManifest() {
+        this(new HashMap<>());
+    }
+
+    private LoadManifest(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Read the manifest of a data root
+     * @return The manifest, empty if there is none
+     */
+    public static LoadManifest read(Path dataRoot) throws IOException {
+        Path file = dataRoot.resolve(FILE_NAME);
+        Map<String, Entry> entries = new HashMap<>();
+        if (!Files.exists(file)) {
+            return new LoadManifest(entries);
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // hash, size, modified time, path. The path is last as it may hold tabs.
+                String[] fields = line.split("\t", 4);
+                if (fields.length != 4) {
+                    throw new IOException("Corrupt load manifest " + file + ": " + line);
+                }
+                entries.put(fields[3], new Entry(fields[0], Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+            }
+        }
+        return new LoadManifest(entries);
+    }
+
+    /**
+     * Write the manifest to a data root, replacing the old one in one step so a failed write
+     * leaves the old manifest in place
+     */
+    public void write(Path dataRoot) throws IOException {
+        Path file = dataRoot.resolve(FILE_NAME);
+        Path tempFile = dataRoot.resolve(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(entries).entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(value.getHash() + "\t" + value.getSize() + "\t" + value.getModifiedMs() + "\t" + entry.getKey());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Map<String, Entry> getEntries() {
+        return entries;
+    }
+
+    public Entry get(String relativePath) {
+        return entries.get(relativePath);
+    }
+
+    public void put(String relativePath, Entry entry) {
+        entries.put(relativePath, entry);
+    }
+
+    public void remove(String relativePath) {
+        entries.remove(relativePath);
+    }
+
+    /**
+     * Whether a file has the size and modified time of its known entry, so can be taken as
+     * unchanged without reading it
+     * @param file The style file
+     * @param known The entry from the last load, or null
+     */
+    public static boolean isUnchanged(Path file, Entry known) throws IOException {
+        return known != null
+                && known.getSize() == Files.size(file)
+                && known.getModifiedMs() == Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Work out the entry of a file from the content read to load it
+     * @param content The whole content of the style file
+     * @param modifiedMs The modified time of the file, read before its content
+     */
+    public static Entry describe(byte[] content, long modifiedMs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new Entry(HexFormat.of().formatHex(digest.digest(content)), content.length, modifiedMs);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.aerospike.service;
+
+/**
+ * Receives the progress of a catalogue load as each file is handled, and tells the load
+ * whether to stop early
+ */
+public interface LoadProgress {
+
+    /**
+     * Progress which is not reported anywhere, for loads which are not run as jobs
+     */
+    LoadProgress NONE = new LoadProgress() {
+    };
+
+    /**
+     * The load has moved on to another step, for example from writing products to building indexes
+     */
+    default void phase(String phase) {
+    }
+
+    /**
+     * The number of files or records the load will handle, once it is known
+     */
+    default void setTotal(int total) {
+    }
+
+    /**
+     * A file or record was read and parsed into a product
+     * @param nanos The time taken to read and parse it
+     */
+    default void parsed(long nanos) {
+    }
+
+    /**
+     * A product was written to, or deleted from, the database
+     * @param nanos The time taken to write it
+     */
+    default void written(long nanos) {
+    }
+
+    /**
+     * A file was found to be unchanged, so was not loaded
+     */
+    default void skipped() {
+    }
+
+    /**
+     * A file or record failed to load
+     */
+    default void error() {
+    }
+
+    /**
+     * Whether the load should stop before the next file
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,263 @@
+package com.aerospike.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+
+/**
+ * Paces catalogue loads so they leave cluster capacity for shopper traffic.
+ * <p/>
+ * Token buckets cap the records and bytes written per second, each allowing a burst of up to
+ * a second's worth. The caps also adapt: once a second the average write latency and the number
+ * of overload errors (timeouts, KEY_BUSY and device overload) are checked, and if either is over
+ * its threshold the caps are halved, down to a tenth of the configured rate. While the writes
+ * stay healthy the caps are raised again by a tenth of the configured rate each second. If no
+ * record rate is configured, the first back off caps the rate at half of what the load was
+ * achieving, and the cap is lifted again once fully recovered.
+ * <p/>
+ * Loads run one at a time, so there is one throttle, reset at the start of each load.
+ */
+public class LoadThrottle {
+
+    private static final long ADJUST_EVERY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final double MIN_FACTOR = 0.1;
+    private static final double RECOVERY_STEP = 0.1;
+
+    /**
+     * A token bucket, where taking more tokens than are left puts the bucket in debt and the
+     * caller waits until the debt is paid off
+     */
+    private static class Bucket {
+        private double ratePerSecond = 0;
+        private double tokens = 0;
+        private long lastNanos = System.nanoTime();
+
+        void setRate(double ratePerSecond) {
+            refill();
+            this.ratePerSecond = ratePerSecond;
+            tokens = Math.min(tokens, ratePerSecond);
+        }
+
+        private void refill() {
+            long now = System.nanoTime();
+            if (ratePerSecond > 0) {
+                tokens = Math.min(ratePerSecond, tokens + (now - lastNanos) * ratePerSecond / 1e9);
+            }
+            lastNanos = now;
+        }
+
+        /**
+         * @return How long to wait before going ahead, in nanoseconds
+         */
+        long take(double amount) {
+            if (ratePerSecond <= 0) {
+                return 0;
+            }
+            refill();
+            tokens -= amount;
+            return tokens >= 0 ? 0 : (long) (-tokens / ratePerSecond * 1e9);
+        }
+    }
+
+    private final long recordsPerSecond;
+    private final long bytesPerSecond;
+    private final boolean adaptive;
+    private final long maxWriteLatencyNanos;
+    private final int maxOverloadErrors;
+
+    private final Bucket recordBucket = new Bucket();
+    private final Bucket byteBucket = new Bucket();
+    private double factor = 1.0;
+    private double baseRecordsPerSecond;
+    private long windowStart;
+    private long windowWrites;
+    private long windowLatencyNanos;
+    private long windowOverloads;
+    private final LongAdder backoffs = new LongAdder();
+    private final LongAdder overloadErrors = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param recordsPerSecond Most records to write per second, or 0 for no cap
+     * @param bytesPerSecond Most bytes of style file to load per second, or 0 for no cap
+     * @param adaptive Whether to back off when the writes show the cluster is struggling
+     * @param maxWriteLatencyMs Average write latency over a second above which to back off
+     * @param maxOverloadErrors Overload errors in a second above which to back off
+     */
+    public LoadThrottle(long recordsPerSecond, long bytesPerSecond, boolean adaptive, long maxWriteLatencyMs,
+            int maxOverloadErrors) {
+        this.recordsPerSecond = recordsPerSecond;
+        this.bytesPerSecond = bytesPerSecond;
+        this.adaptive = adaptive;
+        this.maxWriteLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxWriteLatencyMs);
+        this.maxOverloadErrors = maxOverloadErrors;
+        reset();
+    }
+
+    public boolean isEnabled() {
+        return adaptive || recordsPerSecond > 0 || bytesPerSecond > 0;
+    }
+
+    /**
+     * Go back to the configured caps, for the start of a load
+     */
+    public synchronized void reset() {
+        factor = 1.0;
+        baseRecordsPerSecond = recordsPerSecond;
+        applyRates();
+        windowStart = System.nanoTime();
+        windowWrites = 0;
+        windowLatencyNanos = 0;
+        windowOverloads = 0;
+    }
+
+    /**
+     * Wait until a record of this size may be written
+     * @param bytes The size of the record's source, or 0 if not known
+     */
+    public void acquire(long bytes) {
+        if (!isEnabled()) {
+            return;
+        }
+        long waitFor;
+        synchronized (this) {
+            waitFor = Math.max(recordBucket.take(1), byteBucket.take(bytes));
+        }
+        if (waitFor > 0) {
+            waitNanos.add(waitFor);
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitFor);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting to write", e);
+            }
+        }
+    }
+
+    /**
+     * Note a successful write
+     * @param latencyNanos How long the write took
+     */
+    public void recordWrite(long latencyNanos) {
+        recordWrites(1, latencyNanos);
+    }
+
+    /**
+     * Note the successful writes of a batch, so the latency checked is per record rather than
+     * per batch, as for single writes
+     * @param writes Number of records written
+     * @param latencyNanos How long the whole batch took
+     */
+    public void recordWrites(int writes, long latencyNanos) {
+        if (!adaptive || writes <= 0) {
+            return;
+        }
+        synchronized (this) {
+            windowWrites += writes;
+            windowLatencyNanos += latencyNanos;
+            adjust();
+        }
+    }
+
+    /**
+     * Note a failed write, counting it towards backing off if it shows the cluster is overloaded
+     */
+    public void recordFailure(Throwable e) {
+        if (!adaptive || !isOverload(e)) {
+            return;
+        }
+        overloadErrors.increment();
+        synchronized (this) {
+            windowWrites++;
+            windowOverloads++;
+            adjust();
+        }
+    }
+
+    private static boolean isOverload(Throwable e) {
+        if (e instanceof AerospikeException aerospikeException) {
+            int resultCode = aerospikeException.getResultCode();
+            return resultCode == ResultCode.TIMEOUT
+                    || resultCode == ResultCode.KEY_BUSY
+                    || resultCode == ResultCode.DEVICE_OVERLOAD;
+        }
+        return false;
+    }
+
+    /**
+     * Once a second, halve the caps if the writes were slow or overloaded, otherwise raise them
+     */
+    private void adjust() {
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed < ADJUST_EVERY_NANOS) {
+            return;
+        }
+        double achievedPerSecond = windowWrites * 1e9 / elapsed;
+        boolean slow = windowWrites > windowOverloads
+                && windowLatencyNanos / (windowWrites - windowOverloads) > maxWriteLatencyNanos;
+        if (slow || windowOverloads > maxOverloadErrors) {
+            if (baseRecordsPerSecond <= 0) {
+                baseRecordsPerSecond = Math.max(1, achievedPerSecond);
+            }
+            factor = Math.max(MIN_FACTOR, factor / 2);
+            backoffs.increment();
+            applyRates();
+        } else if (factor < 1.0) {
+            factor = Math.min(1.0, factor + RECOVERY_STEP);
+            if (factor == 1.0) {
+                baseRecordsPerSecond = recordsPerSecond;
+            }
+            applyRates();
+        }
+        windowStart = now;
+        windowWrites = 0;
+        windowLatencyNanos = 0;
+        windowOverloads = 0;
+    }
+
+    private void applyRates() {
+        recordBucket.setRate(baseRecordsPerSecond * factor);
+        byteBucket.setRate(bytesPerSecond * factor);
+    }
+
+    /**
+     * @return The current cap on records per second, or 0 if there is none
+     */
+    public synchronized double getCurrentRecordsPerSecond() {
+        return baseRecordsPerSecond * factor;
+    }
+
+    /**
+     * @return The current cap on bytes per second, or 0 if there is none
+     */
+    public synchronized double getCurrentBytesPerSecond() {
+        return bytesPerSecond * factor;
+    }
+
+    public long getRecordsPerSecond() {
+        return recordsPerSecond;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public long getBackoffs() {
+        return backoffs.sum();
+    }
+
+    public long getOverloadErrors() {
+        return overloadErrors.sum();
+    }
+
+    public long getWaitMs() {
+        return waitNanos.sum() / 1_000_000;
+    }
+}
@@ -0,0 +1,294 @@
+package com.aerospike.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The style files of a catalogue packed into one file, read through a memory mapping and split
+ * into records as they are iterated, so loading does not open, read and close a file per product.
+ * <p/>
+ * Two packings are read:
+ * <ul>
+ * <li>Newline delimited JSON, one style file per line. The product id is taken from the
+ * {@code data.id} field of each record.</li>
+ * <li>A zip of style files. The central directory is read from the mapping, and each entry is
+ * sliced from the mapping, inflated if it is compressed. The product id is the entry's file name
+ * without the extension, as for loose style files. Zip64 and encrypted entries are not supported.</li>
+ * </ul>
+ * The records handed out are views of the mapping, so they are only valid until the catalogue is
+ * closed.
+ */
+public abstract class PackedCatalogue implements Iterator<PackedCatalogue.Entry>, Closeable {
+
+    /**
+     * One style file from the packed catalogue
+     */
+    public static class Entry {
+        private final String productId;
+        private final ByteBuffer content;
+
+        Entry(String productId, ByteBuffer content) {
+            this.productId = productId;
+            this.content = content;
+        }
+
+        /**
+         * @return The product id, or null if it must be read from the content
+         */
+        public String getProductId() {
+            return productId;
+        }
+
+        /**
+         * @return The JSON of the style file
+         */
+        public ByteBuffer getContent() {
+            return content;
+        }
+    }
+
+    protected final FileChannel channel;
+    private Entry pending = null;
+
+    protected PackedCatalogue(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+    }
+
+    /**
+     * Open a packed catalogue, as a zip if the file name ends in .zip and as newline delimited
+     * JSON otherwise
+     */
+    public static PackedCatalogue open(Path file) throws IOException {
+        if (file.getFileName().toString().toLowerCase().endsWith(".zip")) {
+            return new Zip(file);
+        }
+        return new Ndjson(file);
+    }
+
+    /**
+     * Find the next record
+     * @return The record, or null at the end of the catalogue
+     */
+    protected abstract Entry readNext() throws IOException;
+
+    @Override
+    public boolean hasNext() {
+        if (pending == null) {
+            try {
+                pending = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return pending != null;
+    }
+
+    @Override
+    public Entry next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Entry entry = pending;
+        pending = null;
+        return entry;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Newline delimited JSON, mapped a window at a time so files larger than a mapping can hold
+     * are read. A record running past the end of a window is read by mapping the next window
+     * from the start of the record.
+     */
+    private static class Ndjson extends PackedCatalogue {
+        private static final int WINDOW_SIZE = 1 << 28;
+
+        private final long fileSize;
+        private long windowStart = 0;
+        private MappedByteBuffer window;
+        private int position = 0;
+
+        Ndjson(Path file) throws IOException {
+            super(file);
+            this.fileSize = channel.size();
+            this.window = map(0);
+        }
+
+        private MappedByteBuffer map(long start) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, fileSize - start));
+        }
+
+        private boolean windowReachesEnd() {
+            return windowStart + window.limit() == fileSize;
+        }
+
+        @Override
+        protected Entry readNext() throws IOException {
+            while (true) {
+                // Skip blank lines and the whitespace between records
+                while (position < window.limit() && Character.isWhitespace(window.get(position))) {
+                    position++;
+                }
+                if (position == window.limit()) {
+                    if (windowReachesEnd()) {
+                        return null;
+                    }
+                    windowStart += position;
+                    window = map(windowStart);
+                    position = 0;
+                    continue;
+                }
+
+                int end = position;
+                while (end < window.limit() && window.get(end) != '\n') {
+                    end++;
+                }
+                if (end == window.limit() && !windowReachesEnd()) {
+                    if (position == 0) {
+                        throw new IOException("Record at offset " + windowStart + " is larger than " + WINDOW_SIZE + " bytes");
+                    }
+                    windowStart += position;
+                    window = map(windowStart);
+                    position = 0;
+                    continue;
+                }
+
+                ByteBuffer record = window.slice(position, end - position);
+                position = Math.min(end + 1, window.limit());
+                return new Entry(null, record);
+            }
+        }
+    }
+
+    /**
+     * A zip of style files, read from its central directory
+     */
+    private static class Zip extends PackedCatalogue {
+        private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+        private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+        private static final int LOCAL_HEADER = 0x04034b50;
+        private static final int STORED = 0;
+        private static final int DEFLATED = 8;
+
+        private final MappedByteBuffer mapping;
+        private final int entryCount;
+        private int entriesRead = 0;
+        private int directoryPosition;
+
+        Zip(Path file) throws IOException {
+            super(file);
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Zip catalogues over 2GB need Zip64, which is not supported");
+            }
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+            int end = findEndOfCentralDirectory();
+            entryCount = Short.toUnsignedInt(mapping.getShort(end + 10));
+            directoryPosition = mapping.getInt(end + 16);
+            if (entryCount == 0xFFFF || directoryPosition == -1) {
+                throw new IOException("Zip64 catalogues are not supported");
+            }
+        }
+
+        private int findEndOfCentralDirectory() throws IOException {
+            // The end record is 22 bytes, followed by a comment of up to 64KB
+            int lowest = Math.max(0, mapping.limit() - 22 - 0xFFFF);
+            for (int i = mapping.limit() - 22; i >= lowest; i--) {
+                if (mapping.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                    return i;
+                }
+            }
+            throw new IOException("Not a zip file: no end of central directory");
+        }
+
+        @Override
+        protected Entry readNext() throws IOException {
+            while (entriesRead < entryCount) {
+                int entry = directoryPosition;
+                if (mapping.getInt(entry) != CENTRAL_DIRECTORY_ENTRY) {
+                    throw new IOException("Corrupt zip: bad central directory entry at " + entry);
+                }
+                int flags = Short.toUnsignedInt(mapping.getShort(entry + 8));
+                int method = Short.toUnsignedInt(mapping.getShort(entry + 10));
+                int compressedSize = mapping.getInt(entry + 20);
+                int uncompressedSize = mapping.getInt(entry + 24);
+                int nameLength = Short.toUnsignedInt(mapping.getShort(entry + 28));
+                int extraLength = Short.toUnsignedInt(mapping.getShort(entry + 30));
+                int commentLength = Short.toUnsignedInt(mapping.getShort(entry + 32));
+                int localHeader = mapping.getInt(entry + 42);
+                String name = StandardCharsets.UTF_8.decode(mapping.slice(entry + 46, nameLength)).toString();
+                directoryPosition = entry + 46 + nameLength + extraLength + commentLength;
+                entriesRead++;
+
+                if (name.endsWith("/") || !name.endsWith(".json")) {
+                    continue;
+                }
+                if ((flags & 1) != 0) {
+                    throw new IOException("Encrypted zip entries are not supported: " + name);
+                }
+                if (compressedSize < 0 || uncompressedSize < 0 || localHeader < 0) {
+                    throw new IOException("Zip64 entries are not supported: " + name);
+                }
+                if (mapping.getInt(localHeader) != LOCAL_HEADER) {
+                    throw new IOException("Corrupt zip: bad local header for " + name);
+                }
+                int dataStart = localHeader + 30
+                        + Short.toUnsignedInt(mapping.getShort(localHeader + 26))
+                        + Short.toUnsignedInt(mapping.getShort(localHeader + 28));
+                ByteBuffer data = mapping.slice(dataStart, compressedSize);
+
+                String fileName = name.substring(name.lastIndexOf('/') + 1);
+                String productId = fileName.substring(0, fileName.lastIndexOf('.'));
+                if (method == STORED) {
+                    return new Entry(productId, data);
+                }
+                if (method == DEFLATED) {
+                    return new Entry(productId, inflate(name, data, uncompressedSize));
+                }
+                throw new IOException("Unsupported zip compression method " + method + " for " + name);
+            }
+            return null;
+        }
+
+        private ByteBuffer inflate(String name, ByteBuffer data, int uncompressedSize) throws IOException {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(data);
+                byte[] content = new byte[uncompressedSize];
+                int length = 0;
+                while (length < uncompressedSize && !inflater.finished()) {
+                    int inflated = inflater.inflate(content, length, uncompressedSize - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != uncompressedSize) {
+                    throw new IOException("Corrupt zip: " + name + " inflated to " + length + " bytes, expected " + uncompressedSize);
+                }
+                return ByteBuffer.wrap(content);
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt zip: cannot inflate " + name + ": " + e.getMessage(), e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+}
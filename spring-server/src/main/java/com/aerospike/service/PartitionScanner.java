@@ -0,0 +1,280 @@
+package com.aerospike.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Runs a scan of a whole set as several scans of partition ranges at the same time, so full
+ * set work such as exports, exact counts and rebuilding the facet index scales with the cores
+ * rather than being read by one thread.
+ * <p/>
+ * The 4096 partitions are split into as many ranges as there are scan threads, and each range
+ * is read on a thread of a shared pool. The results are merged on the calling thread:
+ * <ul>
+ * <li>Unordered, records are handed over through a bounded queue as they are read, so a slow
+ * consumer holds back the scans rather than the records piling up in memory. As the consumer
+ * may be as slow as a client reading a stream, these ranges are read on virtual threads of
+ * their own rather than on the shared pool, which a few slow consumers would otherwise hold
+ * and so stall every other scan.</li>
+ * <li>Ordered, each range sorts its own records, keeping only the first {@code limit} if there
+ * is a limit, and the sorted ranges are merged with a k-way merge, which costs O(log k) per
+ * record for k ranges.</li>
+ * </ul>
+ */
+public class PartitionScanner {
+
+    public static final int PARTITIONS = 4096;
+    private static final int HANDOFF_CAPACITY = 1024;
+    private static final Object RANGE_DONE = new Object();
+
+    /**
+     * Reads the records of a partition range
+     */
+    @FunctionalInterface
+    public interface RangeReader<T> {
+        void read(int partitionBegin, int partitionCount, Consumer<T> consumer) throws Exception;
+    }
+
+    /**
+     * Computes a result from a partition range
+     */
+    @FunctionalInterface
+    public interface RangeTask<R> {
+        R run(int partitionBegin, int partitionCount) throws Exception;
+    }
+
+    private final int parallelism;
+    private final ExecutorService executor;
+
+    /**
+     * @param parallelism Number of partition ranges to scan at the same time, or 0 for one per core
+     */
+    public PartitionScanner(int parallelism) {
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(this.parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "partition-scan-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Run a task on each partition range at the same time
+     *
+     * @param ranges Number of ranges to split the partitions into
+     * @return The result of each range, in partition order
+     * @throws UncheckedIOException if a task failed with an IOException
+     */
+    public <R> List<R> map(int ranges, RangeTask<R> task) {
+        List<Future<R>> futures = new ArrayList<>();
+        int rangeSize = rangeSize(ranges);
+        for (int begin = 0; begin < PARTITIONS; begin += rangeSize) {
+            int partitionBegin = begin;
+            int partitionCount = Math.min(rangeSize, PARTITIONS - begin);
+            futures.add(executor.submit(() -> task.run(partitionBegin, partitionCount)));
+        }
+        List<R> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted scanning partitions", e);
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+    }
+
+    /**
+     * Add up a count from each partition range
+     */
+    public long count(RangeTask<Long> task) {
+        return map(parallelism, task).stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * Read every record, in no particular order
+     *
+     * @param limit Most records to pass on, or 0 for all of them
+     * @param consumer Called with each record, on the calling thread. If it throws, the scans stop.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> void forEach(RangeReader<T> reader, int limit, Consumer<T> consumer) {
+        BlockingQueue<Object> handoff = new ArrayBlockingQueue<>(HANDOFF_CAPACITY);
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Future<?>> futures = new ArrayList<>();
+        ExecutorService rangeReaders = Executors.newVirtualThreadPerTaskExecutor();
+        int rangeSize = rangeSize(parallelism);
+        for (int begin = 0; begin < PARTITIONS; begin += rangeSize) {
+            int partitionBegin = begin;
+            int partitionCount = Math.min(rangeSize, PARTITIONS - begin);
+            futures.add(rangeReaders.submit(() -> {
+                try {
+                    reader.read(partitionBegin, partitionCount, item -> {
+                        if (stopped.get()) {
+                            throw new CancellationException("Partition scan stopped");
+                        }
+                        try {
+                            handoff.put(item);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new CancellationException("Partition scan stopped");
+                        }
+                    });
+                } catch (Throwable e) {
+                    if (!stopped.get()) {
+                        failure.compareAndSet(null, e);
+                    }
+                } finally {
+                    if (!stopped.get()) {
+                        try {
+                            handoff.put(RANGE_DONE);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                }
+            }));
+        }
+
+        int rangesDone = 0;
+        int passedOn = 0;
+        try {
+            while (rangesDone < futures.size() && (limit <= 0 || passedOn < limit)) {
+                Object item = handoff.take();
+                if (item == RANGE_DONE) {
+                    rangesDone++;
+                    if (failure.get() != null) {
+                        break;
+                    }
+                    continue;
+                }
+                consumer.accept((T) item);
+                passedOn++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted scanning partitions", e);
+        } finally {
+            stopped.set(true);
+            futures.forEach(future -> future.cancel(true));
+            rangeReaders.shutdown();
+        }
+        if (failure.get() != null) {
+            throw rethrow(failure.get());
+        }
+    }
+
+    /**
+     * Read every record in order. Each range is held in memory to be sorted, up to the limit.
+     *
+     * @param comparator The order to pass the records on in
+     * @param limit Most records to pass on, or 0 for all of them
+     * @param consumer Called with each record, on the calling thread
+     */
+    public <T> void forEachSorted(RangeReader<T> reader, Comparator<T> comparator, int limit, Consumer<T> consumer) {
+        List<List<T>> runs = map(parallelism, (partitionBegin, partitionCount) -> {
+            if (limit <= 0) {
+                List<T> run = new ArrayList<>();
+                reader.read(partitionBegin, partitionCount, run::add);
+                run.sort(comparator);
+                return run;
+            }
+            TopK<T> kept = new TopK<>(limit, comparator);
+            reader.read(partitionBegin, partitionCount, kept);
+            return kept.toList();
+        });
+
+        // Merge the runs, taking the first head each time. Ties go to the earlier range.
+        PriorityQueue<Cursor<T>> heads = new PriorityQueue<>((a, b) -> {
+            int order = comparator.compare(a.head(), b.head());
+            return order != 0 ? order : Integer.compare(a.range, b.range);
+        });
+        for (int i = 0; i < runs.size(); i++) {
+            if (!runs.get(i).isEmpty()) {
+                heads.add(new Cursor<>(i, runs.get(i)));
+            }
+        }
+        int passedOn = 0;
+        while (!heads.isEmpty() && (limit <= 0 || passedOn < limit)) {
+            Cursor<T> cursor = heads.poll();
+            consumer.accept(cursor.head());
+            passedOn++;
+            if (cursor.advance()) {
+                heads.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * The next record of a sorted range, for the merge
+     */
+    private static class Cursor<T> {
+        private final int range;
+        private final List<T> run;
+        private int position = 0;
+
+        Cursor(int range, List<T> run) {
+            this.range = range;
+            this.run = run;
+        }
+
+        T head() {
+            return run.get(position);
+        }
+
+        boolean advance() {
+            return ++position < run.size();
+        }
+    }
+
+    private static int rangeSize(int ranges) {
+        int count = Math.max(1, Math.min(ranges, PARTITIONS));
+        return (PARTITIONS + count - 1) / count;
+    }
+
+    private static RuntimeException rethrow(Throwable cause) {
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        if (cause instanceof IOException ioException) {
+            return new UncheckedIOException(ioException);
+        }
+        if (cause instanceof Error error) {
+            throw error;
+        }
+        return new RuntimeException("Failed to scan partitions: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Stop the scan threads
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
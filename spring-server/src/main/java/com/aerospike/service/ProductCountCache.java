@@ -0,0 +1,49 @@
+package com.aerospike.service;
+
+import java.util.function.IntSupplier;
+
+/**
+ * Short-lived cache of the product count, so polling the count, for example while data is
+ * loading, does not go to the cluster on every call. Also carries whether the count should be
+ * exact, from a full scan, rather than taken from the set statistics.
+ */
+public class ProductCountCache {
+
+    private record CachedCount(int count, long expiresAt) {
+    }
+
+    private final boolean exact;
+    private final long expireAfterMs;
+    private volatile CachedCount cached = null;
+
+    public ProductCountCache(boolean exact, long expireAfterMs) {
+        this.exact = exact;
+        this.expireAfterMs = expireAfterMs;
+    }
+
+    /**
+     * Whether the count should be found with a full scan rather than the set statistics
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * Get the cached count, or count the products again if it has expired
+     * @param counter Counts the products
+     */
+    public int get(IntSupplier counter) {
+        CachedCount current = cached;
+        long now = System.currentTimeMillis();
+        if (current != null && current.expiresAt() > now) {
+            return current.count();
+        }
+        int count = counter.getAsInt();
+        cached = new CachedCount(count, now + expireAfterMs);
+        return count;
+    }
+
+    public void invalidate() {
+        cached = null;
+    }
+}
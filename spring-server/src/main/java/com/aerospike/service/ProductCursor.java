@@ -0,0 +1,51 @@
+package com.aerospike.service;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+
+import com.aerospike.model.Product;
+
+/**
+ * The products of a running query, read from the database as they are pulled. Closing the
+ * cursor stops the query.
+ */
+public interface ProductCursor extends Iterator<Product>, Closeable {
+
+    @Override
+    void close();
+
+    /**
+     * A cursor over products already read
+     */
+    static ProductCursor of(List<Product> products) {
+        return of(products.iterator(), Function.identity(), () -> {});
+    }
+
+    /**
+     * A cursor over the records of a query
+     *
+     * @param records The records, read as they are pulled
+     * @param mapper Turns a record into a product
+     * @param onClose Stops the query
+     */
+    static <R> ProductCursor of(Iterator<R> records, Function<R, Product> mapper, Runnable onClose) {
+        return new ProductCursor() {
+            @Override
+            public boolean hasNext() {
+                return records.hasNext();
+            }
+
+            @Override
+            public Product next() {
+                return mapper.apply(records.next());
+            }
+
+            @Override
+            public void close() {
+                onClose.run();
+            }
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.aerospike.service;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.aerospike.model.Product;
+
+/**
+ * A {@link Flow.Publisher} of the products of a query, which only reads as many products as
+ * its subscriber has asked for.
+ * <p/>
+ * Each subscriber gets its own query, started when it first asks for products. Products are
+ * pulled from the query's cursor on the executor while there is demand, and nothing runs while
+ * there is none. The queries read through a bounded queue, so a subscriber which stops asking
+ * holds back the reads from the server rather than the products building up in memory.
+ * Cancelling closes the cursor, which stops the query.
+ * <p/>
+ * Reactor can use it as a Flux through {@code JdkFlowAdapter.flowPublisherToFlux}.
+ */
+public class ProductPublisher implements Flow.Publisher<Product> {
+
+    private final Supplier<ProductCursor> query;
+    private final Executor executor;
+
+    /**
+     * @param query Starts the query, once for each subscriber
+     * @param executor Runs the reads. The reads block waiting for the server, so virtual threads suit.
+     */
+    public ProductPublisher(Supplier<ProductCursor> query, Executor executor) {
+        this.query = query;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Product> subscriber) {
+        subscriber.onSubscribe(new CursorSubscription(subscriber));
+    }
+
+    /**
+     * Passes on products while there is demand. Requests and cancels only record what is wanted
+     * and schedule a drain, and a drain keeps going until no more requests came in while it ran,
+     * so there is never more than one drain running and the subscriber is only called from it.
+     */
+    private class CursorSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super Product> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pendingDrains = new AtomicInteger();
+        private volatile boolean cancelled = false;
+        private volatile IllegalArgumentException invalidRequest = null;
+        private ProductCursor cursor;
+        private boolean finished = false;
+
+        CursorSubscription(Flow.Subscriber<? super Product> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                invalidRequest = new IllegalArgumentException("Requested " + n + " products, must be positive");
+            } else {
+                demand.getAndUpdate(current -> current + n < 0 ? Long.MAX_VALUE : current + n);
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (pendingDrains.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int drains = 1;
+            do {
+                drain();
+                drains = pendingDrains.addAndGet(-drains);
+            } while (drains != 0);
+        }
+
+        private void drain() {
+            if (finished) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (invalidRequest != null) {
+                finish();
+                subscriber.onError(invalidRequest);
+                return;
+            }
+            try {
+                if (cursor == null) {
+                    cursor = query.get();
+                }
+                long requested = demand.get();
+                long sent = 0;
+                while (sent < requested) {
+                    if (cancelled) {
+                        finish();
+                        return;
+                    }
+                    if (!cursor.hasNext()) {
+                        finish();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(cursor.next());
+                    sent++;
+                }
+                if (requested != Long.MAX_VALUE) {
+                    demand.addAndGet(-sent);
+                }
+            } catch (RuntimeException e) {
+                finish();
+                subscriber.onError(e);
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (RuntimeException e) {
+                    System.err.println("Error closing query: " + e.getMessage());
+                }
+            }
+        }
+    }
+}
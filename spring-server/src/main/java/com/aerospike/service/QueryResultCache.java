@@ -0,0 +1,166 @@
+package com.aerospike.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aerospike.model.Product;
+
+/**
+ * Bounded, per-instance cache of secondary index query results, keyed by the index, the
+ * filter value, the number of results and the bins read.
+ * <p/>
+ * Products only change when data is loaded or cleared, so the cache is invalidated when a
+ * product is stored, when all the data is cleared and when a load completes. Entries also
+ * expire after a while, to bound how stale a result can be if another instance loads data.
+ * A query which was running when the cache was invalidated does not put its result in the
+ * cache, as it may have missed the change. A {@code maxEntries} of 0 or less disables the cache.
+ * <p/>
+ * Products are mutable, so the cache keeps its own copies and hands out copies of them.
+ */
+public class QueryResultCache {
+
+    private record CacheKey(String index, String filterValue, int count, List<String> binNames) {
+    }
+
+    private static class Entry {
+        private final List<Product> products;
+        private final long expiresAt;
+
+        Entry(List<Product> products, long expiresAt) {
+            this.products = products;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final int maxEntries;
+    private final long expireAfterMs;
+    private final Map<CacheKey, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private long epoch = 0;
+
+    public QueryResultCache(int maxEntries, long expireAfterMs) {
+        this.maxEntries = maxEntries;
+        this.expireAfterMs = expireAfterMs;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, Entry> eldest) {
+                return size() > QueryResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * The current epoch, to be passed to {@link #put} once the query has run
+     */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
+    public synchronized Optional<List<Product>> get(String index, String filterValue, int count, String ... binNames) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        CacheKey key = new CacheKey(index, filterValue, count, Arrays.asList(binNames));
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+            hits.increment();
+            return Optional.of(copy(entry.products));
+        }
+        if (entry != null) {
+            entries.remove(key);
+        }
+        misses.increment();
+        return Optional.empty();
+    }
+
+    /**
+     * Cache the result of a query, unless the cache was invalidated since the query started
+     * @param epoch The epoch read before the query was started
+     */
+    public synchronized void put(long epoch, String index, String filterValue, int count, List<Product> products, String ... binNames) {
+        if (isEnabled() && epoch == this.epoch) {
+            entries.put(new CacheKey(index, filterValue, count, Arrays.asList(binNames)),
+                    new Entry(copy(products), System.currentTimeMillis() + expireAfterMs));
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        epoch++;
+        entries.clear();
+        invalidations.increment();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getInvalidations() {
+        return invalidations.sum();
+    }
+
+    private static List<Product> copy(List<Product> products) {
+        List<Product> copies = new ArrayList<>(products.size());
+        for (Product product : products) {
+            copies.add(copy(product));
+        }
+        return copies;
+    }
+
+    /**
+     * Copy the product and the lists and maps it holds
+     */
+    private static Product copy(Product product) {
+        Product copy = new Product();
+        copy.setId(product.getId());
+        copy.setName(product.getName());
+        copy.setBrandName(product.getBrandName());
+        copy.setImages(copyOf(product.getImages()));
+        copy.setCategory(product.getCategory());
+        copy.setSubCategory(product.getSubCategory());
+        copy.setArticleType(product.getArticleType());
+        copy.setArticleAttr(copyOf(product.getArticleAttr()));
+        copy.setGender(product.getGender());
+        copy.setAgeGroup(product.getAgeGroup());
+        copy.setUsage(product.getUsage());
+        copy.setSeason(product.getSeason());
+        copy.setVariantName(product.getVariantName());
+        copy.setDisplayCat(copyOf(product.getDisplayCat()));
+        copy.setColors(copyOf(product.getColors()));
+        copy.setDescriptors(copyOf(product.getDescriptors()));
+        copy.setOptions(copyOf(product.getOptions()));
+        copy.setPrice(product.getPrice());
+        copy.setSalePrice(product.getSalePrice());
+        copy.setAdded(product.getAdded());
+        return copy;
+    }
+
+    private static <T> List<T> copyOf(List<T> list) {
+        return list == null ? null : new ArrayList<>(list);
+    }
+
+    private static <K, V> Map<K, V> copyOf(Map<K, V> map) {
+        return map == null ? null : new HashMap<>(map);
+    }
+}
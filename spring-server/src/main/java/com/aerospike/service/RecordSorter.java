@@ -0,0 +1,228 @@
+package com.aerospike.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.aerospike.AerospikeComparator;
+import com.aerospike.client.query.KeyRecord;
+import com.aerospike.model.ProductSort;
+import com.aerospike.query.SortDir;
+import com.aerospike.query.SortProperties;
+
+/**
+ * Sorts records by a list of sort properties, in the same order as the fluent client's
+ * RecordComparator but without its per comparison cost.
+ * <p/>
+ * RecordComparator looks each bin up in both records' bin maps and compares the values through
+ * the general AerospikeComparator, for every property on every comparison, so sorting n records
+ * does that O(n log n) times. Here the sort properties are compiled once into arrays, and the
+ * sort key of each record is extracted once, before sorting:
+ * <ul>
+ * <li>Integers and booleans are held as a primitive long, and doubles as their long bits, so
+ * comparing them is a primitive compare with no boxing or type checks.</li>
+ * <li>Strings sorted ignoring case are folded once, so comparing them is a plain
+ * {@code compareTo} which gives the same order as {@code compareToIgnoreCase}.</li>
+ * <li>Lists, maps and bytes, which are rarely sorted on, still go through AerospikeComparator,
+ * ignoring the case of the strings in them if the property does.</li>
+ * </ul>
+ * Values of different types are ordered by type as AerospikeComparator does, and a missing bin
+ * comes first ascending and last descending. Records which are equal on every property keep the
+ * order they were read in.
+ */
+public class RecordSorter {
+
+    // Type order, as used by AerospikeComparator
+    private static final byte NULL = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte INTEGER = 3;
+    private static final byte STRING = 4;
+    private static final byte LIST = 5;
+    private static final byte MAP = 6;
+    private static final byte BYTES = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte OTHER = 9;
+
+    private static final AerospikeComparator valueComparator = new AerospikeComparator(true);
+    private static final AerospikeComparator valueComparatorIgnoringCase = new AerospikeComparator(false);
+    private static final Map<ProductSort, RecordSorter> productSorters = new EnumMap<>(ProductSort.class);
+
+    static {
+        for (ProductSort sort : ProductSort.values()) {
+            SortDir sortDir = sort.isDescending() ? SortDir.SORT_DESC : SortDir.SORT_ASC;
+            productSorters.put(sort, compile(List.of(new SortProperties(sort.getBinName(), sortDir, false))));
+        }
+    }
+
+    private final String[] binNames;
+    private final boolean[] descending;
+    private final boolean[] ignoreCase;
+    private final Comparator<SortKey> order = this::compareKeys;
+
+    private RecordSorter(List<SortProperties> sortProperties) {
+        int size = sortProperties.size();
+        this.binNames = new String[size];
+        this.descending = new boolean[size];
+        this.ignoreCase = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            SortProperties properties = sortProperties.get(i);
+            binNames[i] = properties.getName();
+            descending[i] = properties.getSortDir() == SortDir.SORT_DESC;
+            ignoreCase[i] = properties.isCaseInsensitive();
+        }
+    }
+
+    /**
+     * Compile the sort properties into a sorter, which can be kept and reused
+     */
+    public static RecordSorter compile(List<SortProperties> sortProperties) {
+        return new RecordSorter(sortProperties);
+    }
+
+    /**
+     * @return The sorter for a product listing order, compiled once
+     */
+    public static RecordSorter of(ProductSort sort) {
+        return productSorters.get(sort);
+    }
+
+    /**
+     * @return The records in sort order
+     */
+    public List<KeyRecord> sort(Collection<KeyRecord> records) {
+        List<SortKey> keys = new ArrayList<>(records.size());
+        long sequence = 0;
+        for (KeyRecord record : records) {
+            keys.add(extract(record, sequence++));
+        }
+        keys.sort(order);
+        return toRecords(keys);
+    }
+
+    /**
+     * Read the records and keep the first {@code limit} in sort order, in a {@link TopK} so
+     * only {@code limit} records are held at a time
+     *
+     * @return The first records, in sort order
+     */
+    public List<KeyRecord> first(Iterator<KeyRecord> records, int limit) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        TopK<SortKey> kept = new TopK<>(limit, order);
+        long sequence = 0;
+        while (records.hasNext()) {
+            kept.accept(extract(records.next(), sequence++));
+        }
+        return toRecords(kept.toList());
+    }
+
+    /**
+     * The sort key of a record, with a slot for each sort property
+     */
+    private static class SortKey {
+        private final KeyRecord record;
+        private final long sequence;
+        private final byte[] types;
+        private final long[] numbers;
+        private final Object[] values;
+
+        SortKey(KeyRecord record, long sequence, int size) {
+            this.record = record;
+            this.sequence = sequence;
+            this.types = new byte[size];
+            this.numbers = new long[size];
+            this.values = new Object[size];
+        }
+    }
+
+    private SortKey extract(KeyRecord keyRecord, long sequence) {
+        SortKey key = new SortKey(keyRecord, sequence, binNames.length);
+        Map<String, Object> bins = keyRecord == null || keyRecord.record == null ? null : keyRecord.record.bins;
+        for (int i = 0; i < binNames.length; i++) {
+            Object value = bins == null ? null : bins.get(binNames[i]);
+            if (value == null) {
+                key.types[i] = NULL;
+            }
+            else if (value instanceof Long || value instanceof Integer || value instanceof Short
+                    || value instanceof Byte) {
+                key.types[i] = INTEGER;
+                key.numbers[i] = ((Number) value).longValue();
+            }
+            else if (value instanceof Character character) {
+                key.types[i] = INTEGER;
+                key.numbers[i] = character;
+            }
+            else if (value instanceof String string) {
+                key.types[i] = STRING;
+                key.values[i] = ignoreCase[i] ? foldCase(string) : string;
+            }
+            else if (value instanceof Boolean bool) {
+                key.types[i] = BOOLEAN;
+                key.numbers[i] = bool ? 1 : 0;
+            }
+            else if (value instanceof Double || value instanceof Float) {
+                key.types[i] = DOUBLE;
+                key.numbers[i] = Double.doubleToLongBits(((Number) value).doubleValue());
+            }
+            else if (value instanceof List) {
+                key.types[i] = LIST;
+                key.values[i] = value;
+            }
+            else if (value instanceof Map) {
+                key.types[i] = MAP;
+                key.values[i] = value;
+            }
+            else if (value instanceof byte[]) {
+                key.types[i] = BYTES;
+                key.values[i] = value;
+            }
+            else {
+                key.types[i] = OTHER;
+            }
+        }
+        return key;
+    }
+
+    private int compareKeys(SortKey a, SortKey b) {
+        for (int i = 0; i < binNames.length; i++) {
+            int result = a.types[i] - b.types[i];
+            if (result == 0) {
+                result = switch (a.types[i]) {
+                    case BOOLEAN, INTEGER -> Long.compare(a.numbers[i], b.numbers[i]);
+                    case DOUBLE -> Double.compare(Double.longBitsToDouble(a.numbers[i]), Double.longBitsToDouble(b.numbers[i]));
+                    case STRING -> ((String) a.values[i]).compareTo((String) b.values[i]);
+                    case LIST, MAP, BYTES -> (ignoreCase[i] ? valueComparatorIgnoringCase : valueComparator)
+                            .compare(a.values[i], b.values[i]);
+                    default -> 0;
+                };
+            }
+            if (result != 0) {
+                return descending[i] ? -result : result;
+            }
+        }
+        return Long.compare(a.sequence, b.sequence);
+    }
+
+    /**
+     * Fold the case of each character as {@code String.compareToIgnoreCase} does
+     */
+    private static String foldCase(String value) {
+        StringBuilder folded = new StringBuilder(value.length());
+        value.codePoints().forEach(codePoint ->
+                folded.appendCodePoint(Character.toLowerCase(Character.toUpperCase(codePoint))));
+        return folded.toString();
+    }
+
+    private static List<KeyRecord> toRecords(List<SortKey> keys) {
+        List<KeyRecord> records = new ArrayList<>(keys.size());
+        for (SortKey key : keys) {
+            records.add(key.record);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,81 @@
+package com.aerospike.service;
+
+import com.aerospike.client.policy.Policy;
+
+/**
+ * The deadline of the request being handled on this thread, set from the latency budget of
+ * its endpoint.
+ * <p/>
+ * Every database call takes what is left of the budget as its total timeout, so the calls of
+ * a multi-step flow such as adding to a cart share one budget rather than each getting the
+ * full client default. Once the budget is spent the next call fails straight away instead of
+ * queueing behind an overloaded node. Threads without a deadline, such as data loading and
+ * the streaming exports, keep the client defaults.
+ */
+public final class RequestDeadline {
+
+    /**
+     * Thrown when a database call is about to be made after the request deadline has passed
+     */
+    public static class ExceededException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        public ExceededException(String message) {
+            super(message);
+        }
+    }
+
+    private static final ThreadLocal<Long> DEADLINE_NANOS = new ThreadLocal<>();
+
+    private RequestDeadline() {
+    }
+
+    /**
+     * Start the deadline of the current request
+     * @param budgetMs How long the request has, from now
+     */
+    public static void start(long budgetMs) {
+        DEADLINE_NANOS.set(System.nanoTime() + budgetMs * 1_000_000L);
+    }
+
+    public static void clear() {
+        DEADLINE_NANOS.remove();
+    }
+
+    public static boolean isSet() {
+        return DEADLINE_NANOS.get() != null;
+    }
+
+    /**
+     * @return The milliseconds left before the deadline, at least 1
+     * @throws ExceededException if the deadline has passed
+     */
+    public static int remainingMs() {
+        Long deadline = DEADLINE_NANOS.get();
+        if (deadline == null) {
+            throw new IllegalStateException("No request deadline is set");
+        }
+        long remainingNanos = deadline - System.nanoTime();
+        if (remainingNanos <= 0) {
+            throw new ExceededException("Request deadline exceeded");
+        }
+        // Rounded up, so a request which has only just started still has its whole budget
+        long remainingMs = (remainingNanos + 999_999L) / 1_000_000L;
+        return (int) Math.min(remainingMs, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Cut the total timeout of the policy to what is left of the deadline, if there is one
+     * @return The same policy
+     * @throws ExceededException if the deadline has passed
+     */
+    public static <T extends Policy> T applyTo(T policy) {
+        if (isSet()) {
+            int remainingMs = remainingMs();
+            if (policy.totalTimeout <= 0 || policy.totalTimeout > remainingMs) {
+                policy.totalTimeout = remainingMs;
+            }
+        }
+        return policy;
+    }
+}
@@ -0,0 +1,230 @@
+package com.aerospike.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import com.aerospike.model.SnapshotRecord;
+
+/**
+ * Binary format of catalogue snapshots.
+ * <p/>
+ * A snapshot starts with a header of the magic bytes "RSNP", a version byte and a flags byte,
+ * where flag 1 means the rest of the file is gzip compressed. Then comes each record, prefixed
+ * with its length, and a length of 0 to mark the end, so a truncated file is detected.
+ * <p/>
+ * Values are encoded like msgpack, as a type tag and then the value, with lengths and integers
+ * as variable length ints so the common small values take a byte or two. Key ordered maps have
+ * their own tag, so they are restored as key ordered maps.
+ */
+public final class SnapshotCodec {
+
+    static final byte[] MAGIC = {'R', 'S', 'N', 'P'};
+    static final int VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+
+    private static final int NULL = 0;
+    private static final int LONG = 1;
+    private static final int DOUBLE = 2;
+    private static final int STRING = 3;
+    private static final int BYTES = 4;
+    private static final int LIST = 5;
+    private static final int MAP = 6;
+    private static final int SORTED_MAP = 7;
+    private static final int TRUE = 8;
+    private static final int FALSE = 9;
+
+    private SnapshotCodec() {
+    }
+
+    public static void writeHeader(OutputStream out, boolean compressed) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+        out.write(compressed ? FLAG_COMPRESSED : 0);
+    }
+
+    /**
+     * Read and check the header
+     * @return Whether the rest of the snapshot is compressed
+     */
+    public static boolean readHeader(InputStream in) throws IOException {
+        byte[] header = in.readNBytes(MAGIC.length + 2);
+        if (header.length < MAGIC.length + 2) {
+            throw new IOException("Not a snapshot file: too short");
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header[i] != MAGIC[i]) {
+                throw new IOException("Not a snapshot file: bad magic bytes");
+            }
+        }
+        if (header[MAGIC.length] != VERSION) {
+            throw new IOException("Unsupported snapshot version " + header[MAGIC.length]);
+        }
+        return (header[MAGIC.length + 1] & FLAG_COMPRESSED) != 0;
+    }
+
+    /**
+     * Append the record, prefixed with its length, to the buffer
+     */
+    public static void writeRecord(ByteArrayOutputStream buffer, SnapshotRecord record) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(record.getKind().ordinal());
+        writeVarInt(out, record.getDigest().length);
+        out.write(record.getDigest());
+        writeValue(out, record.getUserKey());
+        writeValue(out, record.getBins());
+        out.flush();
+        writeVarInt(new DataOutputStream(buffer), body.size());
+        body.writeTo(buffer);
+    }
+
+    public static void writeEnd(OutputStream out) throws IOException {
+        out.write(0);
+    }
+
+    /**
+     * Read the next record
+     * @return The record, or null at the end of the snapshot
+     * @throws EOFException if the snapshot ends without the end marker
+     */
+    @SuppressWarnings("unchecked")
+    public static SnapshotRecord readRecord(DataInputStream in) throws IOException {
+        long length = readVarLong(in);
+        if (length == 0) {
+            return null;
+        }
+        SnapshotRecord.Kind kind = SnapshotRecord.Kind.values()[in.readUnsignedByte()];
+        byte[] digest = new byte[(int) readVarLong(in)];
+        in.readFully(digest);
+        Object userKey = readValue(in);
+        Map<String, Object> bins = (Map<String, Object>) readValue(in);
+        return new SnapshotRecord(kind, digest, userKey, bins);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            out.writeByte(LONG);
+            writeVarLong(out, zigZag(((Number) value).longValue()));
+        } else if (value instanceof Double || value instanceof Float) {
+            out.writeByte(DOUBLE);
+            out.writeDouble(((Number) value).doubleValue());
+        } else if (value instanceof String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(STRING);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else if (value instanceof byte[] bytes) {
+            out.writeByte(BYTES);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Boolean bool) {
+            out.writeByte(bool ? TRUE : FALSE);
+        } else if (value instanceof List<?> list) {
+            out.writeByte(LIST);
+            writeVarInt(out, list.size());
+            for (Object item : list) {
+                writeValue(out, item);
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            out.writeByte(map instanceof SortedMap ? SORTED_MAP : MAP);
+            writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(out, entry.getKey());
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            throw new IOException("Cannot write a value of type " + value.getClass().getName() + " to a snapshot");
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case LONG:
+            return unZigZag(readVarLong(in));
+        case DOUBLE:
+            return in.readDouble();
+        case STRING: {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        case BYTES: {
+            byte[] bytes = new byte[(int) readVarLong(in)];
+            in.readFully(bytes);
+            return bytes;
+        }
+        case TRUE:
+            return Boolean.TRUE;
+        case FALSE:
+            return Boolean.FALSE;
+        case LIST: {
+            int size = (int) readVarLong(in);
+            List<Object> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                list.add(readValue(in));
+            }
+            return list;
+        }
+        case MAP:
+        case SORTED_MAP: {
+            int size = (int) readVarLong(in);
+            Map<Object, Object> map = tag == SORTED_MAP ? new TreeMap<>() : new LinkedHashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                map.put(readValue(in), readValue(in));
+            }
+            return map;
+        }
+        default:
+            throw new IOException("Corrupt snapshot: unknown value tag " + tag);
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        writeVarLong(out, value);
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Corrupt snapshot: variable length int too long");
+    }
+}
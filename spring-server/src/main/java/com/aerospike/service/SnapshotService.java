@@ -0,0 +1,312 @@
+package com.aerospike.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.stereotype.Service;
+
+import com.aerospike.model.Product;
+import com.aerospike.model.SnapshotRecord;
+
+/**
+ * Exports the catalogue (products and their metadata) to a snapshot file, and imports it again,
+ * so a new environment can be built without parsing every style file.
+ * <p/>
+ * The export splits the partitions into ranges and scans them at the same time on the partition
+ * scan threads. Each range encodes its records into a buffer and appends the whole buffer to the
+ * file, so the threads only contend on the file once per buffer. The import decodes the file on one thread
+ * and writes the records in batches on several threads, with a bounded number of batches in
+ * flight so a fast reader cannot run ahead of the database.
+ * <p/>
+ * Both are run as load jobs, so they report progress, can be cancelled, and are not run side
+ * by side with a load. Like the other loads, the import is held to the load throttle and writes
+ * with the bulk load settings.
+ */
+@Service
+public class SnapshotService {
+
+    private static final int FLUSH_BYTES = 256 * 1024;
+
+    private final KeyValueServiceInterface keyValueService;
+    private final DataLoadingService dataLoadingService;
+    private final FacetIndex facetIndex;
+    private final QueryResultCache queryResultCache;
+    private final PartitionScanner partitionScanner;
+    private final LoadThrottle loadThrottle;
+    private final BulkLoadBehavior bulkLoadBehavior;
+
+    public SnapshotService(KeyValueServiceInterface keyValueService, DataLoadingService dataLoadingService,
+            FacetIndex facetIndex, QueryResultCache queryResultCache, PartitionScanner partitionScanner,
+            LoadThrottle loadThrottle, BulkLoadBehavior bulkLoadBehavior) {
+        this.keyValueService = keyValueService;
+        this.dataLoadingService = dataLoadingService;
+        this.facetIndex = facetIndex;
+        this.queryResultCache = queryResultCache;
+        this.partitionScanner = partitionScanner;
+        this.loadThrottle = loadThrottle;
+        this.bulkLoadBehavior = bulkLoadBehavior;
+    }
+
+    /**
+     * Write every product and metadata record to a snapshot file
+     *
+     * @param file The file to write, replaced if it exists
+     * @param compress Whether to gzip the records
+     * @param parallelism Number of partition ranges to split the scan into. At most as many as
+     * there are partition scan threads are scanned at the same time.
+     * @param progress Receives a record parsed per record written. If the export is cancelled
+     * the partly written file is deleted.
+     * @return The number of records of each kind written and the time taken
+     */
+    public SnapshotResult export(Path file, boolean compress, int parallelism, LoadProgress progress) throws IOException {
+        CatalogueMaintenance maintenance = CatalogueMaintenance.of(keyValueService, "Exporting snapshots");
+        long startTime = System.currentTimeMillis();
+        progress.phase("exporting snapshot");
+        AtomicInteger products = new AtomicInteger();
+        AtomicInteger metadata = new AtomicInteger();
+
+        boolean cancelled = false;
+        try (OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            SnapshotCodec.writeHeader(fileOut, compress);
+            OutputStream out = compress ? new GZIPOutputStream(fileOut, 1 << 16) : fileOut;
+
+            try {
+                partitionScanner.map(parallelism, (partitionBegin, partitionCount) -> {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream(FLUSH_BYTES + 4096);
+                    maintenance.scanSnapshotPartitions(partitionBegin, partitionCount, record -> {
+                        if (progress.isCancelled()) {
+                            throw new CancellationException("Snapshot export cancelled");
+                        }
+                        try {
+                            SnapshotCodec.writeRecord(buffer, record);
+                            (record.getKind() == SnapshotRecord.Kind.PRODUCT ? products : metadata).incrementAndGet();
+                            progress.parsed(0);
+                            if (buffer.size() >= FLUSH_BYTES) {
+                                flush(buffer, out);
+                            }
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    });
+                    flush(buffer, out);
+                    return null;
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (CancellationException e) {
+                cancelled = true;
+            }
+
+            if (!cancelled) {
+                SnapshotCodec.writeEnd(out);
+                if (out instanceof GZIPOutputStream gzip) {
+                    gzip.finish();
+                }
+            }
+        }
+        if (cancelled) {
+            // Without its end marker the file could not be imported anyway
+            Files.deleteIfExists(file);
+        }
+        return new SnapshotResult(products.get(), metadata.get(), 0, System.currentTimeMillis() - startTime);
+    }
+
+    private void flush(ByteArrayOutputStream buffer, OutputStream out) throws IOException {
+        synchronized (out) {
+            buffer.writeTo(out);
+        }
+        buffer.reset();
+    }
+
+    /**
+     * Load a snapshot file into the database, replacing any records with the same keys, then
+     * create the secondary indexes and rebuild the facet index from the products loaded.
+     * Without clearing first, the catalogue must be empty, as the snapshot's category metadata
+     * replaces the metadata of any products already stored.
+     *
+     * @param file The snapshot file
+     * @param clearFirst Whether to clear all existing data before loading
+     * @param parallelism Number of batches to write at the same time
+     * @param batchSize Number of records in each batch write
+     * @param progress Receives the progress of the import. A cancelled import stops reading the
+     * file, and keeps the batches already written.
+     * @return The number of records of each kind read, the number which failed, and the time taken
+     */
+    public SnapshotResult importSnapshot(Path file, boolean clearFirst, int parallelism, int batchSize,
+            LoadProgress progress) throws IOException {
+        // Checked before the data is cleared
+        CatalogueMaintenance maintenance = CatalogueMaintenance.of(keyValueService, "Importing snapshots");
+        if (!clearFirst && keyValueService.hasProducts()) {
+            // The metadata records would replace the category counts of the products already stored
+            throw new IllegalStateException("A snapshot can only be imported over existing products by clearing them first");
+        }
+        long startTime = System.currentTimeMillis();
+        if (clearFirst) {
+            progress.phase("clearing data");
+            dataLoadingService.clearAllData();
+        }
+        progress.phase("importing snapshot");
+        loadThrottle.reset();
+        long startVersion = dataLoadingService.beginCatalogueChange();
+        facetIndex.clear();
+
+        int products = 0;
+        int metadata = 0;
+        AtomicInteger failures = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Semaphore inFlight = new Semaphore(parallelism * 2);
+        List<Future<?>> writes = new ArrayList<>();
+        try (InputStream fileIn = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            boolean compressed = SnapshotCodec.readHeader(fileIn);
+            DataInputStream in = new DataInputStream(compressed ? new GZIPInputStream(fileIn, 1 << 16) : fileIn);
+
+            List<SnapshotRecord> batch = new ArrayList<>(batchSize);
+            SnapshotRecord record;
+            long readStart = System.nanoTime();
+            while (!progress.isCancelled() && (record = SnapshotCodec.readRecord(in)) != null) {
+                progress.parsed(System.nanoTime() - readStart);
+                loadThrottle.acquire(0);
+                if (record.getKind() == SnapshotRecord.Kind.PRODUCT) {
+                    facetIndex.add(Product.fromMap(record.getBins()));
+                    products++;
+                } else {
+                    metadata++;
+                }
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    writes.add(submitBatch(maintenance, executor, inFlight, batch, failures, progress));
+                    batch = new ArrayList<>(batchSize);
+                }
+                readStart = System.nanoTime();
+            }
+            if (!batch.isEmpty()) {
+                writes.add(submitBatch(maintenance, executor, inFlight, batch, failures, progress));
+            }
+            waitFor(writes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted importing snapshot", e);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        progress.phase("creating indexes");
+        dataLoadingService.createSecondaryIndexes();
+        // Only if every record was written does the index hold the whole catalogue
+        dataLoadingService.endCatalogueChange(startVersion,
+                clearFirst && failures.get() == 0 && !progress.isCancelled());
+        queryResultCache.invalidateAll();
+        return new SnapshotResult(products, metadata, failures.get(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Write a batch on a writer thread, which takes the bulk load settings for the write
+     */
+    private Future<?> submitBatch(CatalogueMaintenance maintenance, ExecutorService executor, Semaphore inFlight,
+            List<SnapshotRecord> batch, AtomicInteger failures, LoadProgress progress) throws InterruptedException {
+        inFlight.acquire();
+        return executor.submit(() -> {
+            bulkLoadBehavior.begin();
+            try {
+                long writeStart = System.nanoTime();
+                int batchFailures = maintenance.restoreSnapshotRecords(batch);
+                long writeNanos = System.nanoTime() - writeStart;
+                loadThrottle.recordWrites(batch.size() - batchFailures, writeNanos);
+                failures.addAndGet(batchFailures);
+                for (int i = 0; i < batch.size(); i++) {
+                    if (i < batchFailures) {
+                        progress.error();
+                    } else {
+                        progress.written(writeNanos / batch.size());
+                    }
+                }
+            } catch (RuntimeException e) {
+                System.err.println("Error writing snapshot batch: " + e.getMessage());
+                loadThrottle.recordFailure(e);
+                failures.addAndGet(batch.size());
+                batch.forEach(record -> progress.error());
+            } finally {
+                bulkLoadBehavior.end();
+                inFlight.release();
+            }
+        });
+    }
+
+    /**
+     * Wait for all the tasks, rethrowing the first failure
+     */
+    private void waitFor(List<Future<?>> tasks) throws IOException {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for snapshot tasks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException unchecked) {
+                throw unchecked.getCause();
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException("Failed snapshot task: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Result of a snapshot export or import
+     */
+    public static class SnapshotResult {
+        private final int productCount;
+        private final int metadataCount;
+        private final int errorCount;
+        private final long timeMs;
+
+        public SnapshotResult(int productCount, int metadataCount, int errorCount, long timeMs) {
+            this.productCount = productCount;
+            this.metadataCount = metadataCount;
+            this.errorCount = errorCount;
+            this.timeMs = timeMs;
+        }
+
+        public int getProductCount() {
+            return productCount;
+        }
+
+        public int getMetadataCount() {
+            return metadataCount;
+        }
+
+        public int getErrorCount() {
+            return errorCount;
+        }
+
+        public long getTimeMs() {
+            return timeMs;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.aerospike.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * Keeps the best {@code k} items seen, using a bounded heap.
+ * <p/>
+ * Sorting a whole result to take the first few items is O(n log n) and holds every item in
+ * memory. Here the heap never holds more than {@code k} items, with the worst of them at the
+ * root, so each item costs at most O(log k) and anything worse than the root is dropped
+ * straight away. Items are ordered either by a long sort key, extracted once per item rather
+ * than on every comparison, or by a comparator. Items which are equal keep the order they
+ * arrived in.
+ *
+ * @param <T> The type of the items
+ */
+public class TopK<T> implements Consumer<T> {
+
+    private static class Entry<T> {
+        private final long key;
+        private final long sequence;
+        private final T item;
+
+        Entry(long key, long sequence, T item) {
+            this.key = key;
+            this.sequence = sequence;
+            this.item = item;
+        }
+    }
+
+    private final int k;
+    private final ToLongFunction<T> keyExtractor;
+    private final Comparator<Entry<T>> bestFirst;
+    private final PriorityQueue<Entry<T>> heap;
+    private long sequence = 0;
+
+    /**
+     * @param k The number of items to keep
+     * @param keyExtractor Gives the sort key of an item
+     * @param descending True to keep the items with the highest keys, false for the lowest
+     */
+    public TopK(int k, ToLongFunction<T> keyExtractor, boolean descending) {
+        this(k, keyExtractor, descending
+                ? (a, b) -> Long.compare(b.key, a.key)
+                : (a, b) -> Long.compare(a.key, b.key));
+    }
+
+    /**
+     * @param k The number of items to keep
+     * @param order The order of the items, best first
+     */
+    public TopK(int k, Comparator<? super T> order) {
+        this(k, item -> 0, (a, b) -> order.compare(a.item, b.item));
+    }
+
+    private TopK(int k, ToLongFunction<T> keyExtractor, Comparator<Entry<T>> byValue) {
+        this.k = k;
+        this.keyExtractor = keyExtractor;
+        this.bestFirst = byValue.thenComparingLong(entry -> entry.sequence);
+        // The root of the heap is the worst item kept, which is the one to replace
+        this.heap = new PriorityQueue<>(Math.max(1, k), bestFirst.reversed());
+    }
+
+    @Override
+    public void accept(T item) {
+        if (k <= 0) {
+            return;
+        }
+        Entry<T> entry = new Entry<>(keyExtractor.applyAsLong(item), sequence++, item);
+        if (heap.size() < k) {
+            heap.add(entry);
+        }
+        // A later item which is equal is worse, so only a strictly better item gets in
+        else if (bestFirst.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    /**
+     * @return The items kept, best first
+     */
+    public List<T> toList() {
+        List<Entry<T>> entries = new ArrayList<>(heap);
+        entries.sort(bestFirst);
+        List<T> result = new ArrayList<>(entries.size());
+        for (Entry<T> entry : entries) {
+            result.add(entry.item);
+        }
+        return result;
+    }
+}
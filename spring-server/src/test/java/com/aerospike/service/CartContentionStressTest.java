@@ -0,0 +1,279 @@
+package com.aerospike.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.aerospike.model.Cart;
+import com.aerospike.model.CartItem;
+import com.aerospike.model.Product;
+
+/**
+ * Multi-threaded stress test of the cart generation-check logic. N threads hammer a single
+ * cart key with a mix of add / update / remove operations through {@link CartOperations},
+ * with the cart records held by {@link InMemoryCartStore}, then the final cart is checked
+ * against what each thread did. The throughput and the number of retries are reported, not
+ * checked, as they depend on the machine running the test.
+ * <p/>
+ * The load can be changed with {@code -Dcart.stress.threads=N} and {@code -Dcart.stress.ops=N}.
+ */
+class CartContentionStressTest {
+
+    private static final String USER_ID = "stress_user";
+    private static final int THREADS = Integer.getInteger("cart.stress.threads", 8);
+    private static final int OPS_PER_THREAD = Integer.getInteger("cart.stress.ops", 2000);
+    private static final int SHARED_PRODUCTS = 4;
+    private static final long SEED = 42;
+
+    private final Map<String, Product> products = new HashMap<>();
+    private InMemoryCartStore cartStore;
+    private CartOperations service;
+
+    @BeforeEach
+    void setUp() {
+        for (int i = 0; i < SHARED_PRODUCTS; i++) {
+            storeProduct(product("shared-" + i, 100 + i));
+        }
+        for (int i = 0; i < THREADS; i++) {
+            storeProduct(product("private-" + i, 500 + i));
+        }
+        cartStore = new InMemoryCartStore();
+        service = new CartOperations(cartStore, new CartCache(100), this::getProducts);
+    }
+
+    private void storeProduct(Product product) {
+        products.put(product.getId(), product);
+    }
+
+    private Map<String, Product> getProducts(List<String> productIds) {
+        Map<String, Product> result = new HashMap<>();
+        for (String productId : productIds) {
+            Product product = products.get(productId);
+            if (product == null) {
+                throw new RuntimeException("Product not found: " + productId);
+            }
+            result.put(productId, product);
+        }
+        return result;
+    }
+
+    private static Product product(String id, long price) {
+        Product product = new Product();
+        product.setId(id);
+        product.setName("Product " + id);
+        product.setBrandName("Brand");
+        product.setPrice(price);
+        return product;
+    }
+
+    /**
+     * The state of one thread's private item: null if it should not be in the cart
+     */
+    private static class PrivateItemState {
+        private Integer quantity;
+    }
+
+    @Test
+    void mixedAddUpdateRemoveOnSingleCart() throws Exception {
+        AtomicLongArray sharedAdds = new AtomicLongArray(SHARED_PRODUCTS);
+        List<PrivateItemState> privateStates = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            privateStates.add(new PrivateItemState());
+        }
+
+        long elapsedNanos = runConcurrently(threadIndex -> {
+            Random random = new Random(SEED + threadIndex);
+            String privateId = "private-" + threadIndex;
+            PrivateItemState state = privateStates.get(threadIndex);
+            for (int op = 0; op < OPS_PER_THREAD; op++) {
+                int choice = random.nextInt(10);
+                if (choice < 6) {
+                    int product = random.nextInt(SHARED_PRODUCTS);
+                    int quantity = 1 + random.nextInt(3);
+                    service.addToCart(USER_ID, "shared-" + product, quantity);
+                    sharedAdds.addAndGet(product, quantity);
+                }
+                else if (state.quantity == null) {
+                    int quantity = 1 + random.nextInt(5);
+                    service.addToCart(USER_ID, privateId, quantity);
+                    state.quantity = quantity;
+                }
+                else if (choice < 8) {
+                    int quantity = 1 + random.nextInt(5);
+                    service.updateCartItem(USER_ID, privateId, quantity);
+                    state.quantity = quantity;
+                }
+                else {
+                    service.removeFromCart(USER_ID, privateId);
+                    state.quantity = null;
+                }
+            }
+        });
+
+        report("mixed add/update/remove", elapsedNanos, THREADS * OPS_PER_THREAD);
+
+        Cart cart = service.getCart(USER_ID);
+        for (int i = 0; i < SHARED_PRODUCTS; i++) {
+            String productId = "shared-" + i;
+            long expected = sharedAdds.get(i);
+            if (expected == 0) {
+                assertFalse(cart.findItem(productId).isPresent(), productId + " should not be in the cart");
+            }
+            else {
+                assertEquals(expected, cart.findItem(productId).map(CartItem::getQuantity).orElse(0).longValue(),
+                        "Lost update on " + productId);
+            }
+        }
+        for (int i = 0; i < THREADS; i++) {
+            String productId = "private-" + i;
+            Integer expected = privateStates.get(i).quantity;
+            if (expected == null) {
+                assertFalse(cart.findItem(productId).isPresent(), productId + " should have been removed");
+            }
+            else {
+                assertEquals(expected.intValue(), cart.findItem(productId).map(CartItem::getQuantity).orElse(0).intValue(),
+                        "Wrong final quantity on " + productId);
+            }
+        }
+        int expectedItems = 0;
+        for (int i = 0; i < SHARED_PRODUCTS; i++) {
+            expectedItems += sharedAdds.get(i) == 0 ? 0 : 1;
+        }
+        for (PrivateItemState state : privateStates) {
+            expectedItems += state.quantity == null ? 0 : 1;
+        }
+        assertEquals(expectedItems, cart.getItems().size(), "Unexpected items in cart: " + cart);
+    }
+
+    @Test
+    void concurrentBatchAddsOnSingleCart() throws Exception {
+        AtomicLongArray sharedAdds = new AtomicLongArray(SHARED_PRODUCTS);
+
+        long elapsedNanos = runConcurrently(threadIndex -> {
+            Random random = new Random(SEED + threadIndex);
+            for (int op = 0; op < OPS_PER_THREAD; op++) {
+                Map<String, Integer> items = new HashMap<>();
+                int count = 1 + random.nextInt(SHARED_PRODUCTS);
+                for (int i = 0; i < count; i++) {
+                    int product = random.nextInt(SHARED_PRODUCTS);
+                    items.merge("shared-" + product, 1, Integer::sum);
+                }
+                service.addItemsToCart(USER_ID, items);
+                items.forEach((productId, quantity) ->
+                        sharedAdds.addAndGet(Integer.parseInt(productId.substring("shared-".length())), quantity));
+            }
+        });
+
+        report("batch add", elapsedNanos, THREADS * OPS_PER_THREAD);
+
+        Cart cart = service.getCart(USER_ID);
+        long expectedTotal = 0;
+        for (int i = 0; i < SHARED_PRODUCTS; i++) {
+            String productId = "shared-" + i;
+            assertEquals(sharedAdds.get(i), cart.findItem(productId).map(CartItem::getQuantity).orElse(0).longValue(),
+                    "Lost update on " + productId);
+            expectedTotal += sharedAdds.get(i);
+        }
+        assertEquals(expectedTotal, cart.getItemCount());
+    }
+
+    @Test
+    void concurrentCreateOfSameCart() throws Exception {
+        // Hold every thread's first read until all of them have read, so they all see no cart
+        // and race to create it
+        CountDownLatch allRead = new CountDownLatch(THREADS);
+        ThreadLocal<Boolean> hasRead = ThreadLocal.withInitial(() -> false);
+        AtomicReference<Exception> interrupted = new AtomicReference<>();
+        cartStore.setAfterRead(() -> {
+            if (!hasRead.get()) {
+                hasRead.set(true);
+                allRead.countDown();
+                try {
+                    allRead.await();
+                }
+                catch (InterruptedException e) {
+                    interrupted.set(e);
+                }
+            }
+        });
+
+        runConcurrently(threadIndex -> {
+            service.addToCart(USER_ID, "shared-0", 1);
+            service.addToCart(USER_ID, "private-" + threadIndex, 1);
+        });
+
+        assertNull(interrupted.get());
+        assertEquals(THREADS - 1, cartStore.getCreateConflicts(), "Every thread but one should lose the create");
+        Cart cart = service.getCart(USER_ID);
+        assertEquals(THREADS, cart.findItem("shared-0").map(CartItem::getQuantity).orElse(0).intValue(),
+                "Lost update on shared-0");
+        for (int i = 0; i < THREADS; i++) {
+            assertEquals(1, cart.findItem("private-" + i).map(CartItem::getQuantity).orElse(0).intValue(),
+                    "Lost update on private-" + i);
+        }
+        assertEquals(THREADS + 1, cart.getItems().size(), "Unexpected items in cart: " + cart);
+    }
+
+    @FunctionalInterface
+    private interface Worker {
+        void run(int threadIndex) throws Exception;
+    }
+
+    /**
+     * Run the worker on all threads at once, releasing them together so they contend on the
+     * cart from the first operation. Returns the elapsed time in nanoseconds.
+     */
+    private long runConcurrently(Worker worker) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            CountDownLatch ready = new CountDownLatch(THREADS);
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < THREADS; i++) {
+                int threadIndex = i;
+                futures.add(executor.submit(() -> {
+                    ready.countDown();
+                    start.await();
+                    worker.run(threadIndex);
+                    return null;
+                }));
+            }
+            ready.await();
+            long startTime = System.nanoTime();
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(2, TimeUnit.MINUTES);
+            }
+            return System.nanoTime() - startTime;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Report the rate the operations ran at and how many writes lost a race and were retried
+     */
+    private void report(String name, long elapsedNanos, long operations) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        System.out.printf("%s: %,d ops in %.2f s (%,.0f ops/sec), %,d generation and %,d create retries%n",
+                name, operations, seconds, operations / seconds,
+                cartStore.getGenerationConflicts(), cartStore.getCreateConflicts());
+    }
+}
@@ -0,0 +1,154 @@
+package com.aerospike.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.ResultCode;
+import com.aerospike.exception.GenerationException;
+import com.aerospike.model.Cart;
+import com.aerospike.model.CartItem;
+import com.aerospike.model.Product;
+
+/**
+ * Tests of the cart operations against {@link InMemoryCartStore}, around the cart cache, and
+ * of the retry loop the cart writes share
+ */
+class CartOperationsTest {
+
+    private static final String USER_ID = "cart_user";
+
+    private InMemoryCartStore cartStore;
+    private CartCache cartCache;
+    private CartOperations service;
+
+    @BeforeEach
+    void setUp() {
+        cartStore = new InMemoryCartStore();
+        cartCache = new CartCache(10);
+        service = new CartOperations(cartStore, cartCache, CartOperationsTest::getProducts);
+    }
+
+    private static Map<String, Product> getProducts(List<String> productIds) {
+        Map<String, Product> products = new HashMap<>();
+        for (String productId : productIds) {
+            Product product = new Product();
+            product.setId(productId);
+            product.setName("Product " + productId);
+            product.setPrice(100);
+            products.put(productId, product);
+        }
+        return products;
+    }
+
+    private static int quantity(Cart cart, String productId) {
+        return cart.findItem(productId).map(CartItem::getQuantity).orElse(0);
+    }
+
+    @Test
+    void changingACachedCartDoesNotChangeTheCache() {
+        service.addToCart(USER_ID, "p1", 2);
+        Cart first = service.getCart(USER_ID);
+        first.findItem("p1").get().setQuantity(99);
+        first.remove("p1");
+
+        Cart second = service.getCart(USER_ID);
+        assertEquals(1, cartCache.getHits());
+        assertEquals(2, quantity(second, "p1"));
+        second.findItem("p1").get().setQuantity(99);
+
+        assertEquals(2, quantity(service.getCart(USER_ID), "p1"));
+        assertEquals(2, cartCache.getHits());
+    }
+
+    @Test
+    void recreatedCartIsNotServedFromCache() {
+        service.addToCart(USER_ID, "p1", 1);
+        assertEquals(1, quantity(service.getCart(USER_ID), "p1"));
+
+        // Deleted and created again, so it is back at generation 1
+        cartStore.delete(USER_ID);
+        service.addToCart(USER_ID, "p2", 3);
+
+        Cart cart = service.getCart(USER_ID);
+        assertFalse(cart.findItem("p1").isPresent(), "Stale cart served: " + cart);
+        assertEquals(3, quantity(cart, "p2"));
+        assertEquals(0, cartCache.getHits());
+    }
+
+    @Test
+    void deletedCartIsRemovedFromCache() {
+        service.addToCart(USER_ID, "p1", 1);
+        service.getCart(USER_ID);
+        assertTrue(cartCache.contains(USER_ID));
+
+        cartStore.delete(USER_ID);
+
+        assertTrue(service.getCart(USER_ID).getItems().isEmpty());
+        assertFalse(cartCache.contains(USER_ID));
+    }
+
+    @Test
+    void readOutOfTimeIsNotAnEmptyCart() {
+        service.addToCart(USER_ID, "p1", 1);
+        cartStore.setAfterRead(() -> {
+            throw new RequestDeadline.ExceededException("Request deadline exceeded");
+        });
+
+        assertThrows(RequestDeadline.ExceededException.class, () -> service.getCart(USER_ID));
+    }
+
+    @Test
+    void writeOutOfTimeKeepsTheTimeoutAsCause() {
+        cartStore.setAfterRead(() -> {
+            throw new RequestDeadline.ExceededException("Request deadline exceeded");
+        });
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> service.addToCart(USER_ID, "p1", 1));
+        assertTrue(e.getCause() instanceof RequestDeadline.ExceededException, "Cause: " + e.getCause());
+    }
+
+    @Test
+    void lostRacesAreRetriedFromTheRead() {
+        List<RuntimeException> failures = new ArrayList<>(List.of(
+                new AerospikeException(ResultCode.GENERATION_ERROR),
+                new AerospikeException(ResultCode.KEY_EXISTS_ERROR),
+                new GenerationException(ResultCode.GENERATION_ERROR, "Generation error", false)));
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = CartOperations.retryLostRaces("testing", () -> {
+            attempts.incrementAndGet();
+            if (!failures.isEmpty()) {
+                throw failures.remove(0);
+            }
+            return "written";
+        });
+
+        assertEquals("written", result);
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    void otherFailuresAreNotRetried() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        AerospikeException e = assertThrows(AerospikeException.class, () -> CartOperations.retryLostRaces("testing", () -> {
+            attempts.incrementAndGet();
+            throw new AerospikeException(ResultCode.OP_NOT_APPLICABLE);
+        }));
+
+        assertEquals(ResultCode.OP_NOT_APPLICABLE, e.getResultCode());
+        assertEquals(1, attempts.get());
+    }
+}
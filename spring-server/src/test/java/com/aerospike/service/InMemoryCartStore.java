@@ -0,0 +1,148 @@
+package com.aerospike.service;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.aerospike.client.AerospikeException;
+import com.aerospike.client.Record;
+import com.aerospike.client.ResultCode;
+import com.aerospike.model.CartItem;
+
+/**
+ * Cart records held in memory with Aerospike record semantics, so {@link CartOperations} can be
+ * run without an Aerospike server: every write bumps the record generation, a write that
+ * expects a generation fails with {@code GENERATION_ERROR} if the record has changed, and a
+ * create-only write fails with {@code KEY_EXISTS_ERROR} if the record already exists. A record
+ * created by a create-only write is stamped with a creation time which is unique, rather than
+ * the clock time.
+ * <p/>
+ * Reads yield the thread, to widen the window between a read and the write that depends on it.
+ */
+public class InMemoryCartStore implements CartStore {
+
+    private static final String ITEMS_BIN = "items";
+
+    private final Map<String, Record> carts = new ConcurrentHashMap<>();
+    private final LongAdder generationConflicts = new LongAdder();
+    private final LongAdder createConflicts = new LongAdder();
+    private final AtomicLong clock = new AtomicLong();
+    private volatile Runnable afterRead = () -> {};
+
+    public long getGenerationConflicts() {
+        return generationConflicts.sum();
+    }
+
+    public long getCreateConflicts() {
+        return createConflicts.sum();
+    }
+
+    /**
+     * Run the action after every read has looked up the record, before it returns
+     */
+    public void setAfterRead(Runnable afterRead) {
+        this.afterRead = afterRead;
+    }
+
+    @Override
+    public Record get(String userId) {
+        Record record = carts.get(userId);
+        afterRead.run();
+        Thread.yield();
+        return record == null ? null : new Record(copyBins(record.bins), record.generation, 0);
+    }
+
+    @Override
+    public Record getHeader(String userId) {
+        Record record = carts.get(userId);
+        if (record == null) {
+            return null;
+        }
+        Map<String, Object> bins = new HashMap<>();
+        bins.put(CREATED_AT_BIN, record.bins.get(CREATED_AT_BIN));
+        return new Record(bins, record.generation, 0);
+    }
+
+    /**
+     * Delete the cart record, as a truncate or an expiry would
+     */
+    public void delete(String userId) {
+        carts.remove(userId);
+    }
+
+    @Override
+    public void write(String userId, int generation, List<CartChange> changes) {
+        carts.compute(userId, (id, record) -> {
+            if (generation == CREATE_ONLY && record != null) {
+                createConflicts.increment();
+                throw new AerospikeException(ResultCode.KEY_EXISTS_ERROR);
+            }
+            if (generation > 0 && (record == null || record.generation != generation)) {
+                generationConflicts.increment();
+                throw new AerospikeException(ResultCode.GENERATION_ERROR);
+            }
+            Map<String, Object> bins = record == null ? new HashMap<>() : copyBins(record.bins);
+            if (generation == CREATE_ONLY) {
+                bins.put(CREATED_AT_BIN, clock.incrementAndGet());
+            }
+            Map<String, Map<String, Object>> items = items(bins);
+            for (CartChange change : changes) {
+                apply(items, change);
+            }
+            return new Record(bins, record == null ? 1 : record.generation + 1, 0);
+        });
+    }
+
+    private static void apply(Map<String, Map<String, Object>> items, CartChange change) {
+        Map<String, Object> item = items.get(change.getProductId());
+        switch (change.getKind()) {
+            case ADD_QUANTITY -> {
+                if (item == null) {
+                    throw new AerospikeException(ResultCode.OP_NOT_APPLICABLE);
+                }
+                item.put("quantity", ((Number) item.get("quantity")).longValue() + change.getQuantity());
+            }
+            case PUT_ITEM -> items.put(change.getProductId(), itemAsMap(change.getItem()));
+            case SET_QUANTITY -> {
+                if (item == null) {
+                    throw new AerospikeException(ResultCode.OP_NOT_APPLICABLE);
+                }
+                item.put("quantity", (long) change.getQuantity());
+            }
+            case REMOVE_ITEM -> items.remove(change.getProductId());
+            case CLEAR -> items.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Map<String, Object>> items(Map<String, Object> bins) {
+        return (Map<String, Map<String, Object>>) bins.computeIfAbsent(ITEMS_BIN, name -> new HashMap<>());
+    }
+
+    private static Map<String, Object> copyBins(Map<String, Object> bins) {
+        Map<String, Map<String, Object>> items = new HashMap<>();
+        for (Entry<String, Map<String, Object>> entry : items(new HashMap<>(bins)).entrySet()) {
+            items.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        Map<String, Object> result = new HashMap<>();
+        result.put(ITEMS_BIN, items);
+        result.put(CREATED_AT_BIN, bins.get(CREATED_AT_BIN));
+        return result;
+    }
+
+    private static Map<String, Object> itemAsMap(CartItem item) {
+        Map<String, Object> map = new HashMap<>();
+        map.put("productId", item.getProductId());
+        map.put("name", item.getName());
+        map.put("price", item.getPrice());
+        map.put("brandName", item.getBrandName());
+        map.put("quantity", (long) item.getQuantity());
+        map.put("image", item.getImage());
+        map.put("userId", item.getUserId());
+        return map;
+    }
+}
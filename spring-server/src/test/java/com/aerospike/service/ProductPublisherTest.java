@@ -0,0 +1,213 @@
+package com.aerospike.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Flow;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.aerospike.model.Product;
+
+/**
+ * Tests of the demand handling of {@link ProductPublisher}, against a cursor which counts what is
+ * pulled from it. The reads run on the calling thread, so each request has been served when it
+ * returns.
+ */
+class ProductPublisherTest {
+
+    private FakeCursor cursor;
+    private int queriesStarted;
+    private ProductPublisher publisher;
+
+    @BeforeEach
+    void setUp() {
+        cursor = new FakeCursor(10);
+        queriesStarted = 0;
+        publisher = new ProductPublisher(() -> {
+            queriesStarted++;
+            return cursor;
+        }, Runnable::run);
+    }
+
+    @Test
+    void readsOnlyWhatIsRequested() {
+        RecordingSubscriber subscriber = subscribe();
+        assertEquals(0, queriesStarted);
+
+        subscriber.subscription.request(2);
+        assertEquals(List.of("p0", "p1"), subscriber.ids());
+        assertEquals(2, cursor.pulled);
+
+        subscriber.subscription.request(3);
+        assertEquals(List.of("p0", "p1", "p2", "p3", "p4"), subscriber.ids());
+        assertEquals(5, cursor.pulled);
+        assertEquals(1, queriesStarted);
+        assertFalse(subscriber.completed);
+        assertFalse(cursor.closed);
+    }
+
+    @Test
+    void requestsFromOnNextAreServed() {
+        RecordingSubscriber subscriber = subscribe();
+        subscriber.requestOnNext = true;
+
+        subscriber.subscription.request(1);
+        assertEquals(10, subscriber.ids().size());
+        assertTrue(subscriber.completed);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    void completesAndClosesWhenTheQueryEnds() {
+        RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(Long.MAX_VALUE);
+
+        assertEquals(10, subscriber.ids().size());
+        assertTrue(subscriber.completed);
+        assertNull(subscriber.error);
+        assertTrue(cursor.closed);
+    }
+
+    @Test
+    void cancelClosesTheCursorAndStopsProducts() {
+        RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(2);
+        subscriber.subscription.cancel();
+        assertTrue(cursor.closed);
+
+        subscriber.subscription.request(5);
+        assertEquals(2, subscriber.ids().size());
+        assertEquals(2, cursor.pulled);
+        assertFalse(subscriber.completed);
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    void cancelBeforeRequestingDoesNotStartTheQuery() {
+        RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.cancel();
+        subscriber.subscription.request(1);
+
+        assertEquals(0, queriesStarted);
+        assertTrue(subscriber.ids().isEmpty());
+    }
+
+    @Test
+    void requestZeroIsAnError() {
+        RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(0);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException, "Error: " + subscriber.error);
+        assertTrue(cursor.closed);
+
+        subscriber.subscription.request(5);
+        assertEquals(List.of("p0"), subscriber.ids());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    void negativeRequestBeforeReadingDoesNotStartTheQuery() {
+        RecordingSubscriber subscriber = subscribe();
+        subscriber.subscription.request(-1);
+
+        assertTrue(subscriber.error instanceof IllegalArgumentException, "Error: " + subscriber.error);
+        assertEquals(0, queriesStarted);
+    }
+
+    @Test
+    void queryFailureIsPassedOn() {
+        RecordingSubscriber subscriber = subscribe();
+        cursor.failAt = 3;
+        subscriber.subscription.request(5);
+
+        assertEquals(3, subscriber.ids().size());
+        assertTrue(subscriber.error instanceof IllegalStateException, "Error: " + subscriber.error);
+        assertTrue(cursor.closed);
+    }
+
+    private RecordingSubscriber subscribe() {
+        RecordingSubscriber subscriber = new RecordingSubscriber();
+        publisher.subscribe(subscriber);
+        return subscriber;
+    }
+
+    /**
+     * A cursor over numbered products, which records how many were pulled and whether it was closed
+     */
+    private static class FakeCursor implements ProductCursor {
+        private final int size;
+        private int pulled = 0;
+        private int failAt = -1;
+        private boolean closed = false;
+
+        FakeCursor(int size) {
+            this.size = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pulled < size;
+        }
+
+        @Override
+        public Product next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (pulled == failAt) {
+                throw new IllegalStateException("Query failed");
+            }
+            Product product = new Product();
+            product.setId("p" + pulled++);
+            return product;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Product> {
+        private final List<Product> products = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean requestOnNext = false;
+        private boolean completed = false;
+        private Throwable error;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(Product product) {
+            products.add(product);
+            if (requestOnNext) {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+
+        List<String> ids() {
+            return products.stream().map(Product::getId).toList();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.aerospike.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.aerospike.client.Key;
+import com.aerospike.client.Record;
+import com.aerospike.client.query.KeyRecord;
+import com.aerospike.model.ProductSort;
+import com.aerospike.query.RecordComparator;
+import com.aerospike.query.SortDir;
+import com.aerospike.query.SortProperties;
+
+/**
+ * Tests that {@link RecordSorter} puts records in the same order as the fluent client's
+ * {@link RecordComparator}. RecordComparator gives no order to records which are equal on every
+ * property, so the sorted records are checked pair by pair, and equal pairs are checked to keep
+ * the order they were read in.
+ */
+class RecordSorterTest {
+
+    private static final String[] NAMES = {"apple", "Apple", "APPLE", "banana", "Banana", "cherry", "\u00c6r\u00f8", "\u00e6r\u00f8", "stra\u00dfe", "STRASSE"};
+
+    private static final List<SortProperties> MIXED = List.of(
+            new SortProperties("name", SortDir.SORT_ASC, true),
+            new SortProperties("price", SortDir.SORT_DESC, false),
+            new SortProperties("added", SortDir.SORT_ASC, false));
+
+    @Test
+    void sortMatchesRecordComparatorOnMixedTypes() {
+        List<KeyRecord> records = records(new Random(1), 2000);
+        assertSorted(MIXED, records, RecordSorter.compile(MIXED).sort(records));
+    }
+
+    @Test
+    void sortMatchesRecordComparatorCaseSensitive() {
+        List<SortProperties> properties = List.of(
+                new SortProperties("name", SortDir.SORT_DESC, false),
+                new SortProperties("price", SortDir.SORT_ASC, false));
+        List<KeyRecord> records = records(new Random(2), 2000);
+        assertSorted(properties, records, RecordSorter.compile(properties).sort(records));
+    }
+
+    @Test
+    void firstIsTheStartOfTheSort() {
+        List<KeyRecord> records = records(new Random(3), 2000);
+        RecordSorter sorter = RecordSorter.compile(MIXED);
+        List<KeyRecord> sorted = sorter.sort(records);
+
+        for (int limit : new int[] {1, 7, 50, 2000, 5000}) {
+            assertEquals(sorted.subList(0, Math.min(limit, sorted.size())), sorter.first(records.iterator(), limit),
+                    "First " + limit);
+        }
+        assertTrue(sorter.first(records.iterator(), 0).isEmpty());
+    }
+
+    @Test
+    void tiesKeepTheOrderTheyWereReadIn() {
+        List<KeyRecord> records = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            records.add(record(i, Map.of("name", i % 2 == 0 ? "Same" : "same", "price", 10L)));
+        }
+        RecordSorter sorter = RecordSorter.compile(MIXED);
+        assertEquals(records, sorter.sort(records));
+        assertEquals(records.subList(0, 5), sorter.first(records.iterator(), 5));
+    }
+
+    @Test
+    void ignoringCaseAppliesInsideListsAndMaps() {
+        String[] words = {"apple", "Apple", "APPLE", "b", "B"};
+        List<KeyRecord> records = new ArrayList<>();
+        Random random = new Random(5);
+        for (int i = 0; i < 500; i++) {
+            String first = words[random.nextInt(words.length)];
+            String second = words[random.nextInt(words.length)];
+            records.add(record(i, Map.of("tags", random.nextBoolean()
+                    ? List.of(first, second)
+                    : Map.of("name", first, "type", second))));
+        }
+        List<SortProperties> properties = List.of(new SortProperties("tags", SortDir.SORT_ASC, true));
+        RecordSorter sorter = RecordSorter.compile(properties);
+        assertSorted(properties, records, sorter.sort(records));
+
+        // Equal but for case, so they keep the order they were read in
+        List<KeyRecord> lists = List.of(record(0, Map.of("tags", List.of("b", "Apple"))),
+                record(1, Map.of("tags", List.of("B", "apple"))));
+        assertEquals(lists, sorter.sort(lists));
+        List<KeyRecord> maps = List.of(record(0, Map.of("tags", Map.of("name", "b"))),
+                record(1, Map.of("tags", Map.of("name", "B"))));
+        assertEquals(maps, sorter.sort(maps));
+    }
+
+    @Test
+    void productSortsMatchRecordComparator() {
+        List<KeyRecord> records = new ArrayList<>();
+        Random random = new Random(4);
+        for (int i = 0; i < 500; i++) {
+            Map<String, Object> bins = new HashMap<>();
+            for (ProductSort sort : ProductSort.values()) {
+                if (random.nextInt(10) != 0) {
+                    bins.put(sort.getBinName(), (long) random.nextInt(100));
+                }
+            }
+            records.add(record(i, bins));
+        }
+        for (ProductSort sort : ProductSort.values()) {
+            List<SortProperties> properties = List.of(new SortProperties(sort.getBinName(),
+                    sort.isDescending() ? SortDir.SORT_DESC : SortDir.SORT_ASC, false));
+            assertSorted(properties, records, RecordSorter.of(sort).sort(records));
+            assertEquals(RecordSorter.of(sort).sort(records).subList(0, 20), RecordSorter.of(sort).first(records.iterator(), 20),
+                    sort.name());
+        }
+    }
+
+    /**
+     * Check each record comes after the one before it by the RecordComparator order, and after
+     * it in the input if the two are equal
+     */
+    private static void assertSorted(List<SortProperties> properties, List<KeyRecord> input, List<KeyRecord> sorted) {
+        assertEquals(input.size(), sorted.size());
+        RecordComparator comparator = new RecordComparator(properties);
+        for (int i = 1; i < sorted.size(); i++) {
+            KeyRecord before = sorted.get(i - 1);
+            KeyRecord after = sorted.get(i);
+            boolean beforeFirst = comparator.compare(before, after) < 0;
+            boolean afterFirst = comparator.compare(after, before) < 0;
+            assertTrue(beforeFirst, "Out of order at " + i + ": " + before.record.bins + " then " + after.record.bins);
+            if (afterFirst) {
+                // Equal, as RecordComparator puts either first
+                assertTrue(input.indexOf(before) < input.indexOf(after), "Tie out of read order at " + i);
+            }
+        }
+    }
+
+    /**
+     * Records with a name which may be missing or differ only in case, a price of any type or
+     * missing, and an added time which is often the same
+     */
+    private static List<KeyRecord> records(Random random, int count) {
+        List<KeyRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> bins = new HashMap<>();
+            if (random.nextInt(10) != 0) {
+                bins.put("name", NAMES[random.nextInt(NAMES.length)]);
+            }
+            switch (random.nextInt(12)) {
+                case 0 -> bins.put("price", random.nextInt(20) * 0.5);
+                case 1 -> bins.put("price", "free");
+                case 2 -> bins.put("price", random.nextBoolean());
+                case 3 -> bins.put("price", List.of((long) random.nextInt(3), "x"));
+                case 4 -> bins.put("price", Map.of("amount", (long) random.nextInt(3)));
+                case 5 -> bins.put("price", new byte[] {(byte) random.nextInt(3)});
+                case 6 -> { }
+                case 7 -> bins.put("price", random.nextInt(20));
+                default -> bins.put("price", (long) random.nextInt(20));
+            }
+            bins.put("added", (long) random.nextInt(5));
+            records.add(record(i, bins));
+        }
+        return records;
+    }
+
+    private static KeyRecord record(int id, Map<String, Object> bins) {
+        return new KeyRecord(new Key("test", "products", "p" + id), new Record(bins, 1, 0));
+    }
+}
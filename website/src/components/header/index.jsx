@@ -20,10 +20,7 @@ const Header = () => {
 
     useEffect(() => {
         // Load dropdown data from API
-        fetchCategories();
-        fetchArticleTypes();
-        fetchUsageTypes();
-        fetchBrandNames();
+        fetchMetadata();
         
         // Get current URL parameters
         let params = new URLSearchParams(window.location.search);
@@ -40,43 +37,16 @@ const Header = () => {
         if(brand) setBrandName(brand);
     }, [])
 
-    const fetchCategories = async () => {
+    const fetchMetadata = async () => {
         try {
-            const response = await fetch('http://localhost:8080/rest/v1/categories');
+            const response = await fetch('http://localhost:8080/rest/v1/metadata');
             const data = await response.json();
             setCategories(data.categories || []);
-        } catch (error) {
-            console.error('Error fetching categories:', error);
-        }
-    };
-
-    const fetchArticleTypes = async () => {
-        try {
-            const response = await fetch('http://localhost:8080/rest/v1/article-types');
-            const data = await response.json();
             setArticleTypes(data.articleTypes || []);
-        } catch (error) {
-            console.error('Error fetching article types:', error);
-        }
-    };
-
-    const fetchUsageTypes = async () => {
-        try {
-            const response = await fetch('http://localhost:8080/rest/v1/usage-types');
-            const data = await response.json();
             setUsageTypes(data.usageTypes || []);
-        } catch (error) {
-            console.error('Error fetching usage types:', error);
-        }
-    };
-
-    const fetchBrandNames = async () => {
-        try {
-            const response = await fetch('http://localhost:8080/rest/v1/brand-names');
-            const data = await response.json();
             setBrandNames(data.brandNames || []);
         } catch (error) {
-            console.error('Error fetching brand names:', error);
+            console.error('Error fetching metadata:', error);
         }
     };
 